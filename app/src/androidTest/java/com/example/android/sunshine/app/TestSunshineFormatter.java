@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.TestUtilities;
+
+import java.text.SimpleDateFormat;
+
+/*
+    Checks that the formatter makes the same strings String.format() and the old Utility code
+    did, and that once it has seen a sync's worth of values, formatting them again allocates
+    nothing.
+ */
+public class TestSunshineFormatter extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // From M on allocations are counted for the whole process, so the rest of it gets a little
+    // leeway then; a single string per value formatted would come to well over this
+    private static final long ALLOCATION_NOISE_BYTES = 16 * 1024;
+
+    private SunshineFormatter mFormatter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFormatter = SunshineFormatter.getInstance(mContext);
+    }
+
+    public void testTemperatureMatchesStringFormat() {
+        String format = mContext.getString(R.string.format_temperature);
+        // Quarter degrees are exact in binary, so the halves are really halves
+        for (double celsius = -60; celsius <= 60; celsius += 0.25) {
+            assertEquals("Error: " + celsius + "C differs",
+                    String.format(format, celsius), mFormatter.formatTemperature(celsius, true));
+            double fahrenheit = (celsius * 1.8) + 32;
+            assertEquals("Error: " + celsius + "C in Fahrenheit differs",
+                    String.format(format, fahrenheit),
+                    mFormatter.formatTemperature(celsius, false));
+        }
+        assertEquals(String.format(format, 1234.5), mFormatter.formatTemperature(1234.5, true));
+    }
+
+    public void testDayLabelsMatchUtility() {
+        long now = System.currentTimeMillis();
+        for (int day = -1; day <= 14; day++) {
+            long date = now + day * DAY_IN_MILLIS;
+            String error = "Error: day " + day + " differs";
+            assertEquals(error, legacyFriendlyDayString(date, true),
+                    mFormatter.getFriendlyDayString(date, true));
+            assertEquals(error, legacyFriendlyDayString(date, false),
+                    mFormatter.getFriendlyDayString(date, false));
+            assertEquals(error, mContext.getString(R.string.format_full_friendly_date,
+                    legacyDayName(date), legacyMonthDay(date)),
+                    mFormatter.getFullFriendlyDayString(date));
+            assertEquals(error, legacyDayName(date), mFormatter.getDayName(date));
+            assertEquals(error, legacyMonthDay(date), mFormatter.getFormattedMonthDay(date));
+        }
+    }
+
+    public void testNoAllocationOnceWarm() {
+        long now = System.currentTimeMillis();
+        // What binding a 14 day forecast asks for
+        bindForecast(now);
+
+        TestUtilities.startAllocCounting();
+        long allocated = TestUtilities.getAllocatedBytes();
+        for (int i = 0; i < 100; i++) {
+            bindForecast(now);
+        }
+        allocated = TestUtilities.getAllocatedBytes() - allocated;
+        TestUtilities.stopAllocCounting();
+
+        assertTrue("Error: formatting values seen before allocated " + allocated + " bytes",
+                allocated <= (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                        ? ALLOCATION_NOISE_BYTES : 0));
+    }
+
+    private void bindForecast(long now) {
+        for (int day = 0; day < 14; day++) {
+            long date = now + day * DAY_IN_MILLIS;
+            mFormatter.getFriendlyDayString(date, day == 0);
+            mFormatter.getFullFriendlyDayString(date);
+            String high = mFormatter.formatTemperature(21.75 + day, true);
+            String low = mFormatter.formatTemperature(9.25 - day, false);
+            mFormatter.getLabel(R.string.a11y_high_temp, high);
+            mFormatter.getLabel(R.string.a11y_low_temp, low);
+            mFormatter.getLabel(R.string.a11y_forecast, "Clear");
+        }
+    }
+
+    // What Utility.getFriendlyDayString() did before the formatter
+    private String legacyFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+        if (displayLongToday && julianDay == currentJulianDay) {
+            return mContext.getString(R.string.format_full_friendly_date,
+                    mContext.getString(R.string.today), legacyMonthDay(dateInMillis));
+        } else if (julianDay < currentJulianDay + 7) {
+            return legacyDayName(dateInMillis);
+        } else {
+            return new SimpleDateFormat("EEE MMM dd").format(dateInMillis);
+        }
+    }
+
+    private String legacyDayName(long dateInMillis) {
+        Time t = new Time();
+        t.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        if (julianDay == currentJulianDay) {
+            return mContext.getString(R.string.today);
+        } else if (julianDay == currentJulianDay + 1) {
+            return mContext.getString(R.string.tomorrow);
+        } else {
+            return new SimpleDateFormat("EEEE").format(dateInMillis);
+        }
+    }
+
+    private static String legacyMonthDay(long dateInMillis) {
+        return new SimpleDateFormat("MMMM dd").format(dateInMillis);
+    }
+}
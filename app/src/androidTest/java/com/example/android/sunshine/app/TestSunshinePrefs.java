@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.Arrays;
+
+/*
+    Checks that the preference snapshot is reused while nothing changes and follows the
+    preferences when they do.
+ */
+public class TestSunshinePrefs extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mSavedUnits;
+    private String mTrackedKey;
+    private String mSavedTracked;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mSavedUnits = mPrefs.getString(mUnitsKey, mContext.getString(R.string.pref_units_metric));
+        mTrackedKey = mContext.getString(R.string.pref_tracked_locations_key);
+        mSavedTracked = mPrefs.getString(mTrackedKey, "");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().putString(mUnitsKey, mSavedUnits).putString(mTrackedKey, mSavedTracked)
+                .commit();
+        super.tearDown();
+    }
+
+    public void testSnapshotFollowsPreferences() {
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_metric))
+                .commit();
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return SunshinePrefs.get(mContext).metric;
+            }
+        }.run();
+        SunshinePrefs snapshot = SunshinePrefs.get(mContext);
+        assertSame("Error: a new snapshot was taken without a change",
+                snapshot, SunshinePrefs.get(mContext));
+
+        // Listeners hear about the change on the main thread, so give it a moment
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial))
+                .commit();
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return !SunshinePrefs.get(mContext).metric;
+            }
+        }.run();
+        assertFalse(Utility.isMetric(mContext));
+    }
+
+    public void testTrackedLocations() {
+        Utility.setTrackedLocations(mContext, Arrays.asList("94043", "London, UK"));
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return SunshinePrefs.get(mContext).trackedLocations.size() == 2;
+            }
+        }.run();
+        assertEquals(Arrays.asList("94043", "London, UK"), Utility.getTrackedLocations(mContext));
+    }
+}
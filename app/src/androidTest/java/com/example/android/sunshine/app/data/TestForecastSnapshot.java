@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Stores a batch of two locations, and checks that the snapshot of one of them reads the same
+    as querying it back, and that it's only handed out to the sync that published it.
+ */
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    private static final String HOME = "94043";
+    private static final String AWAY = "London";
+    private static final long SYNC_ID = 1450000000000L;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastSnapshot.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static WeatherBatch createTwoLocationBatch(long today) {
+        WeatherBatch batch = new WeatherBatch(28);
+        long home = batch.addLocation(HOME, "Mountain View", 37.39, -122.08, 0);
+        long away = batch.addLocation(AWAY, "London", 51.51, -0.13, 0);
+        for (int i = 0; i < 14; i++) {
+            long date = today + i * DAY_IN_MILLIS;
+            batch.add(home, date, 800, "Clear", 10 + i, 20 + i, 40, 1000, 5, 180);
+            batch.add(away, date, 500, "Rain", 5 + i, 12 + i, 80, 990, 8, 270);
+        }
+        return batch;
+    }
+
+    public void testSnapshotReadsLikeTheProvider() {
+        long now = System.currentTimeMillis();
+        WeatherBatch batch = createTwoLocationBatch(WeatherContract.normalizeDate(now));
+        ForecastSnapshot snapshot = ForecastSnapshot.fromBatch(SYNC_ID, batch, HOME);
+        assertNotNull(snapshot);
+        assertEquals(28, batch.insert(mContext.getContentResolver(), true));
+
+        Cursor stored = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(HOME, now), COLUMNS, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        Cursor snapped = snapshot.newCursor(COLUMNS, now);
+        assertEquals("Error: the snapshot doesn't hold the days stored",
+                stored.getCount(), snapped.getCount());
+        while (stored.moveToNext()) {
+            assertTrue(snapped.moveToNext());
+            assertEquals(stored.getLong(0), snapped.getLong(0));
+            assertEquals(stored.getInt(1), snapped.getInt(1));
+            assertEquals(stored.getString(2), snapped.getString(2));
+            for (int column = 3; column < COLUMNS.length; column++) {
+                assertEquals("Error: " + COLUMNS[column] + " differs from what was stored",
+                        stored.getDouble(column), snapped.getDouble(column), 1e-9);
+            }
+        }
+        stored.close();
+        snapped.close();
+
+        Cursor fromTomorrow = snapshot.newCursor(COLUMNS, now + DAY_IN_MILLIS);
+        assertEquals("Error: days before the start date weren't left out",
+                13, fromTomorrow.getCount());
+        fromTomorrow.close();
+    }
+
+    public void testOnlyThePublishingSyncFindsTheSnapshot() {
+        WeatherBatch batch = createTwoLocationBatch(
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+        assertNull("Error: a location the batch doesn't hold was snapped",
+                ForecastSnapshot.fromBatch(SYNC_ID, batch, "Atlantis"));
+
+        ForecastSnapshot snapshot = ForecastSnapshot.fromBatch(SYNC_ID, batch, HOME);
+        ForecastSnapshot.publish(snapshot);
+        assertSame(snapshot, ForecastSnapshot.get(SYNC_ID, HOME));
+        assertSame(snapshot, ForecastSnapshot.getLatest(HOME));
+        assertNull("Error: another sync's consumer got the snapshot",
+                ForecastSnapshot.get(SYNC_ID + 1, HOME));
+        assertNull("Error: the snapshot was handed out for another location",
+                ForecastSnapshot.get(SYNC_ID, AWAY));
+
+        ForecastSnapshot.clear();
+        assertNull(ForecastSnapshot.get(SYNC_ID, HOME));
+        assertNull(ForecastSnapshot.getLatest(HOME));
+    }
+
+    public void testUnknownColumnIsRejected() {
+        ForecastSnapshot snapshot = ForecastSnapshot.fromBatch(SYNC_ID,
+                createTwoLocationBatch(WeatherContract.normalizeDate(System.currentTimeMillis())),
+                HOME);
+        try {
+            snapshot.newCursor(new String[] {LocationEntry.COLUMN_CITY_NAME},
+                    System.currentTimeMillis());
+            fail("Error: a column the snapshot doesn't hold was accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
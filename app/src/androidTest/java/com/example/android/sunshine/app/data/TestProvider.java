@@ -25,9 +25,11 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
 import android.test.AndroidTestCase;
+import android.test.MoreAsserts;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncLogEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /*
@@ -512,4 +514,128 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    private long[] readWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[] {WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
+
+    /*
+        The upsert flavour of bulkInsert should leave unchanged rows alone (same _id, no
+        notification) and only write, and notify, the days that changed.
+     */
+    public void testBulkUpsert() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        Uri upsertUri = WeatherEntry.buildWeatherUpsertUri();
+
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        assertEquals("Error: every row should be new on the first upsert",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                mContext.getContentResolver().bulkInsert(upsertUri, weatherValues));
+        long[] firstIds = readWeatherIds();
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, firstIds.length);
+
+        // Same forecast again: nothing should change
+        assertEquals("Error: an identical upsert should not change any rows",
+                0, mContext.getContentResolver().bulkInsert(upsertUri,
+                        createBulkInsertWeatherValues(locationRowId)));
+        MoreAsserts.assertEquals("Error: unchanged rows should keep their _id",
+                firstIds, readWeatherIds());
+
+        // Change one day, and make sure only that day is rewritten and announced
+        int changedDay = 3;
+        weatherValues = createBulkInsertWeatherValues(locationRowId);
+        weatherValues[changedDay].put(WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        long changedDate = weatherValues[changedDay].getAsLong(WeatherEntry.COLUMN_DATE);
+
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, changedDate),
+                true, dayObserver);
+
+        assertEquals(1, mContext.getContentResolver().bulkInsert(upsertUri, weatherValues));
+
+        dayObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+
+        MoreAsserts.assertEquals("Error: a changed row should be updated in place",
+                firstIds, readWeatherIds());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, changedDate),
+                null,
+                null,
+                null,
+                null
+        );
+        TestUtilities.validateCursor("testBulkUpsert.  Error validating the changed day",
+                cursor, weatherValues[changedDay]);
+    }
+
+    private static ContentValues createSyncLogValues(long syncTime, String stage,
+                                                     long duration) {
+        ContentValues values = new ContentValues();
+        values.put(SyncLogEntry.COLUMN_SYNC_TIME, syncTime);
+        values.put(SyncLogEntry.COLUMN_STAGE, stage);
+        values.put(SyncLogEntry.COLUMN_DURATION, duration);
+        values.put(SyncLogEntry.COLUMN_BYTES, 0);
+        values.put(SyncLogEntry.COLUMN_ROWS, 0);
+        return values;
+    }
+
+    /*
+        The sync log should only keep the newest MAX_SYNCS syncs, and its stats URI should give
+        the percentiles of each stage, the stage that took the most time first.
+     */
+    public void testSyncLogStats() {
+        mContext.getContentResolver().delete(SyncLogEntry.CONTENT_URI, null, null);
+
+        // Each sync connects in 1..N ms and parses in a tenth of that
+        int syncs = SyncLogEntry.MAX_SYNCS + 20;
+        for (int sync = 1; sync <= syncs; sync++) {
+            assertEquals(2, mContext.getContentResolver().bulkInsert(SyncLogEntry.CONTENT_URI,
+                    new ContentValues[] {
+                            createSyncLogValues(sync, "connect", sync * 1000),
+                            createSyncLogValues(sync, "parse", sync * 100)
+                    }));
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(SyncLogEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: the sync log kept more syncs than it should",
+                2 * SyncLogEntry.MAX_SYNCS, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(SyncLogEntry.buildSyncLogStatsUri(),
+                null, null, null, null);
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: the stage that took longest should come first",
+                "connect", cursor.getString(cursor.getColumnIndex(SyncLogEntry.COLUMN_STAGE)));
+        assertEquals(SyncLogEntry.MAX_SYNCS,
+                cursor.getInt(cursor.getColumnIndex(SyncLogEntry.COLUMN_SYNC_COUNT)));
+
+        // What's left are syncs 21..120, so the rank 50 duration is sync 70's
+        int oldest = syncs - SyncLogEntry.MAX_SYNCS + 1;
+        assertEquals("Error: wrong median", (oldest + 49) * 1000L,
+                cursor.getLong(cursor.getColumnIndex(SyncLogEntry.COLUMN_P50)));
+        assertEquals("Error: wrong 90th percentile", (oldest + 89) * 1000L,
+                cursor.getLong(cursor.getColumnIndex(SyncLogEntry.COLUMN_P90)));
+        assertEquals("Error: wrong maximum", syncs * 1000L,
+                cursor.getLong(cursor.getColumnIndex(SyncLogEntry.COLUMN_MAX)));
+        cursor.close();
+
+        mContext.getContentResolver().delete(SyncLogEntry.CONTENT_URI, null, null);
+    }
 }
@@ -21,6 +21,8 @@ import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.test.AndroidTestCase;
@@ -163,4 +165,33 @@ public class TestUtilities extends AndroidTestCase {
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
     }
+
+    /*
+        Counting allocations, for the tests and benchmarks that check them.  From M on, ART
+        only counts allocations for the whole process, through a runtime stat; the per-thread
+        counters before it are deprecated there, so they're only used before it.  So from M on
+        the count takes in whatever else the test process allocates meanwhile, which is little.
+     */
+    @SuppressWarnings("deprecation")
+    public static void startAllocCounting() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            Debug.startAllocCounting();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public static void stopAllocCounting() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /** Returns a running count of bytes allocated; only the difference between two means much. */
+    @SuppressWarnings("deprecation")
+    public static long getAllocatedBytes() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+        }
+        return Debug.getThreadAllocSize();
+    }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+
+/*
+    Checks that a WeatherBatch stores exactly what the equivalent ContentValues would, and
+    measures how many rows per second each path gets into the database.
+ */
+public class TestWeatherBatch extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherBatch.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    static WeatherBatch createWeatherBatch(long locationRowId, int rows) {
+        WeatherBatch batch = new WeatherBatch(rows);
+        long date = TestUtilities.TEST_DATE;
+        for (int i = 0; i < rows; i++, date += DAY_IN_MILLIS) {
+            // Binary fractions, so the values read back as text exactly as they were written
+            batch.add(locationRowId, date, 321, "Asteroids", 65 - i % 20, 75 + i % 20,
+                    40 + 0.5 * (i % 50), 1000 + 0.25 * (i % 50), 5.5 + 0.125 * (i % 10), 1.5);
+        }
+        return batch;
+    }
+
+    private Cursor queryAllWeather() {
+        return mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+    }
+
+    public void testBatchMatchesContentValues() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        WeatherBatch batch = createWeatherBatch(locationRowId, 14);
+
+        assertEquals(14, batch.insert(mContext.getContentResolver(), false));
+
+        // toContentValues() is what pre-Honeycomb devices send through bulkInsert instead
+        ContentValues[] expected = batch.toContentValues();
+        Cursor cursor = queryAllWeather();
+        assertEquals(14, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < expected.length; i++, cursor.moveToNext()) {
+            expected[i].put(WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(expected[i].getAsLong(WeatherEntry.COLUMN_DATE)));
+            TestUtilities.validateCurrentRecord(
+                    "testBatchMatchesContentValues.  Error validating row " + i,
+                    cursor, expected[i]);
+        }
+        cursor.close();
+    }
+
+    public void testBatchUpsert() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        assertEquals(14, createWeatherBatch(locationRowId, 14)
+                .insert(mContext.getContentResolver(), true));
+        assertEquals("Error: an identical batch should not change any rows",
+                0, createWeatherBatch(locationRowId, 14)
+                        .insert(mContext.getContentResolver(), true));
+
+        // Two changed days plus two new ones
+        WeatherBatch batch = createWeatherBatch(locationRowId, 16);
+        batch.maxTemps[2] = 99.5;
+        batch.shortDescs[5] = "Meteors";
+        assertEquals(4, batch.insert(mContext.getContentResolver(), true));
+
+        Cursor cursor = queryAllWeather();
+        assertEquals(16, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Not a pass/fail test: logs rows per second for the ContentValues bulkInsert and for the
+        batch path, at the size of one sync, a long history and a bulk load.
+     */
+    public void testInsertBenchmark() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        for (int rows : new int[] {14, 1000, 100000}) {
+            ContentValues[] values = createWeatherBatch(locationRowId, rows).toContentValues();
+            long start = System.nanoTime();
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+            long contentValuesNanos = System.nanoTime() - start;
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+            WeatherBatch batch = createWeatherBatch(locationRowId, rows);
+            start = System.nanoTime();
+            batch.insert(mContext.getContentResolver(), false);
+            long batchNanos = System.nanoTime() - start;
+
+            // Writing the same rows again is the common case for a sync
+            batch = createWeatherBatch(locationRowId, rows);
+            start = System.nanoTime();
+            batch.insert(mContext.getContentResolver(), true);
+            long upsertNanos = System.nanoTime() - start;
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "%d rows: ContentValues %.0f rows/s, batch %.0f rows/s, "
+                            + "unchanged batch upsert %.0f rows/s",
+                    rows, rowsPerSecond(rows, contentValuesNanos),
+                    rowsPerSecond(rows, batchNanos), rowsPerSecond(rows, upsertNanos)));
+        }
+    }
+
+    private static double rowsPerSecond(int rows, long nanos) {
+        return rows * 1e9 / Math.max(nanos, 1);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.StandInHttpServer;
+
+import java.io.IOException;
+import java.net.URL;
+
+/*
+    Runs the conditional forecast fetch against a stand-in server, both one that honors
+    validators and one that ignores them and sends the whole forecast every time, and checks
+    that validators aren't used for a location whose forecast is no longer stored.
+ */
+public class TestForecastFetcher extends AndroidTestCase {
+
+    private static final String ETAG = "\"forecast-1\"";
+    private static final String REQUEST_KEY = "test_forecast_fetcher";
+    private static final int TODAY = 2457000;
+    private static final String LOCATION = "94043";
+
+    private StandInHttpServer mServer;
+    private volatile String mBody;
+    private volatile boolean mHonorValidators;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncValidators.clear(mContext);
+        mBody = TestForecastJsonParser.createForecastJson(14);
+        mServer = new StandInHttpServer(new StandInHttpServer.Handler() {
+            @Override
+            public StandInHttpServer.Response handle(StandInHttpServer.Request request)
+                    throws IOException {
+                if (!mHonorValidators) {
+                    return new StandInHttpServer.Response(200, mBody);
+                }
+                if (ETAG.equals(request.getHeader("If-None-Match"))) {
+                    return new StandInHttpServer.Response(304, (byte[]) null)
+                            .header("ETag", ETAG);
+                }
+                return new StandInHttpServer.Response(200, mBody).header("ETag", ETAG);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        SyncValidators.clear(mContext);
+        deleteStoredForecasts();
+        super.tearDown();
+    }
+
+    private void deleteStoredForecasts() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null,
+                null);
+    }
+
+    private URL forecastUrl() throws IOException {
+        return mServer.getUrl("/data/2.5/forecast/daily?q=94043");
+    }
+
+    private static SyncValidators noValidators(int julianDay) {
+        return new SyncValidators(REQUEST_KEY, julianDay, null, null, null);
+    }
+
+    public void testNotModified() throws Throwable {
+        mHonorValidators = true;
+
+        ForecastFetcher.Result first = ForecastFetcher.fetch(forecastUrl(), noValidators(TODAY));
+        assertEquals(ForecastFetcher.STATUS_NEW_DATA, first.status);
+        assertEquals(14, first.forecast.count);
+        assertEquals(ETAG, first.validators.etag);
+
+        ForecastFetcher.Result second = ForecastFetcher.fetch(forecastUrl(), first.validators);
+        assertEquals("Error: a 304 should not be treated as new data",
+                ForecastFetcher.STATUS_NOT_MODIFIED, second.status);
+        assertNull(second.forecast);
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    public void testUnchangedBodyWithoutValidators() throws Throwable {
+        mHonorValidators = false;
+
+        ForecastFetcher.Result first = ForecastFetcher.fetch(forecastUrl(), noValidators(TODAY));
+        assertEquals(ForecastFetcher.STATUS_NEW_DATA, first.status);
+        assertNull(first.validators.etag);
+        assertNotNull(first.validators.bodyHash);
+
+        ForecastFetcher.Result second = ForecastFetcher.fetch(forecastUrl(), first.validators);
+        assertEquals("Error: the same body sent twice should be recognized",
+                ForecastFetcher.STATUS_UNCHANGED, second.status);
+
+        mBody = TestForecastJsonParser.createForecastJson(13);
+        ForecastFetcher.Result third = ForecastFetcher.fetch(forecastUrl(), second.validators);
+        assertEquals("Error: a different body must be stored",
+                ForecastFetcher.STATUS_NEW_DATA, third.status);
+        assertEquals(13, third.forecast.count);
+    }
+
+    public void testValidatorsExpireWithTheDay() throws Throwable {
+        mHonorValidators = true;
+
+        ForecastFetcher.Result first = ForecastFetcher.fetch(forecastUrl(), noValidators(TODAY));
+        first.validators.save(mContext);
+
+        SyncValidators sameDay = SyncValidators.load(mContext, REQUEST_KEY, TODAY);
+        assertEquals(ETAG, sameDay.etag);
+        assertEquals(first.validators.bodyHash, sameDay.bodyHash);
+
+        SyncValidators nextDay = SyncValidators.load(mContext, REQUEST_KEY, TODAY + 1);
+        assertNull("Error: yesterday's validators should not be used today", nextDay.etag);
+        assertEquals(ForecastFetcher.STATUS_NEW_DATA,
+                ForecastFetcher.fetch(forecastUrl(), nextDay).status);
+    }
+
+    public void testValidatorsNeedTheForecastStored() throws Throwable {
+        mHonorValidators = true;
+        deleteStoredForecasts();
+        ForecastFetcher.fetch(forecastUrl(), noValidators(TODAY)).validators.save(mContext);
+
+        assertNull("Error: validators were used with nothing stored for the location",
+                SyncValidators.load(mContext, REQUEST_KEY, TODAY, LOCATION).etag);
+
+        WeatherBatch batch = new WeatherBatch(1);
+        long locationId = batch.addLocation(LOCATION, "Mountain View", 37.39, -122.08, 0);
+        batch.add(locationId, WeatherContract.normalizeDate(System.currentTimeMillis()), 800,
+                "Clear", 10, 20, 40, 1000, 5, 180);
+        batch.insert(mContext.getContentResolver(), true);
+        assertEquals("Error: validators weren't used with the forecast stored",
+                ETAG, SyncValidators.load(mContext, REQUEST_KEY, TODAY, LOCATION).etag);
+    }
+}
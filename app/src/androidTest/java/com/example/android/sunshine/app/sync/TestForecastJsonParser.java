@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.TestUtilities;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Checks that the streaming forecast parser reads exactly what the JSONObject parser reads,
+    and compares the cost of the two on a recorded OWM response and on payloads shaped like it.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    // A 14 day forecast for 94043 in the form api.openweathermap.org sends it, packaged with
+    // the tests
+    private static final String RECORDED_RESPONSE = "forecast_daily_94043.json";
+
+    private static final String[] RECORDED_CONDITIONS = {
+            "{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}",
+            "{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}",
+            "{\"id\":803,\"main\":\"Clouds\",\"description\":\"broken clouds\",\"icon\":\"04d\"}",
+            "{\"id\":601,\"main\":\"Snow\",\"description\":\"snow\",\"icon\":\"13d\"}"
+    };
+
+    /*
+        Builds a forecast payload with the same shape and field order as the daily forecast
+        responses recorded from api.openweathermap.org, including the fields we skip.
+     */
+    static String createForecastJson(int days) {
+        return createForecastJson(days, 5375480);
+    }
+
+    static String createForecastJson(int days, long cityId) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"id\":").append(cityId)
+                .append(",\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0102,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,"
+                            + "\"night\":%.2f,\"eve\":%.2f,\"morn\":%.2f},"
+                            + "\"pressure\":%.2f,\"humidity\":%d,\"weather\":[%s],"
+                            + "\"speed\":%.2f,\"deg\":%d,\"clouds\":%d,\"rain\":%.2f}",
+                    1419105600L + i * 86400L,
+                    18.5 + i, 9.25 + i, 21.75 + i, 11.0, 16.3, 9.9,
+                    1011.5 + i, 60 + i, RECORDED_CONDITIONS[i % RECORDED_CONDITIONS.length],
+                    3.1 + i * 0.1, (i * 37) % 360, i * 5, i * 0.25));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    static String readRecordedResponse() throws IOException {
+        InputStream in = TestForecastJsonParser.class.getClassLoader()
+                .getResourceAsStream(RECORDED_RESPONSE);
+        assertNotNull("Error: " + RECORDED_RESPONSE + " isn't packaged with the tests", in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static InputStream streamOf(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    public void testStreamingMatchesTree() throws Throwable {
+        assertParsersAgree(createForecastJson(14));
+    }
+
+    public void testStreamingMatchesTreeOnRecordedResponse() throws Throwable {
+        assertParsersAgree(readRecordedResponse());
+    }
+
+    private static void assertParsersAgree(String json) throws Throwable {
+        ForecastJsonParser.ParsedForecast tree = ForecastJsonParser.parse(json);
+        ForecastJsonParser.ParsedForecast streamed = ForecastJsonParser.parse(streamOf(json));
+
+        assertEquals(HttpURLConnection.HTTP_OK, streamed.messageCode);
+        assertEquals("Mountain View", streamed.cityName);
+        assertEquals(tree.cityName, streamed.cityName);
+        assertEquals(tree.cityLatitude, streamed.cityLatitude);
+        assertEquals(tree.cityLongitude, streamed.cityLongitude);
+        assertEquals(14, streamed.count);
+        assertEquals(tree.count, streamed.count);
+
+        for (int i = 0; i < tree.count; i++) {
+            String error = "Error: day " + i + " differs between parsers";
+            assertEquals(error, tree.weatherIds[i], streamed.weatherIds[i]);
+            assertEquals(error, tree.descriptions[i], streamed.descriptions[i]);
+            assertEquals(error, tree.high[i], streamed.high[i]);
+            assertEquals(error, tree.low[i], streamed.low[i]);
+            assertEquals(error, tree.pressure[i], streamed.pressure[i]);
+            assertEquals(error, tree.humidity[i], streamed.humidity[i]);
+            assertEquals(error, tree.windSpeed[i], streamed.windSpeed[i]);
+            assertEquals(error, tree.windDirection[i], streamed.windDirection[i]);
+        }
+    }
+
+    public void testErrorCode() throws Throwable {
+        String json = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                ForecastJsonParser.parse(streamOf(json)).messageCode);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                ForecastJsonParser.parse(json).messageCode);
+    }
+
+    public void testBadDataIsJSONException() throws Throwable {
+        String[] badPayloads = {
+                "{\"cod\":\"200\",\"list\":[}",
+                "{\"cod\":\"200\",\"city\":{\"name\":\"x\",\"coord\":{\"lat\":1,\"lon\":2}}}",
+                "{\"cod\":\"200\",\"list\":[{\"pressure\":{}}]}"
+        };
+        for (String json : badPayloads) {
+            try {
+                ForecastJsonParser.parse(streamOf(json));
+                fail("Error: no JSONException for " + json);
+            } catch (JSONException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testGroup() throws Throwable {
+        String json = "{\"cod\":\"200\",\"cnt\":2,\"list\":["
+                + createForecastJson(14, 5375480) + "," + createForecastJson(7, 2643743) + "]}";
+
+        List<ForecastJsonParser.ParsedForecast> tree = ForecastJsonParser.parseGroup(json);
+        List<ForecastJsonParser.ParsedForecast> streamed =
+                ForecastJsonParser.parseGroup(streamOf(json));
+
+        assertEquals(2, streamed.size());
+        assertEquals(tree.size(), streamed.size());
+        assertEquals(5375480, streamed.get(0).cityId);
+        assertEquals(2643743, streamed.get(1).cityId);
+        for (int i = 0; i < tree.size(); i++) {
+            assertEquals(tree.get(i).cityId, streamed.get(i).cityId);
+            assertEquals(tree.get(i).count, streamed.get(i).count);
+        }
+        assertEquals(7, streamed.get(1).count);
+
+        String error = "{\"cod\":\"401\",\"message\":\"Invalid API key\"}";
+        try {
+            ForecastJsonParser.parseGroup(streamOf(error));
+            fail("Error: a failed group request should be an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testEmptyStreamIsIOException() throws Throwable {
+        try {
+            ForecastJsonParser.parse(streamOf(""));
+            fail("Error: an empty response should look like a failed read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs time and allocated bytes per parse for both parsers, on the
+        recorded response and on synthetic ones of one and sixteen locations' worth of days.
+     */
+    public void testParseBenchmark() throws Throwable {
+        benchmark("recorded", readRecordedResponse());
+        for (int days : new int[] {14, 16 * 14}) {
+            benchmark(days + " days", createForecastJson(days));
+        }
+    }
+
+    private static void benchmark(String label, String json) throws Throwable {
+        byte[] bytes = json.getBytes("UTF-8");
+
+        // Warm up both paths so we aren't measuring class loading or the JIT
+        for (int i = 0; i < 20; i++) {
+            ForecastJsonParser.parse(json);
+            ForecastJsonParser.parse(new ByteArrayInputStream(bytes));
+        }
+
+        TestUtilities.startAllocCounting();
+        long allocated = TestUtilities.getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            // The tree parser also pays for turning the response into a String first
+            ForecastJsonParser.parse(new String(bytes, "UTF-8"));
+        }
+        long treeNanos = System.nanoTime() - start;
+        long treeBytes = TestUtilities.getAllocatedBytes() - allocated;
+
+        allocated = TestUtilities.getAllocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            ForecastJsonParser.parse(new ByteArrayInputStream(bytes));
+        }
+        long streamNanos = System.nanoTime() - start;
+        long streamBytes = TestUtilities.getAllocatedBytes() - allocated;
+        TestUtilities.stopAllocCounting();
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%s (%d bytes): JSONObject %.1f us / %d B per parse, "
+                        + "streaming %.1f us / %d B per parse",
+                label, bytes.length,
+                treeNanos / 1000.0 / BENCHMARK_ITERATIONS, treeBytes / BENCHMARK_ITERATIONS,
+                streamNanos / 1000.0 / BENCHMARK_ITERATIONS, streamBytes / BENCHMARK_ITERATIONS));
+    }
+}
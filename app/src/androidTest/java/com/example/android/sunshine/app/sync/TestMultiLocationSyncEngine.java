@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.StandInHttpServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Syncs many locations against a stand-in server, checking that the concurrency limits hold
+    and that everything lands in the database, and measures locations per second.
+ */
+public class TestMultiLocationSyncEngine extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestMultiLocationSyncEngine.class.getSimpleName();
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?q=";
+    private static final String GROUP_PATH = "/data/2.5/group?id=";
+    private static final long FIRST_CITY_ID = 1000;
+
+    private final StandInHttpServer.Handler mForecastHandler = new StandInHttpServer.Handler() {
+        @Override
+        public StandInHttpServer.Response handle(StandInHttpServer.Request request) {
+            return new StandInHttpServer.Response(200,
+                    TestForecastJsonParser.createForecastJson(14));
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        // Or a stand-in server on a port used before today answers 304 to forecasts we dropped
+        SyncValidators.clear(mContext);
+    }
+
+    private static List<MultiLocationSyncEngine.Request> createRequests(StandInHttpServer server,
+                                                                        int locations)
+            throws IOException {
+        List<MultiLocationSyncEngine.Request> requests = new ArrayList<>();
+        for (int i = 0; i < locations; i++) {
+            String locationSetting = "test-location-" + i;
+            requests.add(new MultiLocationSyncEngine.Request(locationSetting,
+                    Uri.parse(server.getUrl(FORECAST_PATH + locationSetting).toString())));
+        }
+        return requests;
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testSyncAllLocations() throws Throwable {
+        final int locations = 12;
+        StandInHttpServer server = new StandInHttpServer(mForecastHandler);
+        server.setResponseDelayMillis(20);
+        try {
+            List<MultiLocationSyncEngine.Request> requests = createRequests(server, locations);
+            MultiLocationSyncEngine engine = new MultiLocationSyncEngine(mContext, 4, 2);
+            int julianToday = SunshineSyncAdapter.getJulianToday();
+
+            MultiLocationSyncEngine.Result result = engine.sync(requests, julianToday);
+            assertEquals(locations, result.stored);
+            assertEquals(0, result.failed);
+            assertEquals(locations * 14, result.rowsChanged);
+            assertEquals(locations, countRows(WeatherContract.LocationEntry.CONTENT_URI));
+            assertEquals(locations * 14, countRows(WeatherContract.WeatherEntry.CONTENT_URI));
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                    result.getLocationStatus(requests.get(0).locationSetting));
+            assertTrue("Error: more requests went to the server at once than allowed",
+                    server.getMaxConcurrentRequests() <= 2);
+
+            // The server sends the same forecasts again, so nothing should be written
+            result = engine.sync(requests, julianToday);
+            assertEquals(locations, result.unchanged);
+            assertEquals(0, result.rowsChanged);
+            assertEquals(locations * 2, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testGroupRequests() throws Throwable {
+        final int locations = 12;
+        // Every location gets a city id of its own; the group answer leaves out the last city
+        final long missingCityId = FIRST_CITY_ID + locations - 1;
+        final StandInHttpServer server = new StandInHttpServer(new StandInHttpServer.Handler() {
+            @Override
+            public StandInHttpServer.Response handle(StandInHttpServer.Request request) {
+                String cityIds = request.getQueryParameter("id");
+                if (cityIds == null) {
+                    String location = request.getQueryParameter("q");
+                    long cityId = FIRST_CITY_ID
+                            + Integer.parseInt(location.substring(location.lastIndexOf('-') + 1));
+                    return new StandInHttpServer.Response(200,
+                            TestForecastJsonParser.createForecastJson(14, cityId));
+                }
+                StringBuilder json = new StringBuilder("{\"cod\":\"200\",\"list\":[");
+                boolean first = true;
+                for (String cityId : cityIds.split(",")) {
+                    if (Long.parseLong(cityId) == missingCityId) {
+                        continue;
+                    }
+                    if (!first) {
+                        json.append(',');
+                    }
+                    first = false;
+                    json.append(TestForecastJsonParser.createForecastJson(14,
+                            Long.parseLong(cityId)));
+                }
+                return new StandInHttpServer.Response(200, json.append("]}").toString());
+            }
+        });
+        try {
+            List<MultiLocationSyncEngine.Request> requests = createRequests(server, locations);
+            MultiLocationSyncEngine engine = new MultiLocationSyncEngine(mContext, 4, 2);
+            engine.setGroupRequests(new MultiLocationSyncEngine.GroupUriFactory() {
+                @Override
+                public Uri buildGroupUri(List<Long> cityIds) {
+                    try {
+                        return Uri.parse(server.getUrl(
+                                GROUP_PATH + TextUtils.join(",", cityIds)).toString());
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }, 20);
+            int julianToday = SunshineSyncAdapter.getJulianToday();
+
+            // No city ids are known yet, so the first sync fetches every location on its own
+            MultiLocationSyncEngine.Result result = engine.sync(requests, julianToday);
+            assertEquals(locations, result.stored);
+            assertEquals(locations, server.getRequestCount());
+
+            // Now one group request covers all but the city it leaves out, which falls back to
+            // its own conditional fetch
+            result = engine.sync(requests, julianToday);
+            assertEquals(locations - 1, result.stored);
+            assertEquals(1, result.unchanged);
+            assertEquals(0, result.failed);
+            assertEquals(0, result.rowsChanged);
+            assertEquals(locations + 2, server.getRequestCount());
+            assertEquals(locations * 14, countRows(WeatherContract.WeatherEntry.CONTENT_URI));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testFailedLocationDoesNotStopTheOthers() throws Throwable {
+        StandInHttpServer server = new StandInHttpServer(new StandInHttpServer.Handler() {
+            @Override
+            public StandInHttpServer.Response handle(StandInHttpServer.Request request) {
+                if ("test-location-1".equals(request.getQueryParameter("q"))) {
+                    return new StandInHttpServer.Response(503, "");
+                }
+                return new StandInHttpServer.Response(200,
+                        TestForecastJsonParser.createForecastJson(14));
+            }
+        });
+        try {
+            List<MultiLocationSyncEngine.Request> requests = createRequests(server, 3);
+            MultiLocationSyncEngine.Result result = new MultiLocationSyncEngine(mContext, 2, 2)
+                    .sync(requests, SunshineSyncAdapter.getJulianToday());
+
+            assertEquals(2, result.stored);
+            assertEquals(1, result.failed);
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                    result.getLocationStatus("test-location-1"));
+            assertEquals(2 * 14, countRows(WeatherContract.WeatherEntry.CONTENT_URI));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testCancelledSyncFailsNothing() throws Throwable {
+        StandInHttpServer server = new StandInHttpServer(mForecastHandler);
+        server.setResponseDelayMillis(2000);
+        try {
+            final List<MultiLocationSyncEngine.Request> requests = createRequests(server, 4);
+            final MultiLocationSyncEngine.Result[] result = new MultiLocationSyncEngine.Result[1];
+            Thread syncThread = new Thread() {
+                @Override
+                public void run() {
+                    result[0] = new MultiLocationSyncEngine(mContext, 2, 2)
+                            .sync(requests, SunshineSyncAdapter.getJulianToday());
+                }
+            };
+            syncThread.start();
+            Thread.sleep(200);
+            // What the sync manager does to cancel a sync
+            syncThread.interrupt();
+            syncThread.join(10000);
+
+            assertNotNull("Error: the cancelled sync didn't finish", result[0]);
+            assertEquals(4, result[0].cancelled);
+            assertEquals("Error: a cancel counted as a failure", 0, result[0].failed);
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN,
+                    result[0].getLocationStatus(requests.get(0).locationSetting));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs locations synced per second with and without concurrent
+        fetches, against a server that takes 50ms to answer.
+     */
+    public void testThroughputBenchmark() throws Throwable {
+        final int locations = 24;
+        for (int concurrency : new int[] {1, 2, 4, 8}) {
+            deleteAllRecords();
+            StandInHttpServer server = new StandInHttpServer(mForecastHandler);
+            server.setResponseDelayMillis(50);
+            try {
+                List<MultiLocationSyncEngine.Request> requests = createRequests(server, locations);
+                MultiLocationSyncEngine engine =
+                        new MultiLocationSyncEngine(mContext, concurrency, concurrency);
+
+                long start = System.nanoTime();
+                MultiLocationSyncEngine.Result result =
+                        engine.sync(requests, SunshineSyncAdapter.getJulianToday());
+                long nanos = System.nanoTime() - start;
+
+                assertEquals(locations, result.stored);
+                Log.i(LOG_TAG, String.format(Locale.US,
+                        "%d locations, %d concurrent fetches: %.0f ms, %.1f locations/s",
+                        locations, concurrency, nanos / 1e6, locations * 1e9 / nanos));
+            } finally {
+                server.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+/*
+    Walks the circuit breaker through closed, open and half-open, checking the hold-offs grow,
+    stay jittered within their bounds and survive a new instance, as after a process restart.
+ */
+public class TestSyncBackoff extends AndroidTestCase {
+
+    private static final String ENDPOINT = "test.example.com/data/2.5/forecast/daily";
+    private static final long NOW = 1450000000000L;
+
+    private SyncBackoff mBackoff;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBackoff = new SyncBackoff(mContext, new Random(42));
+        mBackoff.onSuccess(ENDPOINT);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mBackoff.onSuccess(ENDPOINT);
+        super.tearDown();
+    }
+
+    public void testEndpointLeavesOutTheLocation() {
+        assertEquals(SyncBackoff.endpointOf(Uri.parse(
+                        "http://test.example.com/data/2.5/forecast/daily?q=94043&cnt=14")),
+                SyncBackoff.endpointOf(Uri.parse(
+                        "http://test.example.com/data/2.5/forecast/daily?q=London&cnt=14")));
+    }
+
+    public void testFailuresBackOffAndOpen() {
+        assertEquals(SyncBackoff.STATE_CLOSED, mBackoff.getState(ENDPOINT, NOW));
+        assertTrue("Error: a healthy endpoint was held off",
+                mBackoff.getNextAllowedAttemptTime(ENDPOINT, false, NOW) <= NOW);
+
+        long previousBackoff = 0;
+        long now = NOW;
+        for (int failure = 1; failure <= SyncBackoff.FAILURES_TO_OPEN; failure++) {
+            long next = mBackoff.onFailure(ENDPOINT, now);
+            long backoff = next - now;
+            long full = SyncBackoff.BASE_BACKOFF_MILLIS << (failure - 1);
+            assertTrue("Error: the jitter went outside half to all of the backoff",
+                    backoff >= full / 2 && backoff <= full);
+            assertTrue("Error: the backoff didn't grow", backoff >= previousBackoff);
+            assertEquals("Error: a scheduled sync wasn't held off", next,
+                    mBackoff.getNextAllowedAttemptTime(ENDPOINT, false, now));
+            previousBackoff = backoff;
+            if (failure < SyncBackoff.FAILURES_TO_OPEN) {
+                assertEquals("Error: a sync the user asked for was held off while closed", now,
+                        mBackoff.getNextAllowedAttemptTime(ENDPOINT, true, now));
+            }
+            now = next;
+        }
+
+        long opened = now - previousBackoff;
+        assertEquals(SyncBackoff.STATE_OPEN, mBackoff.getState(ENDPOINT, opened));
+        assertEquals("Error: a sync the user asked for went through an open breaker", now,
+                mBackoff.getNextAllowedAttemptTime(ENDPOINT, true, opened));
+        assertEquals(SyncBackoff.STATE_HALF_OPEN, mBackoff.getState(ENDPOINT, now));
+
+        // A new instance, as after a restart, still sees the breaker
+        SyncBackoff restarted = new SyncBackoff(mContext, new Random(42));
+        assertEquals(SyncBackoff.STATE_OPEN, restarted.getState(ENDPOINT, opened));
+
+        restarted.onSuccess(ENDPOINT);
+        assertEquals(SyncBackoff.STATE_CLOSED, mBackoff.getState(ENDPOINT, opened));
+    }
+
+    public void testBackoffIsCapped() {
+        long now = NOW;
+        for (int failure = 0; failure < 64; failure++) {
+            long next = mBackoff.onFailure(ENDPOINT, now);
+            assertTrue("Error: held off for longer than the cap",
+                    next - now <= SyncBackoff.MAX_BACKOFF_MILLIS);
+            now = next;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/*
+    Checks that repeated requests for a location only ask for one sync, keep the strongest
+    reason, and attach to a sync that's already fetching it.
+ */
+public class TestSyncCoordinator extends AndroidTestCase {
+
+    private static final String HOME = "94043";
+    private static final String AWAY = "London";
+
+    public void testPendingRequestsMerge() {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        assertTrue(coordinator.request(HOME, SyncCoordinator.REASON_PERIODIC));
+        assertFalse("Error: a second request for a pending location asked for another sync",
+                coordinator.request(HOME, SyncCoordinator.REASON_PERIODIC));
+        assertTrue("Error: another location didn't get its own sync",
+                coordinator.request(AWAY, SyncCoordinator.REASON_PERIODIC));
+        assertTrue("Error: a more urgent request wasn't requested again",
+                coordinator.request(HOME, SyncCoordinator.REASON_MANUAL));
+        assertFalse(coordinator.request(HOME, SyncCoordinator.REASON_PERIODIC));
+
+        assertEquals("Error: the strongest reason wasn't kept", SyncCoordinator.REASON_MANUAL,
+                coordinator.onSyncStarted(Arrays.asList(HOME, AWAY)));
+        coordinator.onSyncFinished();
+        assertEquals(5, coordinator.getRequestCount());
+        assertEquals(3, coordinator.getCoalescedCount());
+    }
+
+    public void testRequestsAttachToSyncInFlight() {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        assertEquals(SyncCoordinator.REASON_PERIODIC,
+                coordinator.onSyncStarted(Collections.singletonList(HOME)));
+        assertFalse("Error: a request for a location being synced asked for another sync",
+                coordinator.request(HOME, SyncCoordinator.REASON_MANUAL));
+        assertTrue("Error: a location not being synced didn't get a sync",
+                coordinator.request(AWAY, SyncCoordinator.REASON_MANUAL));
+        coordinator.onSyncFinished();
+
+        assertTrue("Error: a location was still in flight after its sync finished",
+                coordinator.request(HOME, SyncCoordinator.REASON_MANUAL));
+        assertEquals(1, coordinator.getCoalescedCount());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Fans out to a quick consumer, one that hangs past its deadline and one that fails, and
+    checks the fan-out comes back by the deadline with the fallbacks run, without the hung
+    consumer holding up the quick one.  Also checks that a fallback that breaks stays inside
+    the fan-out, and that the pool still delivers afterwards.
+ */
+public class TestSyncFanOut extends AndroidTestCase {
+
+    private static final long DEADLINE_MILLIS = 500;
+
+    private static class CountingConsumer extends SyncFanOut.Consumer {
+        final AtomicInteger fallBacks = new AtomicInteger();
+
+        CountingConsumer(int stage) {
+            super(stage, DEADLINE_MILLIS);
+        }
+
+        @Override
+        void deliver() throws Exception {
+        }
+
+        @Override
+        void fallBack() {
+            fallBacks.incrementAndGet();
+        }
+    }
+
+    public void testSlowAndFailingConsumersFallBack() throws Throwable {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicBoolean quickDelivered = new AtomicBoolean();
+
+        CountingConsumer slow = new CountingConsumer(SyncTrace.STAGE_NOTIFY_WEATHER) {
+            @Override
+            void deliver() throws Exception {
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+            }
+        };
+        CountingConsumer quick = new CountingConsumer(SyncTrace.STAGE_UPDATE_WATCHFACE) {
+            @Override
+            void deliver() {
+                quickDelivered.set(true);
+            }
+        };
+        CountingConsumer failing = new CountingConsumer(SyncTrace.STAGE_UPDATE_WIDGETS) {
+            @Override
+            void deliver() {
+                throw new IllegalStateException("Consumer broke");
+            }
+        };
+        // The slow one goes first, so the others are only waited on after it
+        List<SyncFanOut.Consumer> consumers = new ArrayList<>();
+        consumers.add(slow);
+        consumers.add(quick);
+        consumers.add(failing);
+
+        SyncTrace trace = new SyncTrace();
+        long start = SystemClock.elapsedRealtime();
+        int delivered = new SyncFanOut(SyncFanOut.DEFAULT_MAX_THREADS).dispatch(consumers, trace);
+        long took = SystemClock.elapsedRealtime() - start;
+        release.countDown();
+
+        assertEquals("Error: only the quick consumer should have been delivered to",
+                1, delivered);
+        assertTrue(quickDelivered.get());
+        assertTrue("Error: the fan-out waited well past the deadline, " + took + "ms",
+                took < DEADLINE_MILLIS + 1000);
+        assertEquals("Error: the slow consumer didn't fall back", 1, slow.fallBacks.get());
+        assertEquals("Error: the failing consumer didn't fall back", 1, failing.fallBacks.get());
+        assertEquals("Error: the quick consumer fell back", 0, quick.fallBacks.get());
+        assertTrue("Error: the slow consumer wasn't interrupted",
+                interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testBrokenFallBackIsContained() {
+        final AtomicInteger deliveries = new AtomicInteger();
+        CountingConsumer failing = new CountingConsumer(SyncTrace.STAGE_UPDATE_MUZEI) {
+            @Override
+            void deliver() {
+                throw new IllegalStateException("Consumer broke");
+            }
+
+            @Override
+            void fallBack() {
+                super.fallBack();
+                throw new IllegalStateException("Fallback broke too");
+            }
+        };
+        CountingConsumer quick = new CountingConsumer(SyncTrace.STAGE_UPDATE_WATCHFACE) {
+            @Override
+            void deliver() {
+                deliveries.incrementAndGet();
+            }
+        };
+        List<SyncFanOut.Consumer> consumers = new ArrayList<>();
+        consumers.add(failing);
+        consumers.add(quick);
+
+        SyncFanOut fanOut = new SyncFanOut(1);
+        assertEquals(1, fanOut.dispatch(consumers, new SyncTrace()));
+        assertEquals("Error: the broken fallback wasn't run", 1, failing.fallBacks.get());
+        assertEquals("Error: the pool didn't deliver the next time around",
+                1, fanOut.dispatch(consumers, new SyncTrace()));
+        assertEquals(2, deliveries.get());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks which way each condition moves the sync interval, and that the interval stays
+    between the shortest allowed and the staleness cap.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static final int NOON = 12;
+    private static final int MIDNIGHT = 0;
+    private static final long AN_HOUR_AGO = TimeUnit.HOURS.toMillis(1);
+    private static final long A_DAY_AGO = TimeUnit.DAYS.toMillis(1);
+
+    public void testVolatileForecastSyncsMoreOften() {
+        long stable = interval(new SyncScheduler.Conditions(0, NOON, A_DAY_AGO, false, false));
+        long changing = interval(new SyncScheduler.Conditions(1, NOON, A_DAY_AGO, false, false));
+        assertTrue("Error: a changing forecast wasn't synced more often", changing < stable);
+    }
+
+    public void testNightSyncsLessOften() {
+        long day = interval(new SyncScheduler.Conditions(0.5f, NOON, A_DAY_AGO, false, false));
+        long night = interval(
+                new SyncScheduler.Conditions(0.5f, MIDNIGHT, A_DAY_AGO, false, false));
+        assertTrue("Error: the night wasn't synced less often", night > day);
+    }
+
+    public void testEngagementSyncsMoreOften() {
+        long idle = interval(new SyncScheduler.Conditions(0.5f, NOON, -1, false, false));
+        long engaged = interval(new SyncScheduler.Conditions(0.5f, NOON, AN_HOUR_AGO, false,
+                false));
+        assertTrue("Error: an app in use wasn't synced more often", engaged < idle);
+    }
+
+    public void testChargingOnUnmeteredSyncsMoreOften() {
+        long metered = interval(new SyncScheduler.Conditions(0.5f, NOON, A_DAY_AGO, true, false));
+        long free = interval(new SyncScheduler.Conditions(0.5f, NOON, A_DAY_AGO, true, true));
+        assertTrue("Error: charging on an unmetered network wasn't synced more often",
+                free < metered);
+    }
+
+    public void testStalenessIsCapped() {
+        SyncScheduler.Decision decision = SyncScheduler.decide(
+                new SyncScheduler.Conditions(0, MIDNIGHT, -1, false, false));
+        assertEquals("Error: the forecast was let go staler than the cap",
+                SyncScheduler.MAX_STALENESS_SECONDS, decision.intervalSeconds);
+        assertTrue("Error: the cap wasn't recorded", decision.reasons.contains("capped"));
+    }
+
+    public void testIntervalHasAFloor() {
+        long interval = interval(new SyncScheduler.Conditions(1, NOON, AN_HOUR_AGO, true, true));
+        assertTrue("Error: synced more often than the shortest interval allowed",
+                interval >= SyncScheduler.MIN_INTERVAL_SECONDS);
+    }
+
+    public void testFlexLeavesRoomToBatch() {
+        SyncScheduler.Decision decision = SyncScheduler.decide(
+                new SyncScheduler.Conditions(0.5f, NOON, A_DAY_AGO, false, false));
+        assertEquals(decision.intervalSeconds / 2, decision.flexSeconds);
+    }
+
+    private static long interval(SyncScheduler.Conditions conditions) {
+        return SyncScheduler.decide(conditions).intervalSeconds;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/*
+    Reads a packed forecast back by hand, as the watch face does, to pin down the layout the
+    two have agreed on.
+ */
+public class TestWatchForecastEncoder extends AndroidTestCase {
+
+    private static final int TODAY = 2457000;
+    private static final String CLEAR = "0123456789abcdef0123456789abcdef01234567";
+    private static final String RAIN = "fedcba9876543210fedcba9876543210fedcba98";
+
+    public void testLayout() throws IOException {
+        WatchForecastEncoder encoder = new WatchForecastEncoder(TODAY, false);
+        encoder.setLocation(37.8267, -122.423);
+        encoder.addDay(TODAY, 800, 21.46, -3.04, CLEAR);
+        encoder.addDay(TODAY + 1, 500, 18.0, 9.5, RAIN);
+        encoder.addDay(TODAY + 3, 800, 25.0, 12.0, CLEAR);
+        encoder.addDay(TODAY + 4, 0, 0, 0, null);
+        byte[] bytes = encoder.toByteArray();
+        assertEquals("Error: the forecast isn't as compact as it should be",
+                16 + 2 * 20 + 4 * 8, bytes.length);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        assertEquals(WatchForecastEncoder.VERSION, in.readUnsignedByte());
+        assertEquals("Error: imperial units were flagged metric", 0, in.readUnsignedByte());
+        assertEquals(TODAY, in.readInt());
+        assertEquals(4, in.readUnsignedByte());
+        assertEquals("Error: icons weren't shared between days", 2, in.readUnsignedByte());
+        assertEquals(37.8267f, in.readFloat());
+        assertEquals(-122.423f, in.readFloat());
+        byte[] hash = new byte[20];
+        in.readFully(hash);
+        assertEquals(CLEAR, ForecastFetcher.toHex(hash));
+        in.readFully(hash);
+        assertEquals(RAIN, ForecastFetcher.toHex(hash));
+
+        assertDay(in, 0, 800, 215, -30, 0);
+        assertDay(in, 1, 500, 180, 95, 1);
+        assertDay(in, 3, 800, 250, 120, 0);
+        assertDay(in, 4, 0, 0, 0, WatchForecastEncoder.NO_ICON);
+        assertEquals(-1, in.read());
+    }
+
+    public void testUnknownLocation() throws IOException {
+        WatchForecastEncoder encoder = new WatchForecastEncoder(TODAY, true);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoder.toByteArray()));
+        in.skipBytes(8);
+        assertTrue("Error: no location wasn't sent as NaN", Float.isNaN(in.readFloat()));
+        assertTrue("Error: no location wasn't sent as NaN", Float.isNaN(in.readFloat()));
+    }
+
+    public void testDaysOutOfRange() {
+        WatchForecastEncoder encoder = new WatchForecastEncoder(TODAY, true);
+        try {
+            encoder.addDay(TODAY - 1, 800, 20, 10, null);
+            fail("Error: a day before the first one was packed");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    private static void assertDay(DataInputStream in, int offset, int weatherId, int high,
+                                  int low, int icon) throws IOException {
+        assertEquals(offset, in.readUnsignedByte());
+        assertEquals(weatherId, in.readShort());
+        assertEquals(high, in.readShort());
+        assertEquals(low, in.readShort());
+        assertEquals(icon, in.readUnsignedByte());
+    }
+}
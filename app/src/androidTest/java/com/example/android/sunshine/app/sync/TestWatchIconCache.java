@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.PutDataRequest;
+
+/*
+    Checks that watch icons are named by their content, come out the size the watch draws them
+    at, and are only put in the data layer until they've gone through once.
+ */
+public class TestWatchIconCache extends AndroidTestCase {
+
+    private WatchIconCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getSharedPreferences("watch_icons", Context.MODE_PRIVATE).edit().clear()
+                .commit();
+        mCache = WatchIconCache.getInstance(mContext);
+    }
+
+    public void testHashNamesContent() {
+        String clear = mCache.getHash(R.drawable.art_clear);
+        assertEquals("Error: the same art hashed differently",
+                clear, mCache.getHash(R.drawable.art_clear));
+        assertFalse("Error: different art hashed the same",
+                clear.equals(mCache.getHash(R.drawable.art_rain)));
+    }
+
+    public void testIconIsPutOnce() {
+        PutDataRequest request = mCache.getPutRequest(R.drawable.art_storm);
+        assertNotNull("Error: a new icon wasn't put", request);
+        String hash = mCache.getHash(R.drawable.art_storm);
+        assertEquals(WatchIconCache.PATH_ICON + hash, request.getUri().getPath());
+
+        Asset asset = request.getAssets().get(WatchIconCache.KEY_ICON);
+        assertNotNull("Error: the icon wasn't attached", asset);
+        byte[] png = asset.getData();
+        Bitmap icon = BitmapFactory.decodeByteArray(png, 0, png.length);
+        assertEquals("Error: the icon isn't watch sized",
+                WatchIconCache.ICON_SIZE, Math.max(icon.getWidth(), icon.getHeight()));
+
+        mCache.onPut(hash);
+        assertNull("Error: an icon was put twice", mCache.getPutRequest(R.drawable.art_storm));
+    }
+}
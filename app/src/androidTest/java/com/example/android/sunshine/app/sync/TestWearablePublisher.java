@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks that requests queued for the same path replace each other and go to the back of the
+    queue, and that the ones replaced hear on the publisher's thread that they didn't go out.
+    That thread is held up meanwhile, so nothing is sent before the test has queued everything.
+ */
+public class TestWearablePublisher extends AndroidTestCase {
+
+    private static CountDownLatch holdUp(WearablePublisher publisher) {
+        final CountDownLatch release = new CountDownLatch(1);
+        publisher.mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        return release;
+    }
+
+    public void testNewestRequestPerPathWins() throws InterruptedException {
+        WearablePublisher publisher = new WearablePublisher(mContext);
+        CountDownLatch release = holdUp(publisher);
+
+        final boolean[] published = new boolean[] {true};
+        final Thread[] calledOn = new Thread[1];
+        final CountDownLatch told = new CountDownLatch(1);
+        publisher.publish(createRequest("/icon/abc"), null);
+        publisher.publish(createRequest("/weather"), new WearablePublisher.Callback() {
+            @Override
+            public void onPublished(boolean success) {
+                published[0] = success;
+                calledOn[0] = Thread.currentThread();
+                told.countDown();
+            }
+        });
+        publisher.publish(createRequest("/weather"), null);
+        publisher.publish(createRequest("/weather"), null);
+        release.countDown();
+
+        assertEquals("Error: older weather wasn't dropped", 2, publisher.getCoalescedCount());
+        assertTrue("Error: dropped weather was never reported", told.await(5, TimeUnit.SECONDS));
+        assertFalse("Error: dropped weather was reported as sent", published[0]);
+        assertSame("Error: dropped weather wasn't reported on the publisher's thread",
+                publisher.mHandler.getLooper().getThread(), calledOn[0]);
+    }
+
+    public void testReplacedRequestGoesToTheBack() throws InterruptedException {
+        WearablePublisher publisher = new WearablePublisher(mContext);
+        CountDownLatch release = holdUp(publisher);
+
+        publisher.publish(createRequest("/weather"), null);
+        publisher.publish(createRequest("/icon/abc"), null);
+        publisher.publish(createRequest("/weather"), null);
+        assertEquals("Error: the newer weather kept the older one's place ahead of its icon",
+                Arrays.asList("/icon/abc", "/weather"), publisher.getQueuedPaths());
+        release.countDown();
+    }
+
+    private static PutDataRequest createRequest(String path) {
+        PutDataMapRequest request = PutDataMapRequest.create(path);
+        request.getDataMap().putLong("timestamp", System.nanoTime());
+        return request.asPutDataRequest();
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.http.HttpResponseCache;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.StandInHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Fetches the same forecast over and over through the plain and the caching transports from a
+    stand-in server that gzips when asked and answers conditional requests, and compares the
+    bytes each put on the wire, the connections each opened and how long the fetches took.
+ */
+public class TestWeatherTransport extends AndroidTestCase {
+
+    private static final String LOG_TAG = TestWeatherTransport.class.getSimpleName();
+    private static final String ETAG = "\"forecast-1\"";
+    private static final String REQUEST_KEY = "test_weather_transport";
+    private static final int TODAY = 2457000;
+    private static final int FETCHES = 20;
+
+    private StandInHttpServer mServer;
+    private CachingWeatherTransport mCachingTransport;
+    private volatile String mCacheControl;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final String body = TestForecastJsonParser.createForecastJson(14);
+        mServer = new StandInHttpServer(new StandInHttpServer.Handler() {
+            @Override
+            public StandInHttpServer.Response handle(StandInHttpServer.Request request)
+                    throws IOException {
+                if (ETAG.equals(request.getHeader("If-None-Match"))) {
+                    return new StandInHttpServer.Response(304, (byte[]) null)
+                            .header("ETag", ETAG)
+                            .header("Cache-Control", mCacheControl);
+                }
+                String acceptEncoding = request.getHeader("Accept-Encoding");
+                StandInHttpServer.Response response;
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    response = new StandInHttpServer.Response(200, gzip(body))
+                            .header("Content-Encoding", "gzip");
+                } else {
+                    response = new StandInHttpServer.Response(200, body);
+                }
+                return response.header("ETag", ETAG).header("Cache-Control", mCacheControl);
+            }
+        });
+
+        // Start from an empty cache of the test's own
+        deleteInstalledCache();
+        mCachingTransport = new CachingWeatherTransport(
+                new File(mContext.getCacheDir(), "test_weather_http"),
+                CachingWeatherTransport.CACHE_SIZE_BYTES,
+                CachingWeatherTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                CachingWeatherTransport.DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteInstalledCache();
+        super.tearDown();
+    }
+
+    private static void deleteInstalledCache() throws IOException {
+        HttpResponseCache cache = HttpResponseCache.getInstalled();
+        if (cache != null) {
+            cache.delete();
+        }
+    }
+
+    private static byte[] gzip(String body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(body.getBytes("UTF-8"));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private URL forecastUrl() throws IOException {
+        return mServer.getUrl("/data/2.5/forecast/daily?q=94043");
+    }
+
+    /*
+        Fetches the forecast FETCHES times as a first sync of the day would, without validators
+        of its own, and returns how long each fetch took in milliseconds, sorted.
+     */
+    private long[] fetchRepeatedly(WeatherTransport transport) throws Throwable {
+        long[] millis = new long[FETCHES];
+        for (int i = 0; i < FETCHES; i++) {
+            long start = System.nanoTime();
+            ForecastFetcher.Result result = ForecastFetcher.fetch(transport, forecastUrl(),
+                    new SyncValidators(REQUEST_KEY, TODAY, null, null, null));
+            millis[i] = (System.nanoTime() - start) / 1000000;
+            assertEquals("Error: the forecast didn't come through the transport",
+                    14, result.forecast.count);
+        }
+        Arrays.sort(millis);
+        return millis;
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+
+    private static void report(String name, long bytes, int connections, long[] millis) {
+        Log.i(LOG_TAG, name + ": " + bytes + " bytes sent, " + connections + " connections, "
+                + "p50 " + percentile(millis, 50) + "ms, p90 " + percentile(millis, 90)
+                + "ms, max " + millis[millis.length - 1] + "ms");
+    }
+
+    public void testCachingTransportSavesBytesAndConnections() throws Throwable {
+        // Revalidated every time, so every fetch still goes to the server
+        mCacheControl = "no-cache";
+
+        long[] plainMillis = fetchRepeatedly(new PlainWeatherTransport());
+        long plainBytes = mServer.getBytesSent();
+        int plainConnections = mServer.getConnectionCount();
+        report("Plain", plainBytes, plainConnections, plainMillis);
+
+        long[] cachingMillis = fetchRepeatedly(mCachingTransport);
+        long cachingBytes = mServer.getBytesSent() - plainBytes;
+        int cachingConnections = mServer.getConnectionCount() - plainConnections;
+        report("Caching", cachingBytes, cachingConnections, cachingMillis);
+        Log.i(LOG_TAG, "Bytes on the wire down by "
+                + (100 - 100 * cachingBytes / plainBytes) + "%");
+
+        assertEquals(2 * FETCHES, mServer.getRequestCount());
+        assertTrue("Error: the caching transport didn't send fewer bytes",
+                cachingBytes < plainBytes);
+        assertEquals("Error: the plain transport kept a connection", FETCHES, plainConnections);
+        assertEquals("Error: the caching transport didn't keep its connection alive",
+                1, cachingConnections);
+    }
+
+    public void testCacheHonorsCacheControl() throws Throwable {
+        mCacheControl = "max-age=600";
+
+        ForecastFetcher.Result first = ForecastFetcher.fetch(mCachingTransport, forecastUrl(),
+                new SyncValidators(REQUEST_KEY, TODAY, null, null, null));
+        ForecastFetcher.Result second = ForecastFetcher.fetch(mCachingTransport, forecastUrl(),
+                new SyncValidators(REQUEST_KEY, TODAY, null, null, null));
+        assertEquals(first.validators.bodyHash, second.validators.bodyHash);
+        assertEquals("Error: a fresh cached forecast was fetched again",
+                1, mServer.getRequestCount());
+
+        ForecastFetcher.fetch(new PlainWeatherTransport(), forecastUrl(),
+                new SyncValidators(REQUEST_KEY, TODAY, null, null, null));
+        assertEquals("Error: the plain transport answered from the cache",
+                2, mServer.getRequestCount());
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    A tiny HTTP/1.1 server on the loopback interface that stands in for OpenWeatherMap, so the
+    sync code can be exercised (and timed) without the network.  Every connection gets its own
+    thread, connections are kept alive unless the client asks otherwise, and the server counts
+    what it sees so tests can check how the client behaved on the wire.
+ */
+public class StandInHttpServer {
+
+    public static class Request {
+        public final String method;
+        public final String path;
+        /** Header names are lower case. */
+        public final Map<String, String> headers;
+
+        Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+
+        /** Returns the decoded value of a query parameter, or null. */
+        public String getQueryParameter(String name) {
+            int queryStart = path.indexOf('?');
+            if (queryStart < 0) {
+                return null;
+            }
+            for (String pair : path.substring(queryStart + 1).split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                    try {
+                        return URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+                    } catch (UnsupportedEncodingException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    public static class Response {
+        public final int status;
+        public final Map<String, String> headers = new HashMap<String, String>();
+        public final byte[] body;
+
+        public Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body == null ? new byte[0] : body;
+        }
+
+        public Response(int status, String body) {
+            this(status, toBytes(body));
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        private static byte[] toBytes(String body) {
+            try {
+                return body == null ? null : body.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    public interface Handler {
+        Response handle(Request request) throws IOException;
+    }
+
+    private final Handler mHandler;
+    private final ServerSocket mServerSocket;
+    private final List<Socket> mSockets = new ArrayList<Socket>();
+    private volatile boolean mRunning = true;
+    private volatile long mResponseDelayMillis;
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicInteger mMaxInFlight = new AtomicInteger();
+
+    public StandInHttpServer(Handler handler) throws IOException {
+        mHandler = handler;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "StandInHttpServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /** Returns a URL on this server for the given path, which must start with a slash. */
+    public URL getUrl(String path) throws IOException {
+        return new URL("http", "127.0.0.1", mServerSocket.getLocalPort(), path);
+    }
+
+    /** Holds every response back this long, like a server on the far side of a radio. */
+    public void setResponseDelayMillis(long delayMillis) {
+        mResponseDelayMillis = delayMillis;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    /** The most requests this server was ever handling at the same time. */
+    public int getMaxConcurrentRequests() {
+        return mMaxInFlight.get();
+    }
+
+    public void shutdown() {
+        mRunning = false;
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // we're done with it either way
+        }
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // as above
+                }
+            }
+            mSockets.clear();
+        }
+    }
+
+    private void acceptLoop() {
+        while (mRunning) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // shutdown() closed the server socket
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            synchronized (mSockets) {
+                mSockets.add(socket);
+            }
+            Thread connectionThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serveConnection(socket);
+                }
+            }, "StandInHttpServer connection");
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            boolean keepAlive = true;
+            while (mRunning && keepAlive) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.length() == 0) {
+                    return;
+                }
+                String[] parts = requestLine.split(" ");
+                Map<String, String> headers = new HashMap<String, String>();
+                String line;
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                Request request = new Request(parts[0], parts.length > 1 ? parts[1] : "/",
+                        headers);
+                keepAlive = !"close".equalsIgnoreCase(request.getHeader("Connection"));
+
+                mRequestCount.incrementAndGet();
+                int inFlight = mInFlight.incrementAndGet();
+                int max;
+                while (inFlight > (max = mMaxInFlight.get())
+                        && !mMaxInFlight.compareAndSet(max, inFlight)) {
+                    // retry until we either raised the maximum or someone else raised it past us
+                }
+                try {
+                    if (mResponseDelayMillis > 0) {
+                        Thread.sleep(mResponseDelayMillis);
+                    }
+                    writeResponse(out, mHandler.handle(request), keepAlive,
+                            "HEAD".equals(request.method));
+                } finally {
+                    mInFlight.decrementAndGet();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // the client went away, or we are shutting down
+        } finally {
+            synchronized (mSockets) {
+                mSockets.remove(socket);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing left to do with it
+            }
+        }
+    }
+
+    private void writeResponse(OutputStream out, Response response, boolean keepAlive,
+                               boolean headOnly) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.status).append(' ')
+                .append(reasonPhrase(response.status)).append("\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        boolean hasBody = response.status != 304 && response.status != 204 && !headOnly;
+        head.append("Content-Length: ").append(hasBody ? response.body.length : 0)
+                .append("\r\n");
+        if (!keepAlive) {
+            head.append("Connection: close\r\n");
+        }
+        head.append("\r\n");
+
+        byte[] headBytes = head.toString().getBytes("ISO-8859-1");
+        out.write(headBytes);
+        long sent = headBytes.length;
+        if (hasBody) {
+            out.write(response.body);
+            sent += response.body.length;
+        }
+        out.flush();
+        mBytesSent.addAndGet(sent);
+    }
+
+    private static String reasonPhrase(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 304:
+                return "Not Modified";
+            case 404:
+                return "Not Found";
+            case 500:
+                return "Internal Server Error";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Status";
+        }
+    }
+
+    /** Reads one CRLF terminated line, or returns null at the end of the stream. */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("ISO-8859-1");
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+import java.util.Locale;
+
+/**
+ * Everything we show for an OpenWeatherMap condition code, looked up by indexing an array with
+ * the code.  Icons, art and photos only depend on the code, so their tables are static.  The
+ * descriptions and art URLs depend on the locale and the art pack preference, so they live in
+ * an immutable instance that is built the first time it's needed and again whenever either of
+ * those changes.  The art pack comes from {@link SunshinePrefs}, so checking it is a field read;
+ * the preference hands back the same String until it changes, so the comparison is too.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+final class ConditionTable {
+
+    private static final int FIRST_CODE = 200;
+    private static final int LAST_CODE = 962;
+
+    // What a code looks like; codes sharing a look share icon, art and photo
+    private static final int LOOK_NONE = 0;
+    private static final int LOOK_STORM = 1;
+    private static final int LOOK_LIGHT_RAIN = 2;
+    private static final int LOOK_RAIN = 3;
+    private static final int LOOK_SNOW = 4;
+    private static final int LOOK_FOG = 5;
+    // Tornadoes look like a storm, but Muzei shows them a dust storm
+    private static final int LOOK_TORNADO = 6;
+    private static final int LOOK_CLEAR = 7;
+    private static final int LOOK_LIGHT_CLOUDS = 8;
+    private static final int LOOK_CLOUDS = 9;
+
+    private static final int[] ICONS = {
+            -1,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_storm,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
+    private static final int[] ART = {
+            -1,
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_storm,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+
+    // The names the art packs give their images
+    private static final String[] ART_NAMES = {
+            null,
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "storm",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    private static final String[] IMAGE_URLS = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/"
+                    + "Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/"
+                    + "A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    // One entry per code from FIRST_CODE to LAST_CODE
+    private static final byte[] LOOKS = new byte[LAST_CODE - FIRST_CODE + 1];
+    private static final int[] DESCRIPTIONS = new int[LAST_CODE - FIRST_CODE + 1];
+
+    static {
+        setLook(200, 232, LOOK_STORM);
+        setLook(300, 321, LOOK_LIGHT_RAIN);
+        setLook(500, 504, LOOK_RAIN);
+        setLook(511, 511, LOOK_SNOW);
+        setLook(520, 531, LOOK_RAIN);
+        setLook(600, 622, LOOK_SNOW);
+        setLook(701, 761, LOOK_FOG);
+        setLook(781, 781, LOOK_TORNADO);
+        setLook(800, 800, LOOK_CLEAR);
+        setLook(801, 801, LOOK_LIGHT_CLOUDS);
+        setLook(802, 804, LOOK_CLOUDS);
+
+        setDescription(200, 232, R.string.condition_2xx);
+        setDescription(300, 321, R.string.condition_3xx);
+        setDescription(500, R.string.condition_500);
+        setDescription(501, R.string.condition_501);
+        setDescription(502, R.string.condition_502);
+        setDescription(503, R.string.condition_503);
+        setDescription(504, R.string.condition_504);
+        setDescription(511, R.string.condition_511);
+        setDescription(520, R.string.condition_520);
+        setDescription(531, R.string.condition_531);
+        setDescription(600, R.string.condition_600);
+        setDescription(601, R.string.condition_601);
+        setDescription(602, R.string.condition_602);
+        setDescription(611, R.string.condition_611);
+        setDescription(612, R.string.condition_612);
+        setDescription(615, R.string.condition_615);
+        setDescription(616, R.string.condition_616);
+        setDescription(620, R.string.condition_620);
+        setDescription(621, R.string.condition_621);
+        setDescription(622, R.string.condition_622);
+        setDescription(701, R.string.condition_701);
+        setDescription(711, R.string.condition_711);
+        setDescription(721, R.string.condition_721);
+        setDescription(731, R.string.condition_731);
+        setDescription(741, R.string.condition_741);
+        setDescription(751, R.string.condition_751);
+        setDescription(761, R.string.condition_761);
+        setDescription(762, R.string.condition_762);
+        setDescription(771, R.string.condition_771);
+        setDescription(781, R.string.condition_781);
+        setDescription(800, R.string.condition_800);
+        setDescription(801, R.string.condition_801);
+        setDescription(802, R.string.condition_802);
+        setDescription(803, R.string.condition_803);
+        setDescription(804, R.string.condition_804);
+        setDescription(900, R.string.condition_900);
+        setDescription(901, R.string.condition_901);
+        setDescription(902, R.string.condition_902);
+        setDescription(903, R.string.condition_903);
+        setDescription(904, R.string.condition_904);
+        setDescription(905, R.string.condition_905);
+        setDescription(906, R.string.condition_906);
+        setDescription(951, R.string.condition_951);
+        setDescription(952, R.string.condition_952);
+        setDescription(953, R.string.condition_953);
+        setDescription(954, R.string.condition_954);
+        setDescription(955, R.string.condition_955);
+        setDescription(956, R.string.condition_956);
+        setDescription(957, R.string.condition_957);
+        setDescription(958, R.string.condition_958);
+        setDescription(959, R.string.condition_959);
+        setDescription(960, R.string.condition_960);
+        setDescription(961, R.string.condition_961);
+        setDescription(962, R.string.condition_962);
+    }
+
+    private static void setLook(int firstCode, int lastCode, int look) {
+        for (int code = firstCode; code <= lastCode; code++) {
+            LOOKS[code - FIRST_CODE] = (byte) look;
+        }
+    }
+
+    private static void setDescription(int firstCode, int lastCode, int stringId) {
+        for (int code = firstCode; code <= lastCode; code++) {
+            DESCRIPTIONS[code - FIRST_CODE] = stringId;
+        }
+    }
+
+    private static void setDescription(int code, int stringId) {
+        DESCRIPTIONS[code - FIRST_CODE] = stringId;
+    }
+
+    private static int getLook(int weatherId) {
+        if (weatherId < FIRST_CODE || weatherId > LAST_CODE) {
+            return LOOK_NONE;
+        }
+        return LOOKS[weatherId - FIRST_CODE];
+    }
+
+    /** Returns the icon resource id for the condition, -1 if there is none. */
+    static int getIconResource(int weatherId) {
+        return ICONS[getLook(weatherId)];
+    }
+
+    /** Returns the art resource id for the condition, -1 if there is none. */
+    static int getArtResource(int weatherId) {
+        return ART[getLook(weatherId)];
+    }
+
+    /** Returns the URL of the Muzei photo for the condition, null if there is none. */
+    static String getImageUrl(int weatherId) {
+        return IMAGE_URLS[getLook(weatherId)];
+    }
+
+    private static volatile ConditionTable sInstance;
+
+    /**
+     * Returns the table for the current locale and art pack, building it if either changed
+     * since the last call.
+     */
+    static ConditionTable getInstance(Context context) {
+        Locale locale = context.getResources().getConfiguration().locale;
+        String artUrlFormat = SunshinePrefs.get(context).artUrlFormat;
+        ConditionTable table = sInstance;
+        if (table == null || !table.mLocale.equals(locale)
+                || !table.mArtUrlFormat.equals(artUrlFormat)) {
+            table = new ConditionTable(context.getApplicationContext(), locale, artUrlFormat);
+            sInstance = table;
+        }
+        return table;
+    }
+
+    private final Context mContext;
+    private final Locale mLocale;
+    private final String mArtUrlFormat;
+    private final String[] mArtUrls;
+    private final String[] mDescriptions;
+
+    private ConditionTable(Context context, Locale locale, String artUrlFormat) {
+        mContext = context;
+        mLocale = locale;
+        mArtUrlFormat = artUrlFormat;
+
+        mArtUrls = new String[ART_NAMES.length];
+        for (int look = 0; look < ART_NAMES.length; look++) {
+            if (ART_NAMES[look] != null) {
+                mArtUrls[look] = String.format(Locale.US, artUrlFormat, ART_NAMES[look]);
+            }
+        }
+
+        Resources resources = context.getResources();
+        mDescriptions = new String[DESCRIPTIONS.length];
+        for (int i = 0; i < DESCRIPTIONS.length; i++) {
+            if (DESCRIPTIONS[i] != 0) {
+                mDescriptions[i] = resources.getString(DESCRIPTIONS[i]);
+            }
+        }
+    }
+
+    /** Returns the URL of the art pack's image for the condition, null if there is none. */
+    String getArtUrl(int weatherId) {
+        return mArtUrls[getLook(weatherId)];
+    }
+
+    /**
+     * Returns the description of the condition.  Codes we don't know are described by
+     * number, which is the only case that allocates.
+     */
+    String getDescription(int weatherId) {
+        if (weatherId >= FIRST_CODE && weatherId <= LAST_CODE) {
+            String description = mDescriptions[weatherId - FIRST_CODE];
+            if (description != null) {
+                return description;
+            }
+        }
+        return mContext.getString(R.string.condition_unknown, weatherId);
+    }
+}
@@ -26,15 +26,19 @@ import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 import android.support.design.widget.Snackbar;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
+import android.widget.Toast;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.location.places.Place;
 import com.google.android.gms.location.places.ui.PlacePicker;
 import com.google.android.gms.maps.model.LatLng;
 
+import java.util.List;
+
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
  * <p>
@@ -57,6 +61,8 @@ public class SettingsActivity extends PreferenceActivity
         // For all preferences, attach an OnPreferenceChangeListener so the UI summary can be
         // updated when the preference changes.
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
+        bindPreferenceSummaryToValue(
+                findPreference(getString(R.string.pref_tracked_locations_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
 
@@ -135,6 +141,12 @@ public class SettingsActivity extends PreferenceActivity
                     // is valid
                     preference.setSummary(stringValue);
             }
+        } else if (key.equals(getString(R.string.pref_tracked_locations_key))) {
+            // One per line as stored, but a summary line reads better with commas
+            List<String> locations = SunshinePrefs.parseTrackedLocations(stringValue);
+            preference.setSummary(locations.isEmpty()
+                    ? getString(R.string.pref_tracked_locations_none)
+                    : TextUtils.join(", ", locations));
         } else {
             // For other preferences, set the summary to the value's simple string representation.
             preference.setSummary(stringValue);
@@ -167,10 +179,15 @@ public class SettingsActivity extends PreferenceActivity
             }
 
             Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            syncNow();
+        } else if ( key.equals(getString(R.string.pref_tracked_locations_key)) ) {
+            // Fetch the forecasts of any locations that were just added
+            syncNow();
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // The watch face formats the temperatures itself, so it only needs telling
+            SunshineSyncAdapter.updateWatchfaceUnits(this);
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
@@ -181,6 +198,19 @@ public class SettingsActivity extends PreferenceActivity
         }
     }
 
+    /*
+        Syncs the changed setting straight away, or says when it will be synced if the weather
+        server has been failing and is being left alone for a while.
+     */
+    private void syncNow() {
+        long nextAllowed = SunshineSyncAdapter.syncImmediately(this);
+        if (nextAllowed > System.currentTimeMillis()) {
+            Toast.makeText(this, getString(R.string.sync_backed_off,
+                    DateUtils.formatDateTime(this, nextAllowed, DateUtils.FORMAT_SHOW_TIME)),
+                    Toast.LENGTH_LONG).show();
+        }
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
     public Intent getParentActivityIntent() {
@@ -235,7 +265,7 @@ public class SettingsActivity extends PreferenceActivity
                 }
 
                 Utility.resetLocationStatus(this);
-                SunshineSyncAdapter.syncImmediately(this);
+                syncNow();
             }
         } else {
             super.onActivityResult(requestCode, resultCode, data);
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.text.format.Time;
+import android.util.SparseArray;
+
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Formats the temperatures, day labels and accessibility labels the forecast list, detail view,
+ * widgets and notification show.  A sync only ever brings 14 days and a few dozen distinct
+ * temperatures, so every string is made once and handed back from then on: binding a row or a
+ * widget item doesn't allocate once the values it shows have been seen.
+ *
+ * The strings are made exactly as Utility used to make them, with the default locale.  Everything
+ * is thrown away when the default locale changes, and the day labels also when the day does.
+ * Calls are synchronized, as the list, the widgets and the sync adapter all format on their own
+ * threads.
+ */
+public final class SunshineFormatter {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // Time.getJulianDay() counts from here
+    private static final int EPOCH_JULIAN_DAY = 2440588;
+
+    // Rounded temperatures from -150 to 150 degrees are kept, which is any weather on Earth
+    private static final int MIN_CACHED_TEMPERATURE = -150;
+    private static final int MAX_CACHED_TEMPERATURE = 150;
+
+    // The day labels, cached together by Julian day * DAY_LABEL_KINDS + kind
+    private static final int DAY_LABEL_KINDS = 5;
+    private static final int LABEL_FRIENDLY = 0;
+    private static final int LABEL_FRIENDLY_LONG_TODAY = 1;
+    private static final int LABEL_FULL_FRIENDLY = 2;
+    private static final int LABEL_DAY_NAME = 3;
+    private static final int LABEL_MONTH_DAY = 4;
+
+    private static SunshineFormatter sInstance;
+
+    public static synchronized SunshineFormatter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SunshineFormatter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Resources mResources;
+
+    private Locale mLocale;
+    private String mTemperatureFormat;
+    private final String[] mTemperatures =
+            new String[MAX_CACHED_TEMPERATURE - MIN_CACHED_TEMPERATURE + 1];
+    // String.format() keeps the sign of a temperature that rounds to zero from below
+    private String mNegativeZeroTemperature;
+    private final SparseArray<HashMap<String, String>> mLabels = new SparseArray<>();
+
+    private SimpleDateFormat mShortenedDateFormat;
+    private SimpleDateFormat mDayFormat;
+    private SimpleDateFormat mMonthDayFormat;
+    private final SparseArray<String> mDayLabels = new SparseArray<>();
+    private int mTodayJulianDay;
+    private long mGmtOffSeconds;
+    private long mTodayStartMillis;
+    private long mTodayEndMillis;
+
+    private SunshineFormatter(Context context) {
+        mResources = context.getResources();
+    }
+
+    /**
+     * Returns the temperature, given in Celsius, rounded to a whole degree in the user's units.
+     */
+    public synchronized String formatTemperature(double temperature, boolean isMetric) {
+        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
+        // the values here.
+        if (!isMetric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        checkLocale();
+
+        // For presentation, assume the user doesn't care about tenths of a degree.  Rounds half
+        // up, away from zero, as String.format() does.
+        long rounded = Math.round(Math.abs(temperature));
+        if (temperature < 0) {
+            if (rounded == 0) {
+                if (mNegativeZeroTemperature == null) {
+                    mNegativeZeroTemperature = String.format(mTemperatureFormat, -0.0);
+                }
+                return mNegativeZeroTemperature;
+            }
+            rounded = -rounded;
+        }
+        if (rounded < MIN_CACHED_TEMPERATURE || rounded > MAX_CACHED_TEMPERATURE) {
+            return String.format(mTemperatureFormat, (double) rounded);
+        }
+        int index = (int) rounded - MIN_CACHED_TEMPERATURE;
+        String formatted = mTemperatures[index];
+        if (formatted == null) {
+            formatted = String.format(mTemperatureFormat, (double) rounded);
+            mTemperatures[index] = formatted;
+        }
+        return formatted;
+    }
+
+    /**
+     * Returns the string resource formatId formatted with value, such as the accessibility label
+     * for a temperature or a forecast.
+     */
+    public synchronized String getLabel(int formatId, String value) {
+        checkLocale();
+        HashMap<String, String> labels = mLabels.get(formatId);
+        if (labels == null) {
+            labels = new HashMap<>();
+            mLabels.put(formatId, labels);
+        }
+        String label = labels.get(value);
+        if (label == null) {
+            label = mResources.getString(formatId, value);
+            labels.put(value, label);
+        }
+        return label;
+    }
+
+    /**
+     * The day string for forecast uses the following logic:
+     * For today: "Today, June 8" if displayLongToday, otherwise "Today"
+     * For tomorrow:  "Tomorrow"
+     * For the next 5 days: "Wednesday" (just the day name)
+     * For all days after that: "Mon Jun 8"
+     */
+    public synchronized String getFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        return getDayLabel(dateInMillis,
+                displayLongToday ? LABEL_FRIENDLY_LONG_TODAY : LABEL_FRIENDLY);
+    }
+
+    /** Returns the day name and date, such as "Wednesday, June 24". */
+    public synchronized String getFullFriendlyDayString(long dateInMillis) {
+        return getDayLabel(dateInMillis, LABEL_FULL_FRIENDLY);
+    }
+
+    /** Returns just the name to use for the day, such as "Today", "Tomorrow", "Wednesday". */
+    public synchronized String getDayName(long dateInMillis) {
+        return getDayLabel(dateInMillis, LABEL_DAY_NAME);
+    }
+
+    /** Returns the day in the form "December 06". */
+    public synchronized String getFormattedMonthDay(long dateInMillis) {
+        return getDayLabel(dateInMillis, LABEL_MONTH_DAY);
+    }
+
+    private String getDayLabel(long dateInMillis, int kind) {
+        checkLocale();
+        checkToday();
+        int julianDay = Time.getJulianDay(dateInMillis, mGmtOffSeconds);
+        int key = julianDay * DAY_LABEL_KINDS + kind;
+        String label = mDayLabels.get(key);
+        if (label == null) {
+            label = makeDayLabel(dateInMillis, julianDay, kind);
+            mDayLabels.put(key, label);
+        }
+        return label;
+    }
+
+    private String makeDayLabel(long dateInMillis, int julianDay, int kind) {
+        switch (kind) {
+            case LABEL_FRIENDLY_LONG_TODAY:
+                // If the date we're building the String for is today's date, the format
+                // is "Today, June 24"
+                if (julianDay == mTodayJulianDay) {
+                    return mResources.getString(R.string.format_full_friendly_date,
+                            mResources.getString(R.string.today),
+                            getDayLabel(dateInMillis, LABEL_MONTH_DAY));
+                }
+                return getDayLabel(dateInMillis, LABEL_FRIENDLY);
+            case LABEL_FRIENDLY:
+                if (julianDay < mTodayJulianDay + 7) {
+                    // If the input date is less than a week in the future, just return the day
+                    // name.
+                    return getDayLabel(dateInMillis, LABEL_DAY_NAME);
+                }
+                // Otherwise, use the form "Mon Jun 3"
+                return mShortenedDateFormat.format(dateInMillis);
+            case LABEL_FULL_FRIENDLY:
+                return mResources.getString(R.string.format_full_friendly_date,
+                        getDayLabel(dateInMillis, LABEL_DAY_NAME),
+                        getDayLabel(dateInMillis, LABEL_MONTH_DAY));
+            case LABEL_DAY_NAME:
+                // If the date is today, return the localized version of "Today" instead of the
+                // actual day name.
+                if (julianDay == mTodayJulianDay) {
+                    return mResources.getString(R.string.today);
+                } else if (julianDay == mTodayJulianDay + 1) {
+                    return mResources.getString(R.string.tomorrow);
+                }
+                // Otherwise, the format is just the day of the week (e.g "Wednesday").
+                return mDayFormat.format(dateInMillis);
+            case LABEL_MONTH_DAY:
+                return mMonthDayFormat.format(dateInMillis);
+            default:
+                throw new IllegalArgumentException("Unknown day label: " + kind);
+        }
+    }
+
+    // Starts over if the default locale changed since the strings were made
+    private void checkLocale() {
+        Locale locale = Locale.getDefault();
+        if (locale == mLocale || locale.equals(mLocale)) {
+            return;
+        }
+        mLocale = locale;
+        mTemperatureFormat = mResources.getString(R.string.format_temperature);
+        for (int i = 0; i < mTemperatures.length; i++) {
+            mTemperatures[i] = null;
+        }
+        mNegativeZeroTemperature = null;
+        mLabels.clear();
+        // Forces checkToday() to start the day labels over, with formats for the new locale
+        mTodayEndMillis = 0;
+    }
+
+    // Starts the day labels over once today is over, as "Today" and "Tomorrow" moved on
+    private void checkToday() {
+        long now = System.currentTimeMillis();
+        if (now >= mTodayStartMillis && now < mTodayEndMillis) {
+            return;
+        }
+        Time time = new Time();
+        time.setToNow();
+        mGmtOffSeconds = time.gmtoff;
+        mTodayJulianDay = Time.getJulianDay(now, mGmtOffSeconds);
+        mTodayStartMillis = (mTodayJulianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS
+                - mGmtOffSeconds * 1000;
+        mTodayEndMillis = mTodayStartMillis + DAY_IN_MILLIS;
+
+        // New formats too, in case the day changed because the time zone did
+        mShortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+        mDayFormat = new SimpleDateFormat("EEEE");
+        mMonthDayFormat = new SimpleDateFormat("MMMM dd");
+        mDayLabels.clear();
+    }
+}
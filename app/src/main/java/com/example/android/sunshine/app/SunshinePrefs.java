@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable copy of the preferences the adapters, widgets, notification and sync adapter
+ * read while they bind and build their views, so those reads are plain field reads.
+ *
+ * A snapshot is taken the first time one is asked for, and thrown away whenever a preference
+ * changes.  Preference listeners are told about changes on the main thread, so a change made
+ * on another thread shows up here once the main thread has got to it.  The location status is
+ * deliberately left out: listeners for it read it straight away, maybe before this one ran.
+ */
+public final class SunshinePrefs {
+
+    private static volatile SunshinePrefs sSnapshot;
+
+    // Preferences only hold weak references to their listeners, so this one is kept here
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    public final String preferredLocation;
+    public final boolean locationLatLonAvailable;
+    public final float locationLatitude;
+    public final float locationLongitude;
+    /** The locations synced along with the preferred one, never null. */
+    public final List<String> trackedLocations;
+    public final boolean metric;
+    /** The art pack's URL format, with a %s for the name of the image. */
+    public final String artUrlFormat;
+    public final boolean usingLocalGraphics;
+    public final boolean notificationsEnabled;
+
+    /**
+     * Returns the current snapshot, taking a new one if a preference changed since the last.
+     */
+    public static SunshinePrefs get(Context context) {
+        SunshinePrefs snapshot = sSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (SunshinePrefs.class) {
+            if (sSnapshot == null) {
+                Context appContext = context.getApplicationContext();
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+                if (sListener == null) {
+                    sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                        @Override
+                        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                              String key) {
+                            // Under the lock, so a snapshot being taken right now isn't kept
+                            synchronized (SunshinePrefs.class) {
+                                sSnapshot = null;
+                            }
+                        }
+                    };
+                    prefs.registerOnSharedPreferenceChangeListener(sListener);
+                }
+                sSnapshot = new SunshinePrefs(appContext, prefs);
+            }
+            return sSnapshot;
+        }
+    }
+
+    /**
+     * Reads the tracked locations as stored, one per line.  Lines are trimmed and blank ones
+     * skipped, as the user types them into settings.
+     */
+    public static List<String> parseTrackedLocations(String tracked) {
+        List<String> locations = new ArrayList<>();
+        for (String location : tracked.split("\n")) {
+            location = location.trim();
+            if (location.length() > 0) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
+    private SunshinePrefs(Context context, SharedPreferences prefs) {
+        preferredLocation = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+
+        String latitudeKey = context.getString(R.string.pref_location_latitude);
+        String longitudeKey = context.getString(R.string.pref_location_longitude);
+        locationLatLonAvailable = prefs.contains(latitudeKey) && prefs.contains(longitudeKey);
+        locationLatitude = prefs.getFloat(latitudeKey, Utility.DEFAULT_LATLONG);
+        locationLongitude = prefs.getFloat(longitudeKey, Utility.DEFAULT_LATLONG);
+
+        trackedLocations = Collections.unmodifiableList(parseTrackedLocations(
+                prefs.getString(context.getString(R.string.pref_tracked_locations_key), "")));
+
+        String unitsMetric = context.getString(R.string.pref_units_metric);
+        metric = prefs.getString(context.getString(R.string.pref_units_key), unitsMetric)
+                .equals(unitsMetric);
+
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        artUrlFormat = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        usingLocalGraphics = artUrlFormat.equals(sunshineArtPack);
+
+        notificationsEnabled = prefs.getBoolean(
+                context.getString(R.string.pref_enable_notifications_key),
+                Boolean.parseBoolean(
+                        context.getString(R.string.pref_enable_notifications_default)));
+    }
+}
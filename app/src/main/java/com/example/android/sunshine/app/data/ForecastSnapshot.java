@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The preferred location's forecast as a sync just stored it, kept in memory so that whatever
+ * the sync tells about it in this process can read it there instead of querying it back.
+ *
+ * A snapshot is immutable, and the sync publishes it by swapping it in, marked with the id of
+ * the sync.  Consumers ask for the snapshot of the sync that told them, and get null if it's
+ * not the one published (a later sync replaced it, the process was restarted, or the sync
+ * didn't store the preferred location), in which case they query the provider as before.
+ */
+public final class ForecastSnapshot {
+
+    private static final AtomicReference<ForecastSnapshot> sPublished =
+            new AtomicReference<>();
+
+    private final long mSyncId;
+    private final String mLocationSetting;
+    private final double mCoordLat;
+    private final double mCoordLong;
+    // One entry per day, in date order
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final String[] mShortDescs;
+    private final double[] mMinTemps;
+    private final double[] mMaxTemps;
+    private final double[] mHumidity;
+    private final double[] mPressure;
+    private final double[] mWindSpeed;
+    private final double[] mDegrees;
+
+    private ForecastSnapshot(long syncId, WeatherBatch batch, int location, int[] rows) {
+        mSyncId = syncId;
+        mLocationSetting = batch.locationSettings[location];
+        mCoordLat = batch.coordLats[location];
+        mCoordLong = batch.coordLongs[location];
+        int count = rows.length;
+        mDates = new long[count];
+        mWeatherIds = new int[count];
+        mShortDescs = new String[count];
+        mMinTemps = new double[count];
+        mMaxTemps = new double[count];
+        mHumidity = new double[count];
+        mPressure = new double[count];
+        mWindSpeed = new double[count];
+        mDegrees = new double[count];
+        Time time = new Time();
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            // As the provider stores it
+            mDates[i] = WeatherContract.normalizeDate(batch.dates[row], time);
+            mWeatherIds[i] = batch.weatherIds[row];
+            mShortDescs[i] = batch.shortDescs[row];
+            mMinTemps[i] = batch.minTemps[row];
+            mMaxTemps[i] = batch.maxTemps[row];
+            mHumidity[i] = batch.humidity[row];
+            mPressure[i] = batch.pressure[row];
+            mWindSpeed[i] = batch.windSpeed[row];
+            mDegrees[i] = batch.degrees[row];
+        }
+    }
+
+    /**
+     * Takes a snapshot of one location's rows in a batch, or returns null if the batch doesn't
+     * hold the location.  Take it before the batch is stored, which may swap its stand-in
+     * location ids for real ones, and publish it once the batch is.
+     */
+    public static ForecastSnapshot fromBatch(long syncId, WeatherBatch batch,
+                                             String locationSetting) {
+        int location = -1;
+        for (int i = 0; i < batch.locationCount; i++) {
+            if (batch.locationSettings[i].equals(locationSetting)) {
+                location = i;
+                break;
+            }
+        }
+        if (location == -1) {
+            return null;
+        }
+
+        long standInId = -(location + 1);
+        int[] rows = new int[batch.count];
+        int count = 0;
+        for (int row = 0; row < batch.count; row++) {
+            if (batch.locationIds[row] == standInId) {
+                rows[count++] = row;
+            }
+        }
+        return new ForecastSnapshot(syncId, batch, location, Arrays.copyOf(rows, count));
+    }
+
+    /** Makes the snapshot the one consumers of its sync will find. */
+    public static void publish(ForecastSnapshot snapshot) {
+        sPublished.set(snapshot);
+    }
+
+    /** Drops the published snapshot, for a sync that changed the data without taking one. */
+    public static void clear() {
+        sPublished.set(null);
+    }
+
+    /**
+     * Returns the snapshot published by the given sync if it's of the location, or null if the
+     * caller has to query the provider.
+     */
+    public static ForecastSnapshot get(long syncId, String locationSetting) {
+        ForecastSnapshot snapshot = sPublished.get();
+        if (snapshot == null || snapshot.mSyncId != syncId
+                || !snapshot.mLocationSetting.equals(locationSetting)) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the last snapshot published if it's of the location, or null, for consumers that
+     * aren't told which sync they're showing.  Only syncs change the forecast, and every sync
+     * that does either publishes or clears, so the last snapshot is what's stored.
+     */
+    public static ForecastSnapshot getLatest(String locationSetting) {
+        ForecastSnapshot snapshot = sPublished.get();
+        if (snapshot == null || !snapshot.mLocationSetting.equals(locationSetting)) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    public long getSyncId() {
+        return mSyncId;
+    }
+
+    /**
+     * Returns the days from startDate's on, in date order, like a query of
+     * {@link WeatherEntry#buildWeatherLocationWithStartDate} sorted by date would.  The
+     * projection may name the weather columns and the location's setting and coordinates.
+     * The rows have no database _id, so a day's date stands in for it.
+     *
+     * @throws IllegalArgumentException for a column the snapshot doesn't hold
+     */
+    public Cursor newCursor(String[] projection, long startDate) {
+        long normalizedStartDate = WeatherContract.normalizeDate(startDate);
+        MatrixCursor cursor = new MatrixCursor(projection, mDates.length);
+        for (int i = 0; i < mDates.length; i++) {
+            if (mDates[i] < normalizedStartDate) {
+                continue;
+            }
+            Object[] row = new Object[projection.length];
+            for (int column = 0; column < projection.length; column++) {
+                row[column] = getValue(projection[column], i);
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private Object getValue(String column, int day) {
+        // Joined queries name the weather table's _id in full
+        if (column.equals(WeatherEntry._ID)
+                || column.equals(WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID)
+                || column.equals(WeatherEntry.COLUMN_DATE)) {
+            return mDates[day];
+        } else if (column.equals(WeatherEntry.COLUMN_WEATHER_ID)) {
+            return mWeatherIds[day];
+        } else if (column.equals(WeatherEntry.COLUMN_SHORT_DESC)) {
+            return mShortDescs[day];
+        } else if (column.equals(WeatherEntry.COLUMN_MIN_TEMP)) {
+            return mMinTemps[day];
+        } else if (column.equals(WeatherEntry.COLUMN_MAX_TEMP)) {
+            return mMaxTemps[day];
+        } else if (column.equals(WeatherEntry.COLUMN_HUMIDITY)) {
+            return mHumidity[day];
+        } else if (column.equals(WeatherEntry.COLUMN_PRESSURE)) {
+            return mPressure[day];
+        } else if (column.equals(WeatherEntry.COLUMN_WIND_SPEED)) {
+            return mWindSpeed[day];
+        } else if (column.equals(WeatherEntry.COLUMN_DEGREES)) {
+            return mDegrees[day];
+        } else if (column.equals(LocationEntry.COLUMN_LOCATION_SETTING)) {
+            return mLocationSetting;
+        } else if (column.equals(LocationEntry.COLUMN_COORD_LAT)) {
+            return mCoordLat;
+        } else if (column.equals(LocationEntry.COLUMN_COORD_LONG)) {
+            return mCoordLong;
+        }
+        throw new IllegalArgumentException("Not in the snapshot: " + column);
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * A batch of weather rows kept as one primitive array per column, so that thousands of rows can
+ * be handed to {@link WeatherProvider} without boxing every value into a {@link ContentValues}.
+ *
+ * A batch can also carry the locations its rows belong to, for locations that may not be in
+ * the database yet.  {@link #addLocation} returns a stand-in id to pass to {@link #add}, and
+ * the provider swaps it for the real _id inside the same transaction that stores the rows.
+ */
+public class WeatherBatch {
+
+    // Bundle keys used to hand the columns to WeatherProvider.call()
+    static final String KEY_COUNT = "count";
+    static final String KEY_LOCATION_IDS = WeatherEntry.COLUMN_LOC_KEY;
+    static final String KEY_DATES = WeatherEntry.COLUMN_DATE;
+    static final String KEY_WEATHER_IDS = WeatherEntry.COLUMN_WEATHER_ID;
+    static final String KEY_SHORT_DESCS = WeatherEntry.COLUMN_SHORT_DESC;
+    static final String KEY_MIN_TEMPS = WeatherEntry.COLUMN_MIN_TEMP;
+    static final String KEY_MAX_TEMPS = WeatherEntry.COLUMN_MAX_TEMP;
+    static final String KEY_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+    static final String KEY_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+    static final String KEY_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+    static final String KEY_DEGREES = WeatherEntry.COLUMN_DEGREES;
+    static final String KEY_LOCATION_COUNT = "location_count";
+    static final String KEY_LOCATION_SETTINGS = LocationEntry.COLUMN_LOCATION_SETTING;
+    static final String KEY_CITY_NAMES = LocationEntry.COLUMN_CITY_NAME;
+    static final String KEY_COORD_LATS = LocationEntry.COLUMN_COORD_LAT;
+    static final String KEY_COORD_LONGS = LocationEntry.COLUMN_COORD_LONG;
+    static final String KEY_CITY_IDS = LocationEntry.COLUMN_CITY_ID;
+
+    int count;
+    long[] locationIds;
+    long[] dates;
+    int[] weatherIds;
+    String[] shortDescs;
+    double[] minTemps;
+    double[] maxTemps;
+    double[] humidity;
+    double[] pressure;
+    double[] windSpeed;
+    double[] degrees;
+
+    int locationCount;
+    String[] locationSettings = new String[0];
+    String[] cityNames = new String[0];
+    double[] coordLats = new double[0];
+    double[] coordLongs = new double[0];
+    long[] cityIds = new long[0];
+
+    public WeatherBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        locationIds = new long[capacity];
+        dates = new long[capacity];
+        weatherIds = new int[capacity];
+        shortDescs = new String[capacity];
+        minTemps = new double[capacity];
+        maxTemps = new double[capacity];
+        humidity = new double[capacity];
+        pressure = new double[capacity];
+        windSpeed = new double[capacity];
+        degrees = new double[capacity];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Adds a location for rows of this batch to refer to, and returns the stand-in id to use
+     * as their location id.  If the location is already stored, its row is left as it is,
+     * apart from learning the city id.
+     *
+     * @param cityId the weather service's id for the city, or 0 if unknown
+     */
+    public long addLocation(String locationSetting, String cityName, double lat, double lon,
+                            long cityId) {
+        if (locationCount == locationSettings.length) {
+            int capacity = Math.max(4, locationCount * 2);
+            locationSettings = Arrays.copyOf(locationSettings, capacity);
+            cityNames = Arrays.copyOf(cityNames, capacity);
+            coordLats = Arrays.copyOf(coordLats, capacity);
+            coordLongs = Arrays.copyOf(coordLongs, capacity);
+            cityIds = Arrays.copyOf(cityIds, capacity);
+        }
+        int i = locationCount++;
+        locationSettings[i] = locationSetting;
+        cityNames[i] = cityName;
+        coordLats[i] = lat;
+        coordLongs[i] = lon;
+        cityIds[i] = cityId;
+        return -(i + 1);
+    }
+
+    static boolean isStandInLocationId(long locationId) {
+        return locationId < 0;
+    }
+
+    static int getLocationIndex(long standInLocationId) {
+        return (int) (-standInLocationId - 1);
+    }
+
+    /**
+     * Adds a row.  The date doesn't need to be normalized, the provider takes care of that.
+     */
+    public void add(long locationId, long date, int weatherId, String shortDesc,
+                    double minTemp, double maxTemp, double humidity, double pressure,
+                    double windSpeed, double degrees) {
+        if (count == dates.length) {
+            grow(count * 2);
+        }
+        int i = count++;
+        this.locationIds[i] = locationId;
+        this.dates[i] = date;
+        this.weatherIds[i] = weatherId;
+        this.shortDescs[i] = shortDesc;
+        this.minTemps[i] = minTemp;
+        this.maxTemps[i] = maxTemp;
+        this.humidity[i] = humidity;
+        this.pressure[i] = pressure;
+        this.windSpeed[i] = windSpeed;
+        this.degrees[i] = degrees;
+    }
+
+    private void grow(int capacity) {
+        locationIds = Arrays.copyOf(locationIds, capacity);
+        dates = Arrays.copyOf(dates, capacity);
+        weatherIds = Arrays.copyOf(weatherIds, capacity);
+        shortDescs = Arrays.copyOf(shortDescs, capacity);
+        minTemps = Arrays.copyOf(minTemps, capacity);
+        maxTemps = Arrays.copyOf(maxTemps, capacity);
+        humidity = Arrays.copyOf(humidity, capacity);
+        pressure = Arrays.copyOf(pressure, capacity);
+        windSpeed = Arrays.copyOf(windSpeed, capacity);
+        degrees = Arrays.copyOf(degrees, capacity);
+    }
+
+    /**
+     * Stores the batch in the weather table and returns the number of rows written.  With
+     * upsert set, rows that already hold the same values are skipped, just like a bulkInsert
+     * into {@link WeatherEntry#buildWeatherUpsertUri()}.
+     */
+    public int insert(ContentResolver resolver, boolean upsert) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return callProvider(resolver, upsert);
+        }
+        // ContentResolver.call() came with Honeycomb, so older devices go the slow way, and
+        // store the locations on their own first
+        resolveLocations(resolver);
+        return resolver.bulkInsert(
+                upsert ? WeatherEntry.buildWeatherUpsertUri() : WeatherEntry.CONTENT_URI,
+                toContentValues());
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int callProvider(ContentResolver resolver, boolean upsert) {
+        Bundle extras = toBundle();
+        extras.putBoolean(WeatherEntry.PARAM_UPSERT, upsert);
+        Bundle result = resolver.call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_BULK_INSERT_BATCH, null, extras);
+        return result == null ? 0 : result.getInt(WeatherEntry.RESULT_ROW_COUNT);
+    }
+
+    private void resolveLocations(ContentResolver resolver) {
+        long[] batchLocationIds = new long[locationCount];
+        for (int i = 0; i < locationCount; i++) {
+            Cursor locationCursor = resolver.query(LocationEntry.CONTENT_URI,
+                    new String[] {LocationEntry._ID},
+                    LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[] {locationSettings[i]},
+                    null);
+            try {
+                if (locationCursor != null && locationCursor.moveToFirst()) {
+                    batchLocationIds[i] = locationCursor.getLong(0);
+                    if (cityIds[i] > 0) {
+                        ContentValues cityIdValues = new ContentValues();
+                        cityIdValues.put(LocationEntry.COLUMN_CITY_ID, cityIds[i]);
+                        resolver.update(LocationEntry.CONTENT_URI, cityIdValues,
+                                LocationEntry._ID + " = ? AND "
+                                        + LocationEntry.COLUMN_CITY_ID + " IS NOT ?",
+                                new String[] {Long.toString(batchLocationIds[i]),
+                                        Long.toString(cityIds[i])});
+                    }
+                    continue;
+                }
+            } finally {
+                if (locationCursor != null) {
+                    locationCursor.close();
+                }
+            }
+            batchLocationIds[i] = ContentUris.parseId(
+                    resolver.insert(LocationEntry.CONTENT_URI, getLocationValues(i)));
+        }
+        for (int i = 0; i < count; i++) {
+            if (isStandInLocationId(locationIds[i])) {
+                locationIds[i] = batchLocationIds[getLocationIndex(locationIds[i])];
+            }
+        }
+        locationCount = 0;
+    }
+
+    ContentValues getLocationValues(int i) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSettings[i]);
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, cityNames[i]);
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, coordLats[i]);
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, coordLongs[i]);
+        if (cityIds[i] > 0) {
+            locationValues.put(LocationEntry.COLUMN_CITY_ID, cityIds[i]);
+        }
+        return locationValues;
+    }
+
+    /**
+     * Returns the rows as ContentValues, for rows that refer to their location by its _id.
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationIds[i]);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, dates[i]);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, humidity[i]);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, pressure[i]);
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, windSpeed[i]);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, degrees[i]);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemps[i]);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, minTemps[i]);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, shortDescs[i]);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherIds[i]);
+            values[i] = weatherValues;
+        }
+        return values;
+    }
+
+    /*
+        Within our own process the arrays are handed over as they are; only a call from
+        another process would copy them.
+     */
+    Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putInt(KEY_COUNT, count);
+        bundle.putLongArray(KEY_LOCATION_IDS, locationIds);
+        bundle.putLongArray(KEY_DATES, dates);
+        bundle.putIntArray(KEY_WEATHER_IDS, weatherIds);
+        bundle.putStringArray(KEY_SHORT_DESCS, shortDescs);
+        bundle.putDoubleArray(KEY_MIN_TEMPS, minTemps);
+        bundle.putDoubleArray(KEY_MAX_TEMPS, maxTemps);
+        bundle.putDoubleArray(KEY_HUMIDITY, humidity);
+        bundle.putDoubleArray(KEY_PRESSURE, pressure);
+        bundle.putDoubleArray(KEY_WIND_SPEED, windSpeed);
+        bundle.putDoubleArray(KEY_DEGREES, degrees);
+        bundle.putInt(KEY_LOCATION_COUNT, locationCount);
+        bundle.putStringArray(KEY_LOCATION_SETTINGS, locationSettings);
+        bundle.putStringArray(KEY_CITY_NAMES, cityNames);
+        bundle.putDoubleArray(KEY_COORD_LATS, coordLats);
+        bundle.putDoubleArray(KEY_COORD_LONGS, coordLongs);
+        bundle.putLongArray(KEY_CITY_IDS, cityIds);
+        return bundle;
+    }
+
+    static WeatherBatch fromBundle(Bundle bundle) {
+        WeatherBatch batch = new WeatherBatch(0);
+        batch.count = bundle.getInt(KEY_COUNT);
+        batch.locationIds = bundle.getLongArray(KEY_LOCATION_IDS);
+        batch.dates = bundle.getLongArray(KEY_DATES);
+        batch.weatherIds = bundle.getIntArray(KEY_WEATHER_IDS);
+        batch.shortDescs = bundle.getStringArray(KEY_SHORT_DESCS);
+        batch.minTemps = bundle.getDoubleArray(KEY_MIN_TEMPS);
+        batch.maxTemps = bundle.getDoubleArray(KEY_MAX_TEMPS);
+        batch.humidity = bundle.getDoubleArray(KEY_HUMIDITY);
+        batch.pressure = bundle.getDoubleArray(KEY_PRESSURE);
+        batch.windSpeed = bundle.getDoubleArray(KEY_WIND_SPEED);
+        batch.degrees = bundle.getDoubleArray(KEY_DEGREES);
+        if (batch.locationIds == null || batch.dates == null || batch.weatherIds == null
+                || batch.shortDescs == null || batch.minTemps == null || batch.maxTemps == null
+                || batch.humidity == null || batch.pressure == null || batch.windSpeed == null
+                || batch.degrees == null || batch.dates.length < batch.count) {
+            throw new IllegalArgumentException("Incomplete weather batch");
+        }
+
+        batch.locationCount = bundle.getInt(KEY_LOCATION_COUNT);
+        if (batch.locationCount > 0) {
+            batch.locationSettings = bundle.getStringArray(KEY_LOCATION_SETTINGS);
+            batch.cityNames = bundle.getStringArray(KEY_CITY_NAMES);
+            batch.coordLats = bundle.getDoubleArray(KEY_COORD_LATS);
+            batch.coordLongs = bundle.getDoubleArray(KEY_COORD_LONGS);
+            batch.cityIds = bundle.getLongArray(KEY_CITY_IDS);
+            if (batch.locationSettings == null || batch.cityNames == null
+                    || batch.coordLats == null || batch.coordLongs == null
+                    || batch.cityIds == null
+                    || batch.locationSettings.length < batch.locationCount) {
+                throw new IllegalArgumentException("Incomplete locations in weather batch");
+            }
+        }
+        return batch;
+    }
+}
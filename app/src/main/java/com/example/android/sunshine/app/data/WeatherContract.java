@@ -43,12 +43,18 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_SYNC_LOG = "sync_log";
+    public static final String PATH_SYNC_LOG_STATS = "stats";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
+        return normalizeDate(startDate, new Time());
+    }
+
+    // Same as above, but reuses the given Time, for callers that normalize many dates in a row
+    public static long normalizeDate(long startDate, Time time) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
         time.set(startDate);
         int julianDay = Time.getJulianDay(startDate, time.gmtoff);
         return time.setJulianDay(julianDay);
@@ -81,6 +87,10 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // OpenWeatherMap's own id for the city, once a forecast has told us.  Lets several
+        // locations be asked for in one group request.  Null until then.
+        public static final String COLUMN_CITY_ID = "city_id";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -126,6 +136,14 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter that turns a bulkInsert into an upsert: rows that already hold the
+        // same values are left alone, so they keep their _id and nobody is told about them.
+        public static final String PARAM_UPSERT = "upsert";
+
+        // Provider call() that stores a WeatherBatch, and the key of the row count it returns
+        public static final String METHOD_BULK_INSERT_BATCH = "bulkInsertBatch";
+        public static final String RESULT_ROW_COUNT = "rowCount";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -133,6 +151,18 @@ public class WeatherContract {
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
+        /*
+            bulkInsert into this URI only writes the rows that differ from what is stored, and
+            returns the number of rows it inserted or changed.
+         */
+        public static Uri buildWeatherUpsertUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_UPSERT, "1").build();
+        }
+
+        public static boolean isUpsertUri(Uri uri) {
+            return "1".equals(uri.getQueryParameter(PARAM_UPSERT));
+        }
+
         public static Uri buildWeatherLocation(String locationSetting) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
         }
@@ -165,4 +195,51 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the table contents of the sync log, which keeps how long each
+        stage of the last MAX_SYNCS syncs took, one row per stage per sync.
+     */
+    public static final class SyncLogEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_LOG).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_LOG;
+
+        public static final String TABLE_NAME = "sync_log";
+
+        // Older syncs are dropped as new ones are logged
+        public static final int MAX_SYNCS = 100;
+
+        // When the sync started, in milliseconds since the epoch.  Tells the syncs apart.
+        public static final String COLUMN_SYNC_TIME = "sync_time";
+        // Name of the stage, e.g. "connect" or "bulk_insert"
+        public static final String COLUMN_STAGE = "stage";
+        // Time spent in the stage during the sync, in microseconds
+        public static final String COLUMN_DURATION = "duration";
+        // Bytes the stage read, for the stages that read the response, otherwise 0
+        public static final String COLUMN_BYTES = "bytes";
+        // Rows the stage wrote or deleted, for the stages that touch the database, otherwise 0
+        public static final String COLUMN_ROWS = "rows";
+
+        // The stats URI has one row per stage, ordered by the total time spent in it, with
+        // COLUMN_STAGE and these columns.  Durations are in microseconds; bytes and rows are
+        // averaged over the syncs the stage ran in.
+        public static final String COLUMN_SYNC_COUNT = "sync_count";
+        public static final String COLUMN_TOTAL = "total";
+        public static final String COLUMN_P50 = "p50";
+        public static final String COLUMN_P90 = "p90";
+        public static final String COLUMN_P99 = "p99";
+        public static final String COLUMN_MAX = "max";
+
+        /*
+            Querying this URI aggregates the log: how often each stage ran and the percentiles
+            of how long it took.
+         */
+        public static Uri buildSyncLogStatsUri() {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SYNC_LOG_STATS).build();
+        }
+    }
 }
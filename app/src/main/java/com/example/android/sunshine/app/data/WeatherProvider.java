@@ -20,9 +20,22 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.format.Time;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -34,6 +47,8 @@ public class WeatherProvider extends ContentProvider {
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int SYNC_LOG = 400;
+    static final int SYNC_LOG_STATS = 401;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -68,6 +83,75 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //weather.date = ? AND weather.location_id = ?
+    private static final String sWeatherRowSelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    private static final String sWeatherRowCountQuery =
+            "SELECT COUNT(*) FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    " WHERE " + sWeatherRowSelection;
+
+    private static final String sWeatherBatchColumns =
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY;
+
+    // Both statements take the columns in the order above, as ?1 to ?10
+    private static final String sInsertWeatherSql =
+            "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    " (" + sWeatherBatchColumns + ")" +
+                    " VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8, ?9, ?10)";
+
+    private static final String sUpdateChangedWeatherSql =
+            "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME + " SET " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = ?1, " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + " = ?2, " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " = ?3, " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " = ?4, " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " = ?5, " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + " = ?6, " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " = ?7, " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + " = ?8" +
+                    " WHERE " + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?9 AND " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?10 AND (" +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " IS NOT ?1 OR " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + " IS NOT ?2 OR " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " IS NOT ?3 OR " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " IS NOT ?4 OR " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " IS NOT ?5 OR " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + " IS NOT ?6 OR " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " IS NOT ?7 OR " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + " IS NOT ?8)";
+
+    // Keeps the stages of the newest MAX_SYNCS syncs
+    private static final String sTrimSyncLogSql =
+            "DELETE FROM " + WeatherContract.SyncLogEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.SyncLogEntry.COLUMN_SYNC_TIME + " NOT IN (" +
+                    "SELECT DISTINCT " + WeatherContract.SyncLogEntry.COLUMN_SYNC_TIME +
+                    " FROM " + WeatherContract.SyncLogEntry.TABLE_NAME +
+                    " ORDER BY " + WeatherContract.SyncLogEntry.COLUMN_SYNC_TIME + " DESC" +
+                    " LIMIT " + WeatherContract.SyncLogEntry.MAX_SYNCS + ")";
+
+    private static final String[] sSyncLogStatsColumns = new String[] {
+            WeatherContract.SyncLogEntry.COLUMN_STAGE,
+            WeatherContract.SyncLogEntry.COLUMN_SYNC_COUNT,
+            WeatherContract.SyncLogEntry.COLUMN_TOTAL,
+            WeatherContract.SyncLogEntry.COLUMN_P50,
+            WeatherContract.SyncLogEntry.COLUMN_P90,
+            WeatherContract.SyncLogEntry.COLUMN_P99,
+            WeatherContract.SyncLogEntry.COLUMN_MAX,
+            WeatherContract.SyncLogEntry.COLUMN_BYTES,
+            WeatherContract.SyncLogEntry.COLUMN_ROWS
+    };
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -130,6 +214,10 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_LOG, SYNC_LOG);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_LOG + "/" +
+                WeatherContract.PATH_SYNC_LOG_STATS, SYNC_LOG_STATS);
         return matcher;
     }
 
@@ -164,6 +252,9 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_LOG:
+            case SYNC_LOG_STATS:
+                return WeatherContract.SyncLogEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -213,6 +304,24 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "sync_log"
+            case SYNC_LOG: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncLogEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "sync_log/stats"
+            case SYNC_LOG_STATS: {
+                retCursor = getSyncLogStats();
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -271,6 +380,10 @@ public class WeatherProvider extends ContentProvider {
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case SYNC_LOG:
+                rowsDeleted = db.delete(
+                        WeatherContract.SyncLogEntry.TABLE_NAME, selection, selectionArgs);
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -282,10 +395,15 @@ public class WeatherProvider extends ContentProvider {
     }
 
     private void normalizeDate(ContentValues values) {
+        normalizeDate(values, new Time());
+    }
+
+    private void normalizeDate(ContentValues values, Time time) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(dateValue, time));
         }
     }
 
@@ -321,11 +439,15 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                if (WeatherContract.WeatherEntry.isUpsertUri(uri)) {
+                    return upsertWeather(db, values);
+                }
                 db.beginTransaction();
                 int returnCount = 0;
+                Time time = new Time();
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
+                        normalizeDate(value, time);
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             returnCount++;
@@ -337,11 +459,381 @@ public class WeatherProvider extends ContentProvider {
                 }
                 getContext().getContentResolver().notifyChange(uri, null);
                 return returnCount;
+            case SYNC_LOG:
+                return insertSyncLog(db, values);
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /*
+        Logs the stages of a sync, and drops the syncs that no longer fit in the log in the same
+        transaction, so it never holds more than MAX_SYNCS of them.
+
+        Returns the number of rows inserted.
+     */
+    private int insertSyncLog(SQLiteDatabase db, ContentValues[] values) {
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (db.insert(WeatherContract.SyncLogEntry.TABLE_NAME, null, value) != -1) {
+                    returnCount++;
+                }
+            }
+            db.execSQL(sTrimSyncLogSql);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        getContext().getContentResolver().notifyChange(
+                WeatherContract.SyncLogEntry.CONTENT_URI, null);
+        return returnCount;
+    }
+
+    /*
+        Aggregates the sync log by stage.  SQLite has no percentile function, so the durations
+        are read in order, one stage after another, and the percentiles picked out by rank.
+        There are at most a dozen stages for each of MAX_SYNCS syncs, so this stays small.
+     */
+    private Cursor getSyncLogStats() {
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.SyncLogEntry.TABLE_NAME,
+                new String[] {WeatherContract.SyncLogEntry.COLUMN_STAGE,
+                        WeatherContract.SyncLogEntry.COLUMN_DURATION,
+                        WeatherContract.SyncLogEntry.COLUMN_BYTES,
+                        WeatherContract.SyncLogEntry.COLUMN_ROWS},
+                null,
+                null,
+                null,
+                null,
+                WeatherContract.SyncLogEntry.COLUMN_STAGE + ", " +
+                        WeatherContract.SyncLogEntry.COLUMN_DURATION);
+        List<Object[]> rows = new ArrayList<>();
+        try {
+            String stage = null;
+            List<Long> durations = new ArrayList<>();
+            long bytes = 0;
+            long rowCount = 0;
+            while (cursor.moveToNext()) {
+                if (!cursor.getString(0).equals(stage)) {
+                    if (stage != null) {
+                        rows.add(getStageStats(stage, durations, bytes, rowCount));
+                    }
+                    stage = cursor.getString(0);
+                    durations.clear();
+                    bytes = 0;
+                    rowCount = 0;
+                }
+                durations.add(cursor.getLong(1));
+                bytes += cursor.getLong(2);
+                rowCount += cursor.getLong(3);
+            }
+            if (stage != null) {
+                rows.add(getStageStats(stage, durations, bytes, rowCount));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Where the time goes first
+        Collections.sort(rows, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] lhs, Object[] rhs) {
+                long lhsTotal = (Long) lhs[2];
+                long rhsTotal = (Long) rhs[2];
+                return lhsTotal > rhsTotal ? -1 : (lhsTotal == rhsTotal ? 0 : 1);
+            }
+        });
+        MatrixCursor stats = new MatrixCursor(sSyncLogStatsColumns, rows.size());
+        for (Object[] row : rows) {
+            stats.addRow(row);
+        }
+        return stats;
+    }
+
+    // A row of the stats cursor, from the stage's durations in ascending order
+    private static Object[] getStageStats(String stage, List<Long> durations, long bytes,
+                                          long rows) {
+        int count = durations.size();
+        long total = 0;
+        for (long duration : durations) {
+            total += duration;
+        }
+        return new Object[] {stage, count, total,
+                getPercentile(durations, 50), getPercentile(durations, 90),
+                getPercentile(durations, 99), durations.get(count - 1),
+                (double) bytes / count, (double) rows / count};
+    }
+
+    // Nearest rank: the smallest value at least percent percent of the values are no larger than
+    private static long getPercentile(List<Long> sorted, int percent) {
+        int rank = (sorted.size() * percent + 99) / 100;
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    /*
+        Unlike a plain bulkInsert, which lets ON CONFLICT REPLACE delete and re-insert every row,
+        this only writes the rows whose values changed and inserts the ones that are missing.
+        Unchanged rows keep their _id, and only the changed days are notified, so lists and the
+        detail view don't reload for a sync that brought nothing new.
+
+        Returns the number of rows inserted or changed.
+     */
+    private int upsertWeather(SQLiteDatabase db, ContentValues[] values) {
+        // location_id and date of every row we wrote
+        ArrayList<long[]> changedRows = new ArrayList<>();
+        Time time = new Time();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value, time);
+                if (upsertWeatherRow(db, value)) {
+                    Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                    Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                    changedRows.add(new long[] {
+                            locationId == null ? -1 : locationId, date == null ? -1 : date});
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        notifyWeatherRowsChanged(db, changedRows);
+        return changedRows.size();
+    }
+
+    /*
+        Returns true if the row was inserted or any of its values changed.
+     */
+    private boolean upsertWeatherRow(SQLiteDatabase db, ContentValues value) {
+        String date = value.getAsString(WeatherContract.WeatherEntry.COLUMN_DATE);
+        String locationId = value.getAsString(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        if (date == null || locationId == null) {
+            // Without its key we can't find the stored row, so let the constraints decide
+            return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1;
+        }
+
+        // date = ? AND location_id = ? AND (0 OR min IS NOT ? OR max IS NOT ? ...)
+        StringBuilder selection = new StringBuilder(sWeatherRowSelection).append("AND (0");
+        ArrayList<String> selectionArgs = new ArrayList<>();
+        selectionArgs.add(date);
+        selectionArgs.add(locationId);
+        for (Map.Entry<String, Object> entry : value.valueSet()) {
+            String column = entry.getKey();
+            if (WeatherContract.WeatherEntry.COLUMN_DATE.equals(column)
+                    || WeatherContract.WeatherEntry.COLUMN_LOC_KEY.equals(column)) {
+                continue;
+            }
+            selection.append(" OR ").append(column);
+            if (entry.getValue() == null) {
+                selection.append(" IS NOT NULL");
+            } else {
+                // The numeric columns convert the bound text back to a number before comparing
+                selection.append(" IS NOT ?");
+                selectionArgs.add(entry.getValue().toString());
+            }
+        }
+        selection.append(')');
+
+        String[] args = selectionArgs.toArray(new String[selectionArgs.size()]);
+        if (db.update(WeatherContract.WeatherEntry.TABLE_NAME, value, selection.toString(),
+                args) > 0) {
+            return true;
+        }
+
+        // Nothing was updated, so the row either holds these values already or doesn't exist
+        long existing = DatabaseUtils.longForQuery(db, sWeatherRowCountQuery,
+                new String[] {date, locationId});
+        return existing == 0
+                && db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1;
+    }
+
+    private void notifyWeatherRowsChanged(SQLiteDatabase db, ArrayList<long[]> changedRows) {
+        if (changedRows.isEmpty()) {
+            return;
+        }
+        Map<Long, String> locationSettings = new HashMap<>();
+        for (long[] row : changedRows) {
+            long locationId = row[0];
+            if (!locationSettings.containsKey(locationId)) {
+                locationSettings.put(locationId, getLocationSetting(db, locationId));
+            }
+            String locationSetting = locationSettings.get(locationId);
+            if (locationSetting == null) {
+                // Nobody can be watching a day we can't name, but don't leave anyone stale
+                getContext().getContentResolver().notifyChange(
+                        WeatherContract.WeatherEntry.CONTENT_URI, null);
+                return;
+            }
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                            locationSetting, row[1]), null);
+        }
+    }
+
+    // Returns the _id of the location with this setting, or -1 if it isn't stored
+    private static long findLocation(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[] {WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[] {locationSetting},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String getLocationSetting(SQLiteDatabase db, long locationId) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[] {WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[] {Long.toString(locationId)},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.WeatherEntry.METHOD_BULK_INSERT_BATCH.equals(method)) {
+            WeatherBatch batch = WeatherBatch.fromBundle(extras);
+            boolean upsert = extras.getBoolean(WeatherContract.WeatherEntry.PARAM_UPSERT);
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.WeatherEntry.RESULT_ROW_COUNT,
+                    insertWeatherBatch(batch, upsert));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /*
+        The fast path behind bulkInsert: the statements are compiled once for the whole batch and
+        every value is bound straight from its column array, so nothing is boxed or looked up by
+        name per row.  With upsert set, this behaves like upsertWeather().
+
+        Returns the number of rows inserted, or with upsert set, inserted or changed.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int insertWeatherBatch(WeatherBatch batch, boolean upsert) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ArrayList<long[]> changedRows = upsert ? new ArrayList<long[]>() : null;
+        int returnCount = 0;
+        Time time = new Time();
+
+        SQLiteStatement insert = null;
+        SQLiteStatement update = null;
+        SQLiteStatement exists = null;
+        db.beginTransaction();
+        boolean locationsChanged = false;
+        try {
+            long[] batchLocationIds = new long[batch.locationCount];
+            for (int i = 0; i < batch.locationCount; i++) {
+                batchLocationIds[i] = findLocation(db, batch.locationSettings[i]);
+                if (batchLocationIds[i] == -1) {
+                    batchLocationIds[i] = db.insertOrThrow(WeatherContract.LocationEntry.TABLE_NAME,
+                            null, batch.getLocationValues(i));
+                    locationsChanged = true;
+                } else if (batch.cityIds[i] > 0) {
+                    // Remember the city id, so that the next sync can ask for it in a group
+                    ContentValues cityIdValues = new ContentValues();
+                    cityIdValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID,
+                            batch.cityIds[i]);
+                    locationsChanged |= db.update(WeatherContract.LocationEntry.TABLE_NAME,
+                            cityIdValues,
+                            WeatherContract.LocationEntry._ID + " = ? AND " +
+                                    WeatherContract.LocationEntry.COLUMN_CITY_ID + " IS NOT ?",
+                            new String[] {Long.toString(batchLocationIds[i]),
+                                    Long.toString(batch.cityIds[i])}) > 0;
+                }
+            }
+
+            insert = db.compileStatement(sInsertWeatherSql);
+            if (upsert) {
+                update = db.compileStatement(sUpdateChangedWeatherSql);
+                exists = db.compileStatement(sWeatherRowCountQuery);
+            }
+            for (int i = 0; i < batch.count; i++) {
+                long date = WeatherContract.normalizeDate(batch.dates[i], time);
+                long locationId = batch.locationIds[i];
+                if (WeatherBatch.isStandInLocationId(locationId)) {
+                    locationId = batchLocationIds[WeatherBatch.getLocationIndex(locationId)];
+                }
+
+                if (upsert) {
+                    bindWeatherRow(update, batch, i, date, locationId);
+                    boolean changed = update.executeUpdateDelete() > 0;
+                    if (!changed) {
+                        // Nothing was updated, so the row either holds these values already or
+                        // doesn't exist
+                        exists.bindLong(1, date);
+                        exists.bindLong(2, locationId);
+                        if (exists.simpleQueryForLong() == 0) {
+                            bindWeatherRow(insert, batch, i, date, locationId);
+                            changed = insert.executeInsert() != -1;
+                        }
+                    }
+                    if (changed) {
+                        changedRows.add(new long[] {locationId, date});
+                        returnCount++;
+                    }
+                } else {
+                    bindWeatherRow(insert, batch, i, date, locationId);
+                    if (insert.executeInsert() != -1) {
+                        returnCount++;
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (insert != null) {
+                insert.close();
+            }
+            if (update != null) {
+                update.close();
+            }
+            if (exists != null) {
+                exists.close();
+            }
+            db.endTransaction();
+        }
+
+        if (locationsChanged) {
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.LocationEntry.CONTENT_URI, null);
+        }
+        if (upsert) {
+            notifyWeatherRowsChanged(db, changedRows);
+        } else if (returnCount > 0) {
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.WeatherEntry.CONTENT_URI, null);
+        }
+        return returnCount;
+    }
+
+    private static void bindWeatherRow(SQLiteStatement statement, WeatherBatch batch, int i,
+                                       long normalizedDate, long locationId) {
+        statement.bindLong(1, batch.weatherIds[i]);
+        if (batch.shortDescs[i] == null) {
+            statement.bindNull(2);
+        } else {
+            statement.bindString(2, batch.shortDescs[i]);
+        }
+        statement.bindDouble(3, batch.minTemps[i]);
+        statement.bindDouble(4, batch.maxTemps[i]);
+        statement.bindDouble(5, batch.humidity[i]);
+        statement.bindDouble(6, batch.pressure[i]);
+        statement.bindDouble(7, batch.windSpeed[i]);
+        statement.bindDouble(8, batch.degrees[i]);
+        statement.bindLong(9, normalizedDate);
+        statement.bindLong(10, locationId);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
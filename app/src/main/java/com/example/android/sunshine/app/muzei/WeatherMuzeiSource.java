@@ -20,7 +20,9 @@ import android.database.Cursor;
 import android.net.Uri;
 
 import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.SunshinePrefs;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
@@ -38,6 +40,9 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     private static final int INDEX_WEATHER_ID = 0;
     private static final int INDEX_SHORT_DESC = 1;
 
+    // The sync whose update is being handled, 0 for any other update
+    private long mSyncId;
+
     public WeatherMuzeiSource() {
         super("WeatherMuzeiSource");
     }
@@ -48,17 +53,28 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
         boolean dataUpdated = intent != null &&
                 SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction());
         if (dataUpdated && isEnabled()) {
-            onUpdate(UPDATE_REASON_OTHER);
+            mSyncId = intent.getLongExtra(SunshineSyncAdapter.EXTRA_SYNC_ID, 0);
+            try {
+                onUpdate(UPDATE_REASON_OTHER);
+            } finally {
+                mSyncId = 0;
+            }
         }
     }
 
     @Override
     protected void onUpdate(int reason) {
-        String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        String location = SunshinePrefs.get(this).preferredLocation;
+        ForecastSnapshot snapshot = ForecastSnapshot.get(mSyncId, location);
+        Cursor cursor;
+        if (snapshot != null) {
+            cursor = snapshot.newCursor(FORECAST_COLUMNS, System.currentTimeMillis());
+        } else {
+            Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                    .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
+            cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
+                    null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        }
         if (cursor.moveToFirst()) {
             int weatherId = cursor.getInt(INDEX_WEATHER_ID);
             String desc = cursor.getString(INDEX_SHORT_DESC);
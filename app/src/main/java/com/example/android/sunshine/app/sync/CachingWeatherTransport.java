@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.net.http.HttpResponseCache;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Makes requests the way a client that syncs all day should: it asks for gzip and unpacks it
+ * itself, leaves connections open for the next request rather than disconnecting them, gives
+ * up on a server that doesn't answer in time, and goes through a bounded response cache on disk
+ * that does what the server's Cache-Control says, so a forecast still fresh is never fetched
+ * twice.
+ *
+ * The cache is the platform's HttpResponseCache, which is there from Ice Cream Sandwich; before
+ * that requests just aren't cached.  It's installed for the whole process, but the
+ * {@link PlainWeatherTransport} turns caching off for its own requests.
+ */
+final class CachingWeatherTransport implements WeatherTransport {
+    private static final String LOG_TAG = CachingWeatherTransport.class.getSimpleName();
+
+    static final String CACHE_DIRECTORY = "weather_http";
+    static final long CACHE_SIZE_BYTES = 1024 * 1024;
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(15);
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(20);
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+
+    private static CachingWeatherTransport sInstance;
+
+    static synchronized CachingWeatherTransport getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CachingWeatherTransport(
+                    new File(context.getCacheDir(), CACHE_DIRECTORY), CACHE_SIZE_BYTES,
+                    DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+        }
+        return sInstance;
+    }
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    CachingWeatherTransport(File cacheDirectory, long cacheSizeBytes, int connectTimeoutMillis,
+                            int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            installCache(cacheDirectory, cacheSizeBytes);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static void installCache(File directory, long sizeBytes) {
+        if (HttpResponseCache.getInstalled() != null) {
+            return;
+        }
+        try {
+            HttpResponseCache.install(directory, sizeBytes);
+        } catch (IOException e) {
+            // Requests still work, they just aren't cached
+            Log.w(LOG_TAG, "Couldn't install the response cache in " + directory, e);
+        }
+    }
+
+    @Override
+    public HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+        urlConnection.setReadTimeout(mReadTimeoutMillis);
+        urlConnection.setUseCaches(true);
+        // Asked for explicitly, so every Android release asks for it, and unpacked in getBody()
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        return urlConnection;
+    }
+
+    @Override
+    public InputStream getBody(HttpURLConnection connection) throws IOException {
+        InputStream body = connection.getInputStream();
+        if (ENCODING_GZIP.equalsIgnoreCase(connection.getContentEncoding())) {
+            return new GZIPInputStream(body);
+        }
+        return body;
+    }
+
+    @Override
+    public void release(HttpURLConnection connection) {
+        // Not disconnected: once its body has been read and closed, the connection goes back
+        // in the pool for the next request to the same server
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Build;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Downloads and parses a forecast, skipping the work when the server says (or the body shows)
+ * that nothing changed since the forecast described by the given {@link SyncValidators}.
+ * Requests go through a {@link WeatherTransport}; without one they're made the plain way.
+ * Given a {@link SyncTrace}, the fetch times its connect, first byte, download and parse in it.
+ */
+class ForecastFetcher {
+
+    /** The response carried a forecast that we haven't stored yet. */
+    static final int STATUS_NEW_DATA = 0;
+    /** The server answered 304 Not Modified. */
+    static final int STATUS_NOT_MODIFIED = 1;
+    /** The server sent the whole body again, but it is byte for byte what we stored. */
+    static final int STATUS_UNCHANGED = 2;
+
+    static class Result {
+        final int status;
+        /** Only set for {@link #STATUS_NEW_DATA}. */
+        final ForecastJsonParser.ParsedForecast forecast;
+        /** Save these once the forecast is stored. */
+        final SyncValidators validators;
+
+        Result(int status, ForecastJsonParser.ParsedForecast forecast,
+               SyncValidators validators) {
+            this.status = status;
+            this.forecast = forecast;
+            this.validators = validators;
+        }
+    }
+
+    private ForecastFetcher() {
+    }
+
+    static Result fetch(URL url, SyncValidators previous) throws IOException, JSONException {
+        return fetch(new PlainWeatherTransport(), url, previous);
+    }
+
+    static Result fetch(WeatherTransport transport, URL url, SyncValidators previous)
+            throws IOException, JSONException {
+        return fetch(transport, url, previous, new SyncTrace());
+    }
+
+    static Result fetch(WeatherTransport transport, URL url, SyncValidators previous,
+                        SyncTrace trace) throws IOException, JSONException {
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
+        try {
+            long start = System.nanoTime();
+            urlConnection = transport.open(url);
+            previous.addRequestHeaders(urlConnection);
+            urlConnection.connect();
+            start = trace.end(SyncTrace.STAGE_CONNECT, start);
+
+            int responseCode = urlConnection.getResponseCode();
+            start = trace.end(SyncTrace.STAGE_FIRST_BYTE, start);
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return new Result(STATUS_NOT_MODIFIED, null, previous);
+            }
+
+            inputStream = transport.getBody(urlConnection);
+            if (inputStream == null) {
+                throw new IOException("No response body from " + url);
+            }
+            TimedInputStream timedStream = new TimedInputStream(inputStream);
+            HashingInputStream hashingStream = new HashingInputStream(timedStream);
+            ForecastJsonParser.ParsedForecast forecast = parse(hashingStream);
+            String bodyHash = hashingStream.finish();
+            timedStream.endTrace(trace, start);
+
+            if (forecast.messageCode == HttpURLConnection.HTTP_OK
+                    && previous.isSameBody(bodyHash)) {
+                return new Result(STATUS_UNCHANGED, null,
+                        previous.fromResponse(urlConnection, bodyHash));
+            }
+            return new Result(STATUS_NEW_DATA, forecast,
+                    previous.fromResponse(urlConnection, bodyHash));
+        } finally {
+            release(transport, urlConnection, inputStream);
+        }
+    }
+
+    private static ForecastJsonParser.ParsedForecast parse(InputStream inputStream)
+            throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // Pull the fields we need straight off the wire instead of buffering the whole
+            // response and building a JSONObject tree out of it.  An empty stream surfaces
+            // as an IOException, just like a failed read.
+            return ForecastJsonParser.parse(inputStream);
+        }
+
+        return ForecastJsonParser.parse(readString(inputStream));
+    }
+
+    /**
+     * Downloads and parses a group response, which holds the forecasts of several cities.
+     * Group requests aren't made conditional: which cities make up a group changes from one
+     * sync to the next, and storing with an upsert already skips the rows that didn't change.
+     */
+    static List<ForecastJsonParser.ParsedForecast> fetchGroup(URL url)
+            throws IOException, JSONException {
+        return fetchGroup(new PlainWeatherTransport(), url);
+    }
+
+    static List<ForecastJsonParser.ParsedForecast> fetchGroup(WeatherTransport transport,
+                                                              URL url)
+            throws IOException, JSONException {
+        return fetchGroup(transport, url, new SyncTrace());
+    }
+
+    static List<ForecastJsonParser.ParsedForecast> fetchGroup(WeatherTransport transport,
+                                                              URL url, SyncTrace trace)
+            throws IOException, JSONException {
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
+        try {
+            long start = System.nanoTime();
+            urlConnection = transport.open(url);
+            urlConnection.connect();
+            start = trace.end(SyncTrace.STAGE_CONNECT, start);
+
+            urlConnection.getResponseCode();
+            start = trace.end(SyncTrace.STAGE_FIRST_BYTE, start);
+
+            inputStream = transport.getBody(urlConnection);
+            if (inputStream == null) {
+                throw new IOException("No response body from " + url);
+            }
+            TimedInputStream timedStream = new TimedInputStream(inputStream);
+            List<ForecastJsonParser.ParsedForecast> forecasts;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                forecasts = ForecastJsonParser.parseGroup(timedStream);
+            } else {
+                forecasts = ForecastJsonParser.parseGroup(readString(timedStream));
+            }
+            timedStream.endTrace(trace, start);
+            return forecasts;
+        } finally {
+            release(transport, urlConnection, inputStream);
+        }
+    }
+
+    /*
+        Closes the body, which a transport that keeps connections needs before it can reuse
+        one, then hands the connection back.  Closing a body that was already closed is fine.
+     */
+    private static void release(WeatherTransport transport, HttpURLConnection urlConnection,
+                                InputStream inputStream) {
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                // It's going either way
+            }
+        }
+        if (urlConnection != null) {
+            transport.release(urlConnection);
+        }
+    }
+
+    private static String readString(InputStream inputStream) throws IOException {
+        // Read the input stream into a String
+        StringBuilder buffer = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+            // But it does make debugging a *lot* easier if you print out the completed
+            // buffer for debugging.
+            buffer.append(line).append('\n');
+        }
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            throw new IOException("Empty response");
+        }
+        return buffer.toString();
+    }
+
+    static String toHex(byte[] bytes) {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Keeps track of how long reads of the body block and how much they return.  The body is
+     * parsed as it comes in, so this is what tells the download apart from the parse.
+     */
+    private static class TimedInputStream extends FilterInputStream {
+        private long mReadNanos;
+        private long mBytes;
+
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mReadNanos += System.nanoTime() - start;
+            if (b != -1) {
+                mBytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, count);
+            mReadNanos += System.nanoTime() - start;
+            if (read > 0) {
+                mBytes += read;
+            }
+            return read;
+        }
+
+        /**
+         * Splits the time since startNanos, which was spent reading and parsing the body,
+         * between the download and the parse.  Bytes are counted after decoding.
+         */
+        void endTrace(SyncTrace trace, long startNanos) {
+            long total = System.nanoTime() - startNanos;
+            trace.add(SyncTrace.STAGE_DOWNLOAD, mReadNanos);
+            trace.addBytes(SyncTrace.STAGE_DOWNLOAD, mBytes);
+            trace.add(SyncTrace.STAGE_PARSE, Math.max(0, total - mReadNanos));
+        }
+    }
+
+    /**
+     * Hashes the response body as it is read.  The parsers close their readers when they are
+     * done, so closing is deferred until {@link #finish()} has hashed whatever the parser left
+     * unread after the closing brace; that way the same body always produces the same hash.
+     * If parsing fails, the stream is released along with the connection.
+     */
+    private static class HashingInputStream extends DigestInputStream {
+
+        HashingInputStream(InputStream in) {
+            super(in, newDigest());
+        }
+
+        private static MessageDigest newDigest() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                // Every Android release ships SHA-1
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            // Deferred, see finish()
+        }
+
+        /**
+         * Reads the rest of the body, closes the stream and returns the hash of the body.
+         */
+        String finish() throws IOException {
+            try {
+                byte[] skipBuffer = new byte[1024];
+                while (read(skipBuffer, 0, skipBuffer.length) != -1) {
+                    // keep reading so the rest of the body is hashed
+                }
+            } finally {
+                super.close();
+            }
+            return toHex(getMessageDigest().digest());
+        }
+    }
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pulls the fields Sunshine stores out of an OpenWeatherMap daily forecast response.
+ *
+ * There are two ways in: {@link #parse(InputStream)} pulls tokens straight off the network
+ * stream and never holds more than the current value in memory, while {@link #parse(String)}
+ * builds the full {@link JSONObject} tree first.  The streaming reader is only available on
+ * Honeycomb and up, so the tree parser stays around for older devices.
+ *
+ * A group response, which answers for several cities at once, is an object whose "list" holds
+ * one daily forecast object per city; {@link #parseGroup(InputStream)} and
+ * {@link #parseGroup(String)} read those.
+ */
+class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_ID = "id";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used to check that every field we store was present for a given day
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WINDSPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_DESCRIPTION = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int ALL_DAY_FIELDS = (1 << 8) - 1;
+
+    private static final int FIELD_CITY_NAME = 1;
+    private static final int FIELD_LATITUDE = 1 << 1;
+    private static final int FIELD_LONGITUDE = 1 << 2;
+    private static final int ALL_CITY_FIELDS = (1 << 3) - 1;
+
+    /**
+     * The parsed forecast, kept as parallel primitive arrays so that no per-day objects are
+     * allocated while reading.  Only the first {@link #count} entries of each array are valid.
+     */
+    static class ParsedForecast {
+        int messageCode = HttpURLConnection.HTTP_OK;
+
+        boolean hasCity;
+        // OWM's id for the city, or 0 if the response didn't include one
+        long cityId;
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+
+        boolean hasList;
+        int count;
+        int[] weatherIds = new int[16];
+        String[] descriptions = new String[16];
+        double[] high = new double[16];
+        double[] low = new double[16];
+        double[] pressure = new double[16];
+        int[] humidity = new int[16];
+        double[] windSpeed = new double[16];
+        double[] windDirection = new double[16];
+
+        /**
+         * Makes room for one more day and returns its index.
+         */
+        int addDay() {
+            if (count == weatherIds.length) {
+                int capacity = count * 2;
+                weatherIds = Arrays.copyOf(weatherIds, capacity);
+                descriptions = Arrays.copyOf(descriptions, capacity);
+                high = Arrays.copyOf(high, capacity);
+                low = Arrays.copyOf(low, capacity);
+                pressure = Arrays.copyOf(pressure, capacity);
+                humidity = Arrays.copyOf(humidity, capacity);
+                windSpeed = Arrays.copyOf(windSpeed, capacity);
+                windDirection = Arrays.copyOf(windDirection, capacity);
+            }
+            return count++;
+        }
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Reads a forecast directly from the response stream.  The stream is closed when done.
+     *
+     * @throws IOException if the stream could not be read, including an empty response
+     * @throws JSONException if the response was readable but not a forecast we understand
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static ParsedForecast parse(InputStream in) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readForecast(reader);
+        } catch (MalformedJsonException e) {
+            // A syntax error is bad data, not a network failure
+            throw new JSONException(e.getMessage());
+        } catch (IllegalStateException | NumberFormatException e) {
+            // Thrown when a value has an unexpected type, e.g. an object where we want a number
+            throw new JSONException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads a group response directly from the response stream, returning one forecast per
+     * city in the order the server sent them.  The stream is closed when done.
+     *
+     * @throws IOException if the stream could not be read, or the server answered with an
+     *                     error code for the whole group
+     * @throws JSONException if the response was readable but not a group we understand
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static List<ParsedForecast> parseGroup(InputStream in) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            int messageCode = HttpURLConnection.HTTP_OK;
+            List<ParsedForecast> forecasts = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    messageCode = reader.nextInt();
+                } else if (OWM_LIST.equals(name)) {
+                    forecasts = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        forecasts.add(readForecast(reader));
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return checkGroupComplete(messageCode, forecasts);
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ParsedForecast readForecast(JsonReader reader)
+            throws IOException, JSONException {
+        ParsedForecast forecast = new ParsedForecast();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                forecast.messageCode = reader.nextInt();
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, forecast);
+            } else if (OWM_LIST.equals(name)) {
+                readList(reader, forecast);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        checkComplete(forecast);
+        return forecast;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, ParsedForecast forecast)
+            throws IOException, JSONException {
+        int seen = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+                seen |= FIELD_CITY_NAME;
+            } else if (OWM_CITY_ID.equals(name)) {
+                forecast.cityId = reader.nextLong();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        forecast.cityLatitude = reader.nextDouble();
+                        seen |= FIELD_LATITUDE;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        forecast.cityLongitude = reader.nextDouble();
+                        seen |= FIELD_LONGITUDE;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (seen != ALL_CITY_FIELDS) {
+            throw new JSONException("Incomplete " + OWM_CITY + " object");
+        }
+        forecast.hasCity = true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readList(JsonReader reader, ParsedForecast forecast)
+            throws IOException, JSONException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readDay(reader, forecast, forecast.addDay());
+        }
+        reader.endArray();
+        forecast.hasList = true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDay(JsonReader reader, ParsedForecast forecast, int day)
+            throws IOException, JSONException {
+        int seen = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                forecast.pressure[day] = reader.nextDouble();
+                seen |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                forecast.humidity[day] = (int) reader.nextDouble();
+                seen |= FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                forecast.windSpeed[day] = reader.nextDouble();
+                seen |= FIELD_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                forecast.windDirection[day] = reader.nextDouble();
+                seen |= FIELD_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        forecast.high[day] = reader.nextDouble();
+                        seen |= FIELD_MAX;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        forecast.low[day] = reader.nextDouble();
+                        seen |= FIELD_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            forecast.descriptions[day] = reader.nextString();
+                            seen |= FIELD_DESCRIPTION;
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            forecast.weatherIds[day] = reader.nextInt();
+                            seen |= FIELD_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (seen != ALL_DAY_FIELDS) {
+            throw new JSONException("Incomplete forecast for day " + day);
+        }
+    }
+
+    /**
+     * Parses a forecast that has already been read into a String, by way of a full
+     * {@link JSONObject} tree.
+     */
+    static ParsedForecast parse(String forecastJsonStr) throws JSONException {
+        return parseForecast(new JSONObject(forecastJsonStr));
+    }
+
+    /**
+     * Parses a group response that has already been read into a String.
+     *
+     * @throws IOException if the server answered with an error code for the whole group
+     */
+    static List<ParsedForecast> parseGroup(String groupJsonStr)
+            throws IOException, JSONException {
+        JSONObject groupJson = new JSONObject(groupJsonStr);
+        int messageCode = groupJson.optInt(OWM_MESSAGE_CODE, HttpURLConnection.HTTP_OK);
+        List<ParsedForecast> forecasts = null;
+        JSONArray forecastArray = groupJson.optJSONArray(OWM_LIST);
+        if (forecastArray != null) {
+            forecasts = new ArrayList<>(forecastArray.length());
+            for (int i = 0; i < forecastArray.length(); i++) {
+                forecasts.add(parseForecast(forecastArray.getJSONObject(i)));
+            }
+        }
+        return checkGroupComplete(messageCode, forecasts);
+    }
+
+    private static ParsedForecast parseForecast(JSONObject forecastJson) throws JSONException {
+        ParsedForecast forecast = new ParsedForecast();
+
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            forecast.messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (forecast.messageCode != HttpURLConnection.HTTP_OK) {
+                return forecast;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        forecast.cityId = cityJson.optLong(OWM_CITY_ID);
+        forecast.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        forecast.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        forecast.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+        forecast.hasCity = true;
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            int day = forecast.addDay();
+
+            forecast.pressure[day] = dayForecast.getDouble(OWM_PRESSURE);
+            forecast.humidity[day] = dayForecast.getInt(OWM_HUMIDITY);
+            forecast.windSpeed[day] = dayForecast.getDouble(OWM_WINDSPEED);
+            forecast.windDirection[day] = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            forecast.descriptions[day] = weatherObject.getString(OWM_DESCRIPTION);
+            forecast.weatherIds[day] = weatherObject.getInt(OWM_WEATHER_ID);
+
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            forecast.high[day] = temperatureObject.getDouble(OWM_MAX);
+            forecast.low[day] = temperatureObject.getDouble(OWM_MIN);
+        }
+        forecast.hasList = true;
+        return forecast;
+    }
+
+    private static void checkComplete(ParsedForecast forecast) throws JSONException {
+        // An error response only carries the code (and a message we don't use)
+        if (forecast.messageCode != HttpURLConnection.HTTP_OK) {
+            return;
+        }
+        if (!forecast.hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        if (!forecast.hasCity) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+    }
+
+    private static List<ParsedForecast> checkGroupComplete(int messageCode,
+                                                           List<ParsedForecast> forecasts)
+            throws IOException, JSONException {
+        if (messageCode != HttpURLConnection.HTTP_OK) {
+            // Unlike a single forecast, there's no one location to blame for this
+            throw new IOException("Group request failed with code " + messageCode);
+        }
+        if (forecasts == null) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        return forecasts;
+    }
+}
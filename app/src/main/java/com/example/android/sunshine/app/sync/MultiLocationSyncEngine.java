@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Refreshes the forecasts of many locations in one pass.  The fetches run concurrently on a
+ * bounded pool, with a separate limit on how many go to the same host at once, and everything
+ * they bring back is stored in a single transaction once they are all done.
+ *
+ * If the forecast service can answer for several cities in one request, locations whose city
+ * id we already know are fetched in groups first, see {@link #setGroupRequests}.  Anything a
+ * group request doesn't cover is then fetched on its own.
+ */
+class MultiLocationSyncEngine {
+    private static final String LOG_TAG = MultiLocationSyncEngine.class.getSimpleName();
+
+    static final int DEFAULT_MAX_CONCURRENT_FETCHES = 4;
+    // Every location is fetched from the same server, so this is what really limits us
+    static final int DEFAULT_MAX_FETCHES_PER_HOST = 2;
+
+    static class Request {
+        final String locationSetting;
+        final Uri uri;
+
+        Request(String locationSetting, Uri uri) {
+            this.locationSetting = locationSetting;
+            this.uri = uri;
+        }
+    }
+
+    static class Result {
+        /** Rows inserted or changed, over all locations. */
+        int rowsChanged;
+        int stored;
+        int unchanged;
+        int failed;
+        /** Locations given up on because the sync was cancelled; these have no status. */
+        int cancelled;
+        final Map<String, Integer> locationStatus = new HashMap<>();
+        /** The snapshot location's forecast as stored, if it was; see setSnapshotLocation. */
+        ForecastSnapshot snapshot;
+
+        @SunshineSyncAdapter.LocationStatus
+        @SuppressWarnings("ResourceType")
+        int getLocationStatus(String locationSetting) {
+            Integer status = locationStatus.get(locationSetting);
+            return status == null ? SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN : status;
+        }
+    }
+
+    interface GroupUriFactory {
+        /** Returns the request for the daily forecasts of all of these cities at once. */
+        Uri buildGroupUri(List<Long> cityIds);
+    }
+
+    /** What came back for one location: a fetch result, or the reason there is none. */
+    private static class Outcome {
+        final Request request;
+        final ForecastFetcher.Result result;
+        final Exception error;
+
+        Outcome(Request request, ForecastFetcher.Result result, Exception error) {
+            this.request = request;
+            this.result = result;
+            this.error = error;
+        }
+    }
+
+    private final Context mContext;
+    private final int mMaxConcurrentFetches;
+    private final int mMaxFetchesPerHost;
+    private final Map<String, Semaphore> mHostPermits = new HashMap<>();
+    private GroupUriFactory mGroupUriFactory;
+    private int mMaxCitiesPerGroup;
+    private WeatherTransport mTransport = new PlainWeatherTransport();
+    private SyncTrace mTrace = new SyncTrace();
+    private String mSnapshotLocation;
+
+    MultiLocationSyncEngine(Context context, int maxConcurrentFetches, int maxFetchesPerHost) {
+        mContext = context.getApplicationContext();
+        mMaxConcurrentFetches = Math.max(1, maxConcurrentFetches);
+        mMaxFetchesPerHost = Math.max(1, maxFetchesPerHost);
+    }
+
+    /** Sets what the forecasts are fetched through, a {@link PlainWeatherTransport} if unset. */
+    void setTransport(WeatherTransport transport) {
+        mTransport = transport;
+    }
+
+    /** Sets the trace the fetches and the store are timed in. */
+    void setTrace(SyncTrace trace) {
+        mTrace = trace;
+    }
+
+    /**
+     * Has the sync take a {@link ForecastSnapshot} of the location's forecast, known by the
+     * trace's sync time, if it stores one.
+     */
+    void setSnapshotLocation(String locationSetting) {
+        mSnapshotLocation = locationSetting;
+    }
+
+    /**
+     * Turns on group requests, with at most maxCitiesPerGroup cities in each.
+     */
+    void setGroupRequests(GroupUriFactory groupUriFactory, int maxCitiesPerGroup) {
+        mGroupUriFactory = groupUriFactory;
+        mMaxCitiesPerGroup = Math.max(1, maxCitiesPerGroup);
+    }
+
+    /**
+     * Fetches every request and stores the forecasts that changed.  Blocks until done, so call
+     * it from the sync thread.
+     */
+    Result sync(List<Request> requests, int julianToday) {
+        Result result = new Result();
+        if (requests.isEmpty()) {
+            return result;
+        }
+
+        List<Outcome> outcomes = new ArrayList<>(requests.size());
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(mMaxConcurrentFetches, requests.size()));
+        try {
+            List<Request> remaining = requests;
+            if (mGroupUriFactory != null) {
+                remaining = fetchGroups(executor, requests, outcomes);
+            }
+            outcomes.addAll(fetchAll(executor, remaining, julianToday));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Put everything that changed into one batch, so it's stored in one transaction
+        long start = System.nanoTime();
+        WeatherBatch batch = new WeatherBatch(requests.size() * 14);
+        List<SyncValidators> validatorsToSave = new ArrayList<>();
+        for (Outcome outcome : outcomes) {
+            String locationSetting = outcome.request.locationSetting;
+            if (outcome.error instanceof InterruptedException) {
+                // Neither the server's fault nor the location's
+                result.cancelled++;
+                continue;
+            }
+            if (outcome.error != null) {
+                Log.e(LOG_TAG, "Error syncing " + locationSetting, outcome.error);
+                result.failed++;
+                result.locationStatus.put(locationSetting,
+                        outcome.error instanceof JSONException
+                                ? SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID
+                                : SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+                continue;
+            }
+
+            if (outcome.result.status != ForecastFetcher.STATUS_NEW_DATA) {
+                result.unchanged++;
+                result.locationStatus.put(locationSetting, SunshineSyncAdapter.LOCATION_STATUS_OK);
+                validatorsToSave.add(outcome.result.validators);
+                continue;
+            }
+
+            ForecastJsonParser.ParsedForecast forecast = outcome.result.forecast;
+            int status = SunshineSyncAdapter.getLocationStatusForMessageCode(forecast.messageCode);
+            result.locationStatus.put(locationSetting, status);
+            if (status != SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                result.failed++;
+                continue;
+            }
+            long locationId = batch.addLocation(locationSetting, forecast.cityName,
+                    forecast.cityLatitude, forecast.cityLongitude, forecast.cityId);
+            SunshineSyncAdapter.addForecastToBatch(batch, forecast, locationId, julianToday);
+            // Forecasts from a group request have no validators of their own
+            if (outcome.result.validators != null) {
+                validatorsToSave.add(outcome.result.validators);
+            }
+            result.stored++;
+        }
+
+        start = mTrace.end(SyncTrace.STAGE_ADD_LOCATION, start);
+
+        if (batch.size() > 0) {
+            // Taken before the batch is stored, which may change it
+            ForecastSnapshot snapshot = mSnapshotLocation == null ? null
+                    : ForecastSnapshot.fromBatch(mTrace.getSyncTimeMillis(), batch,
+                    mSnapshotLocation);
+            result.rowsChanged = batch.insert(mContext.getContentResolver(), true);
+            result.snapshot = snapshot;
+            mTrace.end(SyncTrace.STAGE_BULK_INSERT, start);
+            mTrace.addRows(SyncTrace.STAGE_BULK_INSERT, result.rowsChanged);
+        }
+        // Only now that the forecasts are stored may the next sync skip them
+        for (SyncValidators validators : validatorsToSave) {
+            validators.save(mContext);
+        }
+        return result;
+    }
+
+    /**
+     * Fetches the locations whose city id we know in groups, and adds an outcome for every
+     * location a group answered for.  Returns the locations that still need a request of their
+     * own: those we don't know the city id of, and those whose group request failed.
+     */
+    private List<Request> fetchGroups(ExecutorService executor, List<Request> requests,
+                                      List<Outcome> outcomes) {
+        Map<String, Long> cityIds = loadCityIds();
+        List<Request> remaining = new ArrayList<>();
+        List<List<Request>> groups = new ArrayList<>();
+        List<Request> group = null;
+        for (Request request : requests) {
+            if (!cityIds.containsKey(request.locationSetting)) {
+                remaining.add(request);
+                continue;
+            }
+            if (group == null || group.size() == mMaxCitiesPerGroup) {
+                group = new ArrayList<>();
+                groups.add(group);
+            }
+            group.add(request);
+        }
+
+        List<Future<List<ForecastJsonParser.ParsedForecast>>> futures = new ArrayList<>();
+        for (List<Request> requestGroup : groups) {
+            List<Long> groupCityIds = new ArrayList<>(requestGroup.size());
+            for (Request request : requestGroup) {
+                groupCityIds.add(cityIds.get(request.locationSetting));
+            }
+            final Uri groupUri = mGroupUriFactory.buildGroupUri(groupCityIds);
+            futures.add(executor.submit(new Callable<List<ForecastJsonParser.ParsedForecast>>() {
+                @Override
+                public List<ForecastJsonParser.ParsedForecast> call() throws Exception {
+                    return fetchGroup(groupUri);
+                }
+            }));
+        }
+
+        for (int i = 0; i < groups.size(); i++) {
+            Map<Long, ForecastJsonParser.ParsedForecast> forecastsByCity = new HashMap<>();
+            try {
+                for (ForecastJsonParser.ParsedForecast forecast : futures.get(i).get()) {
+                    forecastsByCity.put(forecast.cityId, forecast);
+                }
+            } catch (ExecutionException e) {
+                Log.w(LOG_TAG, "Group request failed, fetching its locations one by one",
+                        e.getCause());
+            } catch (InterruptedException e) {
+                // The sync was cancelled, the individual fetches will notice too
+                Thread.currentThread().interrupt();
+            }
+            for (Request request : groups.get(i)) {
+                ForecastJsonParser.ParsedForecast forecast =
+                        forecastsByCity.get(cityIds.get(request.locationSetting));
+                if (forecast == null) {
+                    remaining.add(request);
+                } else {
+                    outcomes.add(new Outcome(request, new ForecastFetcher.Result(
+                            ForecastFetcher.STATUS_NEW_DATA, forecast, null), null));
+                }
+            }
+        }
+        return remaining;
+    }
+
+    // Returns the city id of every stored location we know one for, by location setting
+    private Map<String, Long> loadCityIds() {
+        Map<String, Long> cityIds = new HashMap<>();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[] {WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        WeatherContract.LocationEntry.COLUMN_CITY_ID},
+                WeatherContract.LocationEntry.COLUMN_CITY_ID + " IS NOT NULL",
+                null,
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                cityIds.put(cursor.getString(0), cursor.getLong(1));
+            }
+            cursor.close();
+        }
+        return cityIds;
+    }
+
+    private List<ForecastJsonParser.ParsedForecast> fetchGroup(Uri groupUri)
+            throws IOException, JSONException, InterruptedException {
+        URL url = new URL(groupUri.toString());
+        Semaphore hostPermits = getHostPermits(url.getAuthority());
+        hostPermits.acquire();
+        try {
+            return ForecastFetcher.fetchGroup(mTransport, url, mTrace);
+        } finally {
+            hostPermits.release();
+        }
+    }
+
+    private List<Outcome> fetchAll(ExecutorService executor, List<Request> requests,
+                                   final int julianToday) {
+        List<Future<Outcome>> futures = new ArrayList<>(requests.size());
+        for (final Request request : requests) {
+            futures.add(executor.submit(new Callable<Outcome>() {
+                @Override
+                public Outcome call() throws Exception {
+                    return fetch(request, julianToday);
+                }
+            }));
+        }
+
+        List<Outcome> outcomes = new ArrayList<>(requests.size());
+        for (int i = 0; i < futures.size(); i++) {
+            Request request = requests.get(i);
+            try {
+                outcomes.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                outcomes.add(new Outcome(request, null,
+                        cause instanceof Exception ? (Exception) cause : e));
+            } catch (InterruptedException e) {
+                // The sync was cancelled; give up on whatever hasn't finished
+                Thread.currentThread().interrupt();
+                outcomes.add(new Outcome(request, null, e));
+            }
+        }
+        return outcomes;
+    }
+
+    private Outcome fetch(Request request, int julianToday) {
+        String requestKey = request.uri.toString();
+        try {
+            URL url = new URL(requestKey);
+            SyncValidators validators = SyncValidators.load(mContext, requestKey, julianToday,
+                    request.locationSetting);
+
+            Semaphore hostPermits = getHostPermits(url.getAuthority());
+            hostPermits.acquire();
+            try {
+                return new Outcome(request,
+                        ForecastFetcher.fetch(mTransport, url, validators, mTrace), null);
+            } finally {
+                hostPermits.release();
+            }
+        } catch (IOException | JSONException | InterruptedException e) {
+            return new Outcome(request, null, e);
+        }
+    }
+
+    private Semaphore getHostPermits(String host) {
+        synchronized (mHostPermits) {
+            Semaphore permits = mHostPermits.get(host);
+            if (permits == null) {
+                permits = new Semaphore(mMaxFetchesPerHost);
+                mHostPermits.put(host, permits);
+            }
+            return permits;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Makes each request on a connection of its own and disconnects it afterwards, with no cache,
+ * no timeouts and whatever encoding the platform asks for, as the sync adapter always has.
+ */
+class PlainWeatherTransport implements WeatherTransport {
+
+    @Override
+    public HttpURLConnection open(URL url) throws IOException {
+        // Create the request to OpenWeatherMap, and open the connection
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod("GET");
+        // Even if a response cache is installed for the process
+        urlConnection.setUseCaches(false);
+        return urlConnection;
+    }
+
+    @Override
+    public InputStream getBody(HttpURLConnection connection) throws IOException {
+        return connection.getInputStream();
+    }
+
+    @Override
+    public void release(HttpURLConnection connection) {
+        connection.disconnect();
+    }
+}
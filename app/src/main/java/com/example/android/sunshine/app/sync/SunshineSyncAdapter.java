@@ -8,8 +8,6 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -26,58 +24,72 @@ import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
+import android.text.TextUtils;
 import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SunshinePrefs;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherBatch;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.Wearable;
+import com.google.android.gms.wearable.PutDataRequest;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
+    // The id of the sync that sent ACTION_DATA_UPDATED, to look up its ForecastSnapshot by
+    public static final String EXTRA_SYNC_ID = "com.example.android.sunshine.app.EXTRA_SYNC_ID";
 
     private static final String PATH_WEATHER = "/weather";
-    private static final String KEY_TEMP_HIGH = "com.example.android.sunshine.app.KEY_TEMP_HIGH";
-    private static final String KEY_TEMP_LOW = "com.example.android.sunshine.app.KEY_TEMP_LOW";
-    private static final String KEY_WEATHER_ICON = "com.example.android.sunshine.app.KEY_WEATHER_ICON";
-
-    // Interval at which to sync with the weather, in seconds.
-    // 60 seconds (1 minute) * 180 = 3 hours
-    public static final int SYNC_INTERVAL = 60 * 180;
-    public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
+    private static final String KEY_FORECAST = "com.example.android.sunshine.app.KEY_FORECAST";
+    // The units setting goes on its own, so changing it doesn't have to wait for a new forecast
+    private static final String PATH_UNITS = "/units";
+    private static final String KEY_METRIC = "com.example.android.sunshine.app.KEY_METRIC";
+
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    // How long after a sync everything that shows the weather has to take it in.  A broadcast
+    // or a startService returns at once unless the system is struggling; the watch face reads
+    // the forecast back and queues it for the watch; the notification may be downloading art
+    private static final long WIDGETS_DEADLINE_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    private static final long MUZEI_DEADLINE_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    private static final long WATCHFACE_DEADLINE_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long NOTIFICATION_DEADLINE_MILLIS = TimeUnit.SECONDS.toMillis(6);
+    // Past this the notification goes out with the art we ship instead, well within its deadline
+    private static final long ARTWORK_DEADLINE_MILLIS = TimeUnit.SECONDS.toMillis(4);
+
+    // OWM's group endpoint only answers with current conditions, not the daily forecasts we
+    // store, so tracked locations are fetched one request each.  Turn this on against a service
+    // whose group endpoint returns daily forecasts.
+    static final boolean GROUP_FORECASTS_SUPPORTED = false;
+    static final int MAX_CITIES_PER_GROUP = 20;
+
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
@@ -92,6 +104,23 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final int INDEX_MIN_TEMP = 2;
     private static final int INDEX_SHORT_DESC = 3;
 
+    private static final String[] WATCH_FORECAST_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_WATCH_DATE = 0;
+    private static final int INDEX_WATCH_WEATHER_ID = 1;
+    private static final int INDEX_WATCH_MAX_TEMP = 2;
+    private static final int INDEX_WATCH_MIN_TEMP = 3;
+    private static final int INDEX_WATCH_COORD_LAT = 4;
+    private static final int INDEX_WATCH_COORD_LONG = 5;
+
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {}
@@ -103,101 +132,123 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_INVALID = 4;
 
     private final Context mContext;
+    private final WeatherTransport mTransport;
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
         mContext = context;
+        mTransport = CachingWeatherTransport.getInstance(context);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
 
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
+        // Requests for these locations from now until the sync is done ride along with it
         Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
+        SunshinePrefs prefs = SunshinePrefs.get(context);
+        List<String> locations = new ArrayList<>(prefs.trackedLocations);
+        locations.add(prefs.preferredLocation);
+        SyncCoordinator coordinator = SyncCoordinator.getInstance();
+        int reason = coordinator.onSyncStarted(locations);
+        try {
+            boolean manual = reason == SyncCoordinator.REASON_MANUAL
+                    || extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+            performSyncUnlessBackedOff(manual, syncResult);
+        } finally {
+            coordinator.onSyncFinished();
+        }
+        Log.d(LOG_TAG, "Sync requests so far: " + coordinator.getRequestCount() + ", "
+                + coordinator.getCoalescedCount() + " coalesced");
+    }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+    private void performSyncUnlessBackedOff(boolean manual, SyncResult syncResult) {
+        // Leave a failing server alone until its backoff is over
+        Context context = getContext();
+        String endpoint = getForecastEndpoint(context);
+        SyncBackoff backoff = SyncBackoff.getInstance(context);
+        long now = System.currentTimeMillis();
+        long nextAllowed = backoff.getNextAllowedAttemptTime(endpoint, manual, now);
+        if (nextAllowed > now) {
+            Log.d(LOG_TAG, "Sync skipped. " + endpoint + " is backed off for another "
+                    + (nextAllowed - now) / 1000 + "s");
+            syncResult.delayUntil = nextAllowed / 1000;
+            return;
+        }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        long startBytes = SyncScheduler.getTrafficBytes();
+        SyncTrace trace = new SyncTrace(now);
+        int outcome = performSync(trace);
+        long endBytes = SyncScheduler.getTrafficBytes();
+        Log.d(LOG_TAG, "Sync stages: " + trace);
+        trace.save(context);
+        if (outcome == SyncScheduler.OUTCOME_CANCELLED) {
+            // Neither a success nor a failure of the server, and the schedule stands
+            Log.d(LOG_TAG, "Sync cancelled");
+            return;
+        }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        // Only the server failing counts against it; a location it doesn't know is our problem,
+        // and a request that never left the phone says nothing about the server
+        int status = Utility.getLocationStatus(context);
+        if (status == LOCATION_STATUS_SERVER_DOWN && !Utility.isNetworkAvailable(context)) {
+            Log.d(LOG_TAG, "Sync failed with no network, not counted against " + endpoint);
+        } else if (status == LOCATION_STATUS_SERVER_DOWN
+                || status == LOCATION_STATUS_SERVER_INVALID) {
+            nextAllowed = backoff.onFailure(endpoint, System.currentTimeMillis());
+            syncResult.delayUntil = nextAllowed / 1000;
+        } else {
+            backoff.onSuccess(endpoint);
+        }
+        // The scheduler picks when the next sync should be from how this one went
+        SyncScheduler.getInstance(getContext()).onSyncFinished(outcome,
+                startBytes != -1 && endBytes != -1 ? endBytes - startBytes : -1);
+    }
 
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
-            } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
-            }
+    /**
+     * Syncs the preferred location, and the tracked ones along with it if there are any.
+     *
+     * @return one of the SyncScheduler OUTCOME_ constants
+     */
+    private int performSync(SyncTrace trace) {
+        Context context = getContext();
+        SunshinePrefs prefs = SunshinePrefs.get(context);
+        String locationQuery = prefs.preferredLocation;
 
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
+        List<String> trackedLocations = prefs.trackedLocations;
+        if (!trackedLocations.isEmpty()) {
+            return performMultiLocationSync(locationQuery, trackedLocations, trace);
+        }
 
+        try {
+            long start = System.nanoTime();
+            Uri builtUri = buildForecastUri(context, locationQuery);
             URL url = new URL(builtUri.toString());
 
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
-
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            // Ask the server for the forecast only if it changed since the one we stored today
+            SyncValidators validators =
+                    SyncValidators.load(context, builtUri.toString(), getJulianToday(),
+                            locationQuery);
+            trace.end(SyncTrace.STAGE_BUILD_URL, start);
+
+            ForecastFetcher.Result result =
+                    ForecastFetcher.fetch(mTransport, url, validators, trace);
+            switch (result.status) {
+                case ForecastFetcher.STATUS_NOT_MODIFIED:
+                case ForecastFetcher.STATUS_UNCHANGED:
+                    // What we have is still current, so there is nothing to store and nobody
+                    // to tell about it.
+                    Log.d(LOG_TAG, "Sync Complete. Forecast unchanged");
+                    result.validators.save(context);
+                    setLocationStatus(context, LOCATION_STATUS_OK);
+                    return SyncScheduler.OUTCOME_UNCHANGED;
+                default:
+                    if (storeForecast(result.forecast, locationQuery, trace)) {
+                        result.validators.save(context);
+                        return SyncScheduler.OUTCOME_CHANGED;
+                    }
+                    return SyncScheduler.OUTCOME_FAILED;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
@@ -207,279 +258,480 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
         }
-        return;
+        return SyncScheduler.OUTCOME_FAILED;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Refreshes the preferred location along with every tracked location in one pass.  The
+     * forecasts are fetched concurrently, stored in a single transaction, and everything that
+     * shows the weather is told about it once at the end.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @return one of the SyncScheduler OUTCOME_ constants
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+    private int performMultiLocationSync(String locationQuery, List<String> trackedLocations,
+                                         SyncTrace trace) {
+        Context context = getContext();
 
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+        // The preferred location goes first, it's the one the user is looking at
+        long start = System.nanoTime();
+        List<MultiLocationSyncEngine.Request> requests = new ArrayList<>();
+        Set<String> requested = new HashSet<>();
+        requested.add(locationQuery);
+        requests.add(new MultiLocationSyncEngine.Request(locationQuery,
+                buildForecastUri(context, locationQuery)));
+        for (String locationSetting : trackedLocations) {
+            if (requested.add(locationSetting)) {
+                requests.add(new MultiLocationSyncEngine.Request(locationSetting,
+                        buildForecastUri(context, locationSetting)));
+            }
+        }
+        trace.end(SyncTrace.STAGE_BUILD_URL, start);
+
+        int julianStartDay = getJulianToday();
+        MultiLocationSyncEngine engine = new MultiLocationSyncEngine(context,
+                MultiLocationSyncEngine.DEFAULT_MAX_CONCURRENT_FETCHES,
+                MultiLocationSyncEngine.DEFAULT_MAX_FETCHES_PER_HOST);
+        engine.setTransport(mTransport);
+        engine.setTrace(trace);
+        engine.setSnapshotLocation(locationQuery);
+        if (GROUP_FORECASTS_SUPPORTED) {
+            engine.setGroupRequests(new MultiLocationSyncEngine.GroupUriFactory() {
+                @Override
+                public Uri buildGroupUri(List<Long> cityIds) {
+                    return buildGroupForecastUri(cityIds);
                 }
+            }, MAX_CITIES_PER_GROUP);
+        }
+        MultiLocationSyncEngine.Result result = engine.sync(requests, julianStartDay);
+
+        int deleted = deleteOldWeather(julianStartDay, trace);
+        if (result.snapshot != null) {
+            ForecastSnapshot.publish(result.snapshot);
+        } else if (result.rowsChanged > 0) {
+            // Some other location changed, but whatever was published may be out of date too
+            ForecastSnapshot.clear();
+        }
+        if (result.rowsChanged > 0 || deleted > 0) {
+            notifyDependents(trace);
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + requests.size() + " locations, "
+                + result.rowsChanged + " rows changed, " + deleted + " deleted, "
+                + result.cancelled + " cancelled");
+        if (result.cancelled > 0) {
+            // Whatever was fetched before the cancel is stored, but the preferred location may
+            // not have been, and a cancel is no reason to doubt it
+            if (result.locationStatus.containsKey(locationQuery)) {
+                setLocationStatus(context, result.getLocationStatus(locationQuery));
             }
+            return SyncScheduler.OUTCOME_CANCELLED;
+        }
+        int status = result.getLocationStatus(locationQuery);
+        setLocationStatus(context, status);
+        if (status != LOCATION_STATUS_OK) {
+            return SyncScheduler.OUTCOME_FAILED;
+        }
+        return result.rowsChanged > 0
+                ? SyncScheduler.OUTCOME_CHANGED : SyncScheduler.OUTCOME_UNCHANGED;
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+    /**
+     * Builds the OpenWeatherMap request for several cities at once, by the ids the service
+     * knows them by.  The group endpoint takes no day count; see GROUP_FORECASTS_SUPPORTED.
+     */
+    static Uri buildGroupForecastUri(List<Long> cityIds) {
+        final String GROUP_BASE_URL = "http://api.openweathermap.org/data/2.5/group?";
+        final String ID_PARAM = "id";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String APPID_PARAM = "APPID";
+
+        return Uri.parse(GROUP_BASE_URL).buildUpon()
+                .appendQueryParameter(ID_PARAM, TextUtils.join(",", cityIds))
+                .appendQueryParameter(FORMAT_PARAM, "json")
+                .appendQueryParameter(UNITS_PARAM, "metric")
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+    /**
+     * Builds the OpenWeatherMap forecast request for a location setting.
+     */
+    static Uri buildForecastUri(Context context, String locationQuery) {
+        String format = "json";
+        String units = "metric";
+        int numDays = 14;
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String FORECAST_BASE_URL =
+                "http://api.openweathermap.org/data/2.5/forecast/daily?";
+        final String QUERY_PARAM = "q";
+        final String LAT_PARAM = "lat";
+        final String LON_PARAM = "lon";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
+
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        // The lat/lon only ever belongs to the preferred location.
+        SunshinePrefs prefs = SunshinePrefs.get(context);
+        if (locationQuery.equals(prefs.preferredLocation) && prefs.locationLatLonAvailable) {
+            uriBuilder.appendQueryParameter(LAT_PARAM,
+                    String.valueOf(prefs.locationLatitude))
+                    .appendQueryParameter(LON_PARAM,
+                            String.valueOf(prefs.locationLongitude));
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+        }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+        return uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
 
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+    /**
+     * Returns today's Julian day in local time.  OWM's first forecast day is always today.
+     */
+    static int getJulianToday() {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        return Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    }
 
-                double high;
-                double low;
+    /**
+     * Returns the location status that a forecast with the given message code leads to.
+     */
+    @LocationStatus
+    static int getLocationStatusForMessageCode(int messageCode) {
+        switch (messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                return LOCATION_STATUS_OK;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                return LOCATION_STATUS_INVALID;
+            default:
+                return LOCATION_STATUS_SERVER_DOWN;
+        }
+    }
 
-                String description;
-                int weatherId;
+    /**
+     * Take the parsed forecast and store it in the database, then let everything that shows
+     * the weather know that there is new data.
+     *
+     * @return true if the forecast was stored, false if the server returned an error instead
+     */
+    private boolean storeForecast(ForecastJsonParser.ParsedForecast forecast,
+                                  String locationSetting, SyncTrace trace) {
+        // do we have an error?
+        int status = getLocationStatusForMessageCode(forecast.messageCode);
+        if (status != LOCATION_STATUS_OK) {
+            setLocationStatus(getContext(), status);
+            return false;
+        }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+        int julianStartDay = getJulianToday();
+
+        // Insert the new weather information into the database, along with the location if
+        // this is the first time we've seen it
+        long start = System.nanoTime();
+        WeatherBatch batch = new WeatherBatch(forecast.count);
+        long locationId = batch.addLocation(locationSetting, forecast.cityName,
+                forecast.cityLatitude, forecast.cityLongitude, forecast.cityId);
+        addForecastToBatch(batch, forecast, locationId, julianStartDay);
+        // Taken before the batch is stored, which may change it
+        ForecastSnapshot snapshot =
+                ForecastSnapshot.fromBatch(trace.getSyncTimeMillis(), batch, locationSetting);
+        start = trace.end(SyncTrace.STAGE_ADD_LOCATION, start);
+
+        // add to database
+        if ( batch.size() > 0 ) {
+            // Only rows that differ from what we stored last time are written
+            int changed = batch.insert(getContext().getContentResolver(), true);
+            trace.end(SyncTrace.STAGE_BULK_INSERT, start);
+            trace.addRows(SyncTrace.STAGE_BULK_INSERT, changed);
+            int deleted = deleteOldWeather(julianStartDay, trace);
+            // What's stored is what the snapshot holds now, changed or not
+            ForecastSnapshot.publish(snapshot);
+
+            if (changed > 0 || deleted > 0) {
+                notifyDependents(trace);
+            }
+            Log.d(LOG_TAG, "Sync Complete. " + changed + " of " + batch.size()
+                    + " rows changed, " + deleted + " deleted");
+        }
+        setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        return true;
+    }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+    /**
+     * Adds the days of a forecast to the batch, one row per day starting at julianStartDay.
+     */
+    static void addForecastToBatch(WeatherBatch batch, ForecastJsonParser.ParsedForecast forecast,
+                                   long locationId, int julianStartDay) {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+        for (int i = 0; i < forecast.count; i++) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = dayTime.setJulianDay(julianStartDay + i);
 
-                ContentValues weatherValues = new ContentValues();
+            batch.add(locationId, dateTime, forecast.weatherIds[i], forecast.descriptions[i],
+                    forecast.low[i], forecast.high[i], forecast.humidity[i],
+                    forecast.pressure[i], forecast.windSpeed[i], forecast.windDirection[i]);
+        }
+    }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+    /**
+     * Deletes the days before julianStartDay so we don't build up an endless history, and
+     * returns the number of rows deleted.
+     */
+    private int deleteOldWeather(int julianStartDay, SyncTrace trace) {
+        long start = System.nanoTime();
+        Time dayTime = new Time();
+        int deleted = getContext().getContentResolver().delete(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+        trace.end(SyncTrace.STAGE_DELETE, start);
+        trace.addRows(SyncTrace.STAGE_DELETE, deleted);
+        return deleted;
+    }
 
-                cVVector.add(weatherValues);
+    /**
+     * Lets everything that shows the weather outside of the app know that there is new data,
+     * all at once, waiting for each no longer than its deadline.  See {@link SyncFanOut}.
+     * Those in this process read the sync's {@link ForecastSnapshot} if it published one.
+     */
+    private void notifyDependents(SyncTrace trace) {
+        final long syncId = trace.getSyncTimeMillis();
+        List<SyncFanOut.Consumer> consumers = new ArrayList<>();
+        // The watch first, it's the one a person glances at
+        consumers.add(new SyncFanOut.Consumer(SyncTrace.STAGE_UPDATE_WATCHFACE,
+                WATCHFACE_DEADLINE_MILLIS) {
+            @Override
+            void deliver() {
+                updateWatchface(syncId);
             }
-
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                updateWatchface();
-                notifyWeather();
+        });
+        consumers.add(new SyncFanOut.Consumer(SyncTrace.STAGE_UPDATE_WIDGETS,
+                WIDGETS_DEADLINE_MILLIS) {
+            @Override
+            void deliver() {
+                updateWidgets(syncId);
+            }
+        });
+        consumers.add(new SyncFanOut.Consumer(SyncTrace.STAGE_UPDATE_MUZEI,
+                MUZEI_DEADLINE_MILLIS) {
+            @Override
+            void deliver() {
+                updateMuzei(syncId);
+            }
+        });
+        // A delivery cancelled late may still get as far as posting, so whichever of it and
+        // the fallback gets there first posts, and the other doesn't
+        final AtomicBoolean notified = new AtomicBoolean();
+        consumers.add(new SyncFanOut.Consumer(SyncTrace.STAGE_NOTIFY_WEATHER,
+                NOTIFICATION_DEADLINE_MILLIS) {
+            @Override
+            void deliver() {
+                notifyWeather(syncId, true, notified);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            @Override
+            void fallBack() {
+                // Most likely held up by the artwork, so this goes with the app's own
+                notifyWeather(syncId, false, notified);
+            }
+        });
+        int delivered = SyncFanOut.getInstance().dispatch(consumers, trace);
+        if (delivered < consumers.size()) {
+            Log.w(LOG_TAG, (consumers.size() - delivered) + " of " + consumers.size()
+                    + " consumers didn't take the sync in time");
         }
     }
 
-    private void updateWidgets() {
+    private void updateWidgets(long syncId) {
         Context context = getContext();
         // Setting the package ensures that only components in our app will receive the broadcast
         Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
+                .setPackage(context.getPackageName())
+                .putExtra(EXTRA_SYNC_ID, syncId);
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    private void updateMuzei(long syncId) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
             Context context = getContext();
             context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
+                    .setClass(context, WeatherMuzeiSource.class)
+                    .putExtra(EXTRA_SYNC_ID, syncId));
         }
     }
 
-    private void updateWatchface() {
+    /**
+     * Sends the watch face the preferred location's whole forecast, packed by
+     * {@link WatchForecastEncoder} with where it's for, along with any icons it names that the
+     * watch hasn't got.
+     * The item only changes when the forecast does, so an unchanged sync doesn't wake the
+     * watch.  The units go separately, see {@link #updateWatchfaceUnits(Context)}.
+     */
+    private void updateWatchface(long syncId) {
+        Context context = getContext();
+        SunshinePrefs prefs = SunshinePrefs.get(context);
         Time dayTime = new Time();
         dayTime.setToNow();
         int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
 
-        Cursor data = getContext()
-                .getContentResolver()
-                .query(WeatherContract.WeatherEntry.CONTENT_URI,
-                        NOTIFY_WEATHER_PROJECTION,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay))},
-                        null
-                );
-
-        if (data != null && data.moveToFirst()) {
-            Log.d(LOG_TAG, "updateWatchface: data found");
-            String high = Utility.formatTemperature(mContext, data.getDouble(INDEX_MAX_TEMP));
-            String low = Utility.formatTemperature(mContext, data.getDouble(INDEX_MIN_TEMP));
-            int weatherId = data.getInt(INDEX_WEATHER_ID);
-            Log.d(LOG_TAG, "updateWatchface: high temp is " + high);
-            Log.d(LOG_TAG, "updateWatchface: low temp is " + low);
-            Log.d(LOG_TAG, "updateWatchface: weatherId is " + weatherId);
-
-            int iconResource = Utility.getArtResourceForWeatherCondition(weatherId);
-            Bitmap iconBitmap = BitmapFactory.decodeResource(getContext().getResources(), iconResource);
-            final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-            iconBitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-            Asset iconAsset = Asset.createFromBytes(byteStream.toByteArray());
-
-            PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(PATH_WEATHER);
-            DataMap dataMap = putDataMapRequest.getDataMap();
-            dataMap.putLong("timestamp", System.currentTimeMillis());
-            dataMap.putString(KEY_TEMP_HIGH, high);
-            dataMap.putString(KEY_TEMP_LOW, low);
-            dataMap.putAsset(KEY_WEATHER_ICON, iconAsset);
-            putDataMapRequest.setUrgent();
-            new SunshineWatchFaceUpdater(getContext(), putDataMapRequest);
+        ForecastSnapshot snapshot = ForecastSnapshot.get(syncId, prefs.preferredLocation);
+        Cursor data;
+        if (snapshot != null) {
+            data = snapshot.newCursor(WATCH_FORECAST_PROJECTION, System.currentTimeMillis());
+        } else {
+            Uri forecastUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                    prefs.preferredLocation, System.currentTimeMillis());
+            data = context.getContentResolver().query(forecastUri, WATCH_FORECAST_PROJECTION,
+                    null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        }
+        if (data == null) {
+            return;
+        }
 
+        WatchIconCache iconCache = WatchIconCache.getInstance(context);
+        WearablePublisher publisher = WearablePublisher.getInstance(context);
+        WatchForecastEncoder forecast = new WatchForecastEncoder(julianStartDay, prefs.metric);
+        Set<String> iconHashes = new HashSet<>();
+        try {
+            while (data.moveToNext()) {
+                if (data.isFirst()) {
+                    // Every row is the same location
+                    forecast.setLocation(data.getDouble(INDEX_WATCH_COORD_LAT),
+                            data.getDouble(INDEX_WATCH_COORD_LONG));
+                }
+                int julianDay = Time.getJulianDay(data.getLong(INDEX_WATCH_DATE), dayTime.gmtoff);
+                if (julianDay < julianStartDay || julianDay - julianStartDay > 0xff) {
+                    continue;
+                }
+                int weatherId = data.getInt(INDEX_WATCH_WEATHER_ID);
+                // The icons go by their hash; each is only sent the first time the watch needs it
+                String iconHash = null;
+                int iconResource = Utility.getArtResourceForWeatherCondition(weatherId);
+                if (iconResource != -1) {
+                    iconHash = iconCache.getHash(iconResource);
+                    PutDataRequest iconRequest = iconHashes.add(iconHash)
+                            ? iconCache.getPutRequest(iconResource) : null;
+                    // Queued ahead of the weather, so they're there by the time it is
+                    if (iconRequest != null) {
+                        publisher.publish(iconRequest, new IconPublishedCallback(iconHash));
+                    }
+                }
+                forecast.addDay(julianDay, weatherId, data.getDouble(INDEX_WATCH_MAX_TEMP),
+                        data.getDouble(INDEX_WATCH_MIN_TEMP), iconHash);
+            }
+        } finally {
             data.close();
         }
+
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(PATH_WEATHER);
+        putDataMapRequest.getDataMap().putByteArray(KEY_FORECAST, forecast.toByteArray());
+        putDataMapRequest.setUrgent();
+        publisher.publish(putDataMapRequest.asPutDataRequest(), null);
+        // Unchanged, this doesn't go to the watch, but one that missed a change catches up
+        updateWatchfaceUnits(context);
+    }
+
+    /**
+     * Tells the watch face which units to show temperatures in, which it takes over the flag in
+     * the forecast.  Call it when the units setting changes; it only queues the item, so it's
+     * fine on the main thread.
+     */
+    public static void updateWatchfaceUnits(Context context) {
+        // Read straight from the preferences, as this is called while the units are changing
+        String unitsMetric = context.getString(R.string.pref_units_metric);
+        boolean metric = PreferenceManager.getDefaultSharedPreferences(context)
+                .getString(context.getString(R.string.pref_units_key), unitsMetric)
+                .equals(unitsMetric);
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(PATH_UNITS);
+        putDataMapRequest.getDataMap().putBoolean(KEY_METRIC, metric);
+        putDataMapRequest.setUrgent();
+        WearablePublisher.getInstance(context)
+                .publish(putDataMapRequest.asPutDataRequest(), null);
+    }
+
+    private class IconPublishedCallback implements WearablePublisher.Callback {
+        private final String mIconHash;
+
+        IconPublishedCallback(String iconHash) {
+            mIconHash = iconHash;
+        }
+
+        @Override
+        public void onPublished(boolean success) {
+            if (success) {
+                WatchIconCache.getInstance(mContext).onPut(mIconHash);
+            }
+        }
     }
 
-    private void notifyWeather() {
+    /**
+     * Posts today's forecast for the preferred location, if notifications are on and there
+     * hasn't been one for a day.  Unless fetchArtwork is set, or if the artwork doesn't come in
+     * time, the app's own art is used instead of the artwork from the network.  Nothing is
+     * posted if notified is already set, or once the thread has been interrupted; notified is
+     * set when it is.
+     */
+    private void notifyWeather(long syncId, boolean fetchArtwork, AtomicBoolean notified) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+        SunshinePrefs sunshinePrefs = SunshinePrefs.get(context);
 
-        if ( displayNotifications ) {
+        if ( sunshinePrefs.notificationsEnabled ) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
 
             String lastNotificationKey = context.getString(R.string.pref_last_notification);
             long lastSync = prefs.getLong(lastNotificationKey, 0);
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                String locationQuery = sunshinePrefs.preferredLocation;
+
+                // The sync stores from today on, so today is the snapshot's first day
+                ForecastSnapshot snapshot = ForecastSnapshot.get(syncId, locationQuery);
+                Cursor cursor;
+                if (snapshot != null) {
+                    cursor = snapshot.newCursor(NOTIFY_WEATHER_PROJECTION,
+                            System.currentTimeMillis());
+                } else {
+                    Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                            locationQuery, System.currentTimeMillis());
+
+                    // we'll query our contentProvider, as always
+                    cursor = context.getContentResolver().query(weatherUri,
+                            NOTIFY_WEATHER_PROJECTION, null, null, null);
+                }
+                if (cursor == null) {
+                    return;
+                }
 
                 if (cursor.moveToFirst()) {
                     int weatherId = cursor.getInt(INDEX_WEATHER_ID);
@@ -503,17 +755,30 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                             ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
                             : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
 
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
+                    // Retrieve the large icon, or fall back on our own art if it's slow to come
+                    Bitmap largeIcon = null;
+                    if (fetchArtwork) {
+                        FutureTarget<Bitmap> largeIconTarget = Glide.with(context)
                                 .load(artUrl)
                                 .asBitmap()
                                 .error(artResourceId)
                                 .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                                .into(largeIconWidth, largeIconHeight);
+                        try {
+                            largeIcon = largeIconTarget.get(ARTWORK_DEADLINE_MILLIS,
+                                    TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            // Cancelled for missing the deadline, and the fallback posts it
+                            largeIconTarget.cancel(true);
+                            Thread.currentThread().interrupt();
+                            cursor.close();
+                            return;
+                        } catch (ExecutionException | TimeoutException e) {
+                            Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                            largeIconTarget.cancel(true);
+                        }
+                    }
+                    if (largeIcon == null) {
                         largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                     }
                     String title = context.getString(R.string.app_name);
@@ -551,6 +816,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                             );
                     mBuilder.setContentIntent(resultPendingIntent);
 
+                    // Cancelled for missing the deadline, and the fallback posts it; or it
+                    // already has
+                    if (Thread.currentThread().isInterrupted()
+                            || !notified.compareAndSet(false, true)) {
+                        cursor.close();
+                        return;
+                    }
                     NotificationManager mNotificationManager =
                             (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
                     // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
@@ -566,56 +838,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
-    }
-
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -636,15 +858,63 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Returns the earliest time, in milliseconds since the epoch, that a sync the user asks for
+     * will reach the weather server.  It's later than now while the server has been failing.
+     */
+    public static long getNextAllowedSyncTime(Context context) {
+        return SyncBackoff.getInstance(context).getNextAllowedAttemptTime(
+                getForecastEndpoint(context), true, System.currentTimeMillis());
+    }
+
+    private static String getForecastEndpoint(Context context) {
+        return SyncBackoff.endpointOf(
+                buildForecastUri(context, SunshinePrefs.get(context).preferredLocation));
+    }
+
+    /**
+     * Lets the sync schedule know the user is looking at the forecast, so it's kept fresher
+     * while they are.
+     */
+    public static void noteUserEngaged(Context context) {
+        SyncScheduler.getInstance(context).onUserEngaged();
+    }
+
+    /**
+     * Helper method to have the sync adapter sync immediately, unless the weather server has
+     * been failing and is still backed off, in which case nothing is requested.  Nor is it if
+     * the preferred location and the tracked ones are all already waiting to sync or being
+     * synced.
      * @param context The context used to access the account service
+     * @return when the sync may reach the server, see {@link #getNextAllowedSyncTime(Context)}
      */
-    public static void syncImmediately(Context context) {
+    public static long syncImmediately(Context context) {
+        long nextAllowed = getNextAllowedSyncTime(context);
+        if (nextAllowed > System.currentTimeMillis()) {
+            return nextAllowed;
+        }
+        // Read straight from the preferences, not the SunshinePrefs snapshot: this is called
+        // from preference listeners while the locations are changing, maybe before the
+        // snapshot's own listener has thrown the old locations away
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        List<String> locations = SunshinePrefs.parseTrackedLocations(prefs.getString(
+                context.getString(R.string.pref_tracked_locations_key), ""));
+        locations.add(prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default)));
+        SyncCoordinator coordinator = SyncCoordinator.getInstance();
+        boolean requested = false;
+        for (String location : locations) {
+            // Every location is asked for, so each one's pending until the sync takes it
+            requested |= coordinator.request(location, SyncCoordinator.REASON_MANUAL);
+        }
+        if (!requested) {
+            return nextAllowed;
+        }
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
         ContentResolver.requestSync(getSyncAccount(context),
                 context.getString(R.string.content_authority), bundle);
+        return nextAllowed;
     }
 
     /**
@@ -688,9 +958,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     private static void onAccountCreated(Account newAccount, Context context) {
         /*
-         * Since we've created an account
+         * Since we've created an account, start syncing on the schedule we last decided on;
+         * the scheduler moves it after every sync
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        long interval = SyncScheduler.getInstance(context).getIntervalSeconds();
+        SunshineSyncAdapter.configurePeriodicSync(context, (int) interval, (int) interval / 2);
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
@@ -719,42 +991,4 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
         spe.commit();
     }
-
-    class SunshineWatchFaceUpdater implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
-        private final String TAG = SunshineWatchFaceUpdater.class.getSimpleName();
-        private GoogleApiClient mGoogleApiClient;
-        private PutDataMapRequest mPutDataMapRequest;
-
-        public SunshineWatchFaceUpdater (Context context, PutDataMapRequest putDataMapRequest) {
-            mPutDataMapRequest = putDataMapRequest;
-            mGoogleApiClient = new GoogleApiClient.Builder(context)
-                    .addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this)
-                    .addApi(Wearable.API)
-                    .build();
-            mGoogleApiClient.connect();
-        }
-
-        @Override
-        public void onConnected(Bundle connectionHint) {
-            Log.d(TAG, "onConnected: " + connectionHint);
-            Wearable.DataApi.putDataItem(mGoogleApiClient, mPutDataMapRequest.asPutDataRequest())
-                    .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                        @Override
-                        public void onResult(DataApi.DataItemResult dataItemResult) {
-                            Log.d(TAG, "onResult: Data sent");
-                        }
-                    });
-        }
-
-        @Override
-        public void onConnectionSuspended(int cause) {
-            Log.e(TAG, "onConnectionSuspended: " + String.valueOf(cause));
-        }
-
-        @Override
-        public void onConnectionFailed(ConnectionResult result) {
-            Log.e(TAG, "onConnectionFailed: " + result);
-        }
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps syncs off a weather server that's failing, with a circuit breaker per endpoint.
+ *
+ * While the breaker is closed, each failure holds off scheduled syncs for an exponentially
+ * growing time, though a sync the user asked for still goes through.  After
+ * {@link #FAILURES_TO_OPEN} failures in a row the breaker opens and nothing goes through until
+ * the hold-off is over; then it's half-open, and the next sync decides whether it closes again
+ * or opens for longer.  Every hold-off is jittered, between half and all of its length, so a
+ * fleet of phones that saw the same outage don't all come back at the same moment.
+ *
+ * The failure count and when the next attempt is allowed are kept in preferences, so a process
+ * restart doesn't reset the breaker.
+ */
+final class SyncBackoff {
+    static final int STATE_CLOSED = 0;
+    static final int STATE_OPEN = 1;
+    static final int STATE_HALF_OPEN = 2;
+
+    static final int FAILURES_TO_OPEN = 3;
+    static final long BASE_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    static final long MAX_BACKOFF_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    private static final String PREFS_NAME = "sync_backoff";
+    private static final String KEY_FAILURES = ".failures";
+    private static final String KEY_NEXT_ATTEMPT = ".next_attempt";
+
+    private static SyncBackoff sInstance;
+
+    static synchronized SyncBackoff getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncBackoff(context.getApplicationContext(), new Random());
+        }
+        return sInstance;
+    }
+
+    private final SharedPreferences mPrefs;
+    private final Random mRandom;
+
+    // Package-private so tests can make the jitter repeatable
+    SyncBackoff(Context context, Random random) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mRandom = random;
+    }
+
+    /**
+     * Returns the endpoint a request goes to, which is what failures are counted against: the
+     * host and path, without the query that names the location.
+     */
+    static String endpointOf(Uri uri) {
+        return uri.getHost() + uri.getPath();
+    }
+
+    synchronized int getState(String endpoint, long now) {
+        if (mPrefs.getInt(endpoint + KEY_FAILURES, 0) < FAILURES_TO_OPEN) {
+            return STATE_CLOSED;
+        }
+        return now < mPrefs.getLong(endpoint + KEY_NEXT_ATTEMPT, 0)
+                ? STATE_OPEN : STATE_HALF_OPEN;
+    }
+
+    /**
+     * Returns the earliest time, in milliseconds since the epoch, that a sync may go to the
+     * endpoint; a time no later than now means it may go now.  A sync the user asked for only
+     * waits while the breaker is open.
+     */
+    synchronized long getNextAllowedAttemptTime(String endpoint, boolean userRequested,
+                                                long now) {
+        if (userRequested && getState(endpoint, now) == STATE_CLOSED) {
+            return now;
+        }
+        return mPrefs.getLong(endpoint + KEY_NEXT_ATTEMPT, 0);
+    }
+
+    /** Closes the breaker. */
+    synchronized void onSuccess(String endpoint) {
+        if (!mPrefs.contains(endpoint + KEY_FAILURES)) {
+            return;
+        }
+        mPrefs.edit()
+                .remove(endpoint + KEY_FAILURES)
+                .remove(endpoint + KEY_NEXT_ATTEMPT)
+                .commit();
+    }
+
+    /**
+     * Counts a failure, holding the endpoint off for longer, and opening the breaker if there
+     * have been enough of them.
+     *
+     * @return the next allowed attempt time
+     */
+    synchronized long onFailure(String endpoint, long now) {
+        int failures = mPrefs.getInt(endpoint + KEY_FAILURES, 0) + 1;
+        long nextAttempt = now + getJitteredBackoff(failures);
+        mPrefs.edit()
+                .putInt(endpoint + KEY_FAILURES, failures)
+                .putLong(endpoint + KEY_NEXT_ATTEMPT, nextAttempt)
+                .commit();
+        return nextAttempt;
+    }
+
+    // Between half and all of BASE_BACKOFF_MILLIS doubled for each failure after the first
+    private long getJitteredBackoff(int failures) {
+        long backoff = MAX_BACKOFF_MILLIS;
+        // Past 2^20 minutes it's well over the cap, and shifting further could overflow
+        if (failures <= 20) {
+            backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (failures - 1));
+        }
+        return backoff / 2 + (long) (mRandom.nextDouble() * (backoff / 2));
+    }
+}
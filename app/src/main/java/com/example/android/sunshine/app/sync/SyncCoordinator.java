@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the syncs asked for, by location, so that asking again for a location that's
+ * already waiting to sync, or being synced right now, doesn't start another sync.
+ *
+ * A request for a location with a sync pending is merged into it, keeping the stronger of the
+ * two reasons; one for a location being fetched attaches to that fetch, whose forecast is as
+ * fresh as a new one would be.  Only a request for a location with neither asks the sync
+ * manager for a sync.  When a sync starts it takes every pending request, since it syncs the
+ * locations as they are set now, and runs for the strongest reason among them.
+ */
+final class SyncCoordinator {
+    /** A periodic sync, or one nobody in particular asked for. */
+    static final int REASON_PERIODIC = 0;
+    /** A sync the user asked for, which goes ahead of the queue. */
+    static final int REASON_MANUAL = 1;
+
+    private static SyncCoordinator sInstance;
+
+    static synchronized SyncCoordinator getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncCoordinator();
+        }
+        return sInstance;
+    }
+
+    private final Map<String, Integer> mPending = new HashMap<>();
+    private final Set<String> mInFlight = new HashSet<>();
+    private int mRequests;
+    private int mCoalesced;
+
+    // Package-private so tests can have their own
+    SyncCoordinator() {
+    }
+
+    /**
+     * Asks for the location to be synced.
+     *
+     * @return true if a sync has to be requested from the sync manager for this, false if it
+     *         was merged into a pending sync or attached to one in flight
+     */
+    synchronized boolean request(String location, int reason) {
+        mRequests++;
+        if (mInFlight.contains(location)) {
+            mCoalesced++;
+            return false;
+        }
+        Integer pending = mPending.get(location);
+        if (pending != null) {
+            mCoalesced++;
+            if (reason <= pending) {
+                return false;
+            }
+            // Asked again with more urgency, so it's requested again to jump the queue
+            mPending.put(location, reason);
+            return true;
+        }
+        mPending.put(location, reason);
+        return true;
+    }
+
+    /**
+     * Starts a sync of the given locations, taking every pending request.
+     *
+     * @return the strongest reason among the requests taken, {@link #REASON_PERIODIC} if
+     *         there were none
+     */
+    synchronized int onSyncStarted(Collection<String> locations) {
+        int reason = REASON_PERIODIC;
+        for (int pending : mPending.values()) {
+            reason = Math.max(reason, pending);
+        }
+        mPending.clear();
+        mInFlight.clear();
+        mInFlight.addAll(locations);
+        return reason;
+    }
+
+    synchronized void onSyncFinished() {
+        mInFlight.clear();
+    }
+
+    synchronized int getRequestCount() {
+        return mRequests;
+    }
+
+    /** Returns how many requests were merged or attached rather than starting a sync. */
+    synchronized int getCoalescedCount() {
+        return mCoalesced;
+    }
+}
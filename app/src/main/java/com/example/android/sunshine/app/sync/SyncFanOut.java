@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tells everything that shows the weather about a sync at the same time, each consumer on a
+ * thread of a small pool, and waits for each one only until its deadline.  A consumer that
+ * misses its deadline, or fails, is cancelled and its fallback run instead.
+ *
+ * So a slow consumer, like a notification waiting on artwork from the network, holds up
+ * neither the others nor the sync for longer than its deadline, and the sync lock is let go
+ * of in a bounded time.  Each consumer is timed in the sync's {@link SyncTrace}.
+ *
+ * The pool is kept from one sync to the next, and its threads go away when it's been idle a
+ * while.  A consumer that ignores being cancelled keeps its thread until it's done, so later
+ * syncs may wait on it up to their deadlines, but no more threads are started for them.
+ */
+final class SyncFanOut {
+    private static final String LOG_TAG = SyncFanOut.class.getSimpleName();
+
+    static final int DEFAULT_MAX_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    abstract static class Consumer {
+        /** The SyncTrace stage the consumer is timed as. */
+        final int stage;
+        /** How long after the fan-out starts the consumer has to be done. */
+        final long deadlineMillis;
+
+        Consumer(int stage, long deadlineMillis) {
+            this.stage = stage;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        /** Runs on a pool thread, and is interrupted if it misses its deadline. */
+        abstract void deliver() throws Exception;
+
+        /**
+         * Runs on the dispatching thread in place of a delivery that missed its deadline or
+         * failed, so it should be quick and must not wait on what held up the delivery.  The
+         * delivery may still finish after it.  Does nothing unless overridden.
+         */
+        void fallBack() {
+        }
+    }
+
+    private static SyncFanOut sInstance;
+
+    /** Returns the fan-out the syncs share, with {@link #DEFAULT_MAX_THREADS} threads. */
+    static synchronized SyncFanOut getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncFanOut(DEFAULT_MAX_THREADS);
+        }
+        return sInstance;
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+
+    SyncFanOut(int maxThreads) {
+        int threads = Math.max(1, maxThreads);
+        mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Delivers to every consumer at once.  Blocks until each is done or past its deadline, so
+     * for no longer than the latest deadline.
+     *
+     * @return how many consumers were done in time
+     */
+    int dispatch(List<Consumer> consumers, final SyncTrace trace) {
+        if (consumers.isEmpty()) {
+            return 0;
+        }
+
+        long startMillis = SystemClock.elapsedRealtime();
+        List<Future<Void>> futures = new ArrayList<>(consumers.size());
+        int delivered = 0;
+        try {
+            for (final Consumer consumer : consumers) {
+                futures.add(mExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        long start = System.nanoTime();
+                        try {
+                            consumer.deliver();
+                        } finally {
+                            trace.end(consumer.stage, start);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (int i = 0; i < consumers.size(); i++) {
+                Consumer consumer = consumers.get(i);
+                String name = SyncTrace.STAGE_NAMES[consumer.stage];
+                long remaining = startMillis + consumer.deadlineMillis
+                        - SystemClock.elapsedRealtime();
+                try {
+                    futures.get(i).get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+                    delivered++;
+                } catch (TimeoutException e) {
+                    futures.get(i).cancel(true);
+                    Log.w(LOG_TAG, name + " missed its deadline of "
+                            + consumer.deadlineMillis + "ms");
+                    fallBack(consumer);
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, name + " failed", e.getCause());
+                    fallBack(consumer);
+                } catch (InterruptedException e) {
+                    // The sync was cancelled; whatever hasn't finished is given up on below
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            // Only those still going are cancelled; the pool is kept for the next sync
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return delivered;
+    }
+
+    // A fallback that breaks mustn't take the sync down with it
+    private static void fallBack(Consumer consumer) {
+        try {
+            consumer.fallBack();
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, SyncTrace.STAGE_NAMES[consumer.stage] + " couldn't fall back", e);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.TrafficStats;
+import android.os.BatteryManager;
+import android.os.Process;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks how often the periodic sync runs, rather than always every three hours.  After each
+ * sync it looks at how often the forecast has been changing lately, the time of day, when the
+ * user last opened the app and whether the phone is charging on an unmetered network, and
+ * reschedules the sync if the answer changed.
+ *
+ * The interval never goes over {@link #MAX_STALENESS_SECONDS}, so the forecast is never older
+ * than that, and the flex is half the interval, which leaves the system plenty of room to run
+ * the sync alongside other network activity rather than waking the radio for it alone.
+ *
+ * Every decision and what came of each sync is kept in preferences, along with running totals
+ * of syncs, bytes and time between syncs, so a change to the rules can be checked against them.
+ * {@link SunshineSyncService} adds them to dumpsys.
+ */
+final class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    static final int OUTCOME_CHANGED = 0;
+    static final int OUTCOME_UNCHANGED = 1;
+    static final int OUTCOME_FAILED = 2;
+    // Cut short, so it says nothing about the forecast or the server; not recorded
+    static final int OUTCOME_CANCELLED = 3;
+
+    static final long DEFAULT_INTERVAL_SECONDS = TimeUnit.HOURS.toSeconds(3);
+    static final long MIN_INTERVAL_SECONDS = TimeUnit.HOURS.toSeconds(1);
+    static final long MAX_STALENESS_SECONDS = TimeUnit.HOURS.toSeconds(12);
+
+    // Nobody looks at the forecast overnight
+    private static final int NIGHT_START_HOUR = 23;
+    private static final int NIGHT_END_HOUR = 6;
+    private static final long RECENTLY_ENGAGED_MILLIS = TimeUnit.HOURS.toMillis(6);
+    private static final long DISENGAGED_MILLIS = TimeUnit.DAYS.toMillis(3);
+    // How much the latest sync counts towards the volatility, against the ones before it
+    private static final float VOLATILITY_WEIGHT = 0.5f;
+    private static final int DECISIONS_KEPT = 20;
+
+    private static final String PREFS_NAME = "sync_schedule";
+    private static final String KEY_VOLATILITY = "volatility";
+    private static final String KEY_LAST_ENGAGED = "last_engaged";
+    private static final String KEY_LAST_SYNC = "last_sync";
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_DECISIONS = "decisions";
+    private static final String KEY_SYNCS = "syncs";
+    private static final String KEY_CHANGED_SYNCS = "changed_syncs";
+    private static final String KEY_FAILED_SYNCS = "failed_syncs";
+    private static final String KEY_BYTES = "bytes";
+    private static final String KEY_TOTAL_GAP = "total_gap";
+    private static final String KEY_MAX_GAP = "max_gap";
+
+    /** What a schedule is decided on. */
+    static final class Conditions {
+        /** How often syncs have been changing the forecast lately, from 0 (never) to 1. */
+        final float volatility;
+        final int hourOfDay;
+        /** How long since the user opened the app, -1 if they never have. */
+        final long sinceEngagedMillis;
+        final boolean charging;
+        final boolean unmetered;
+
+        Conditions(float volatility, int hourOfDay, long sinceEngagedMillis, boolean charging,
+                   boolean unmetered) {
+            this.volatility = volatility;
+            this.hourOfDay = hourOfDay;
+            this.sinceEngagedMillis = sinceEngagedMillis;
+            this.charging = charging;
+            this.unmetered = unmetered;
+        }
+    }
+
+    /** How often to sync, and why. */
+    static final class Decision {
+        final long intervalSeconds;
+        final long flexSeconds;
+        final String reasons;
+
+        Decision(long intervalSeconds, String reasons) {
+            this.intervalSeconds = intervalSeconds;
+            this.flexSeconds = intervalSeconds / 2;
+            this.reasons = reasons;
+        }
+    }
+
+    private static SyncScheduler sInstance;
+
+    static synchronized SyncScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncScheduler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+
+    private SyncScheduler(Context context) {
+        mContext = context;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Decides how often to sync.  Each condition stretches or shrinks the default interval,
+     * and the result is kept between {@link #MIN_INTERVAL_SECONDS} and
+     * {@link #MAX_STALENESS_SECONDS}.
+     */
+    static Decision decide(Conditions conditions) {
+        StringBuilder reasons = new StringBuilder();
+        // Twice as long for a forecast that never changes, half as long for one that always does
+        double factor = 2 - 1.5 * conditions.volatility;
+        reasons.append(String.format(Locale.US, "volatility %.2f", conditions.volatility));
+
+        if (conditions.hourOfDay >= NIGHT_START_HOUR || conditions.hourOfDay < NIGHT_END_HOUR) {
+            factor *= 2;
+            reasons.append(", night");
+        }
+        if (conditions.sinceEngagedMillis < 0
+                || conditions.sinceEngagedMillis > DISENGAGED_MILLIS) {
+            factor *= 2;
+            reasons.append(", not opened lately");
+        } else if (conditions.sinceEngagedMillis < RECENTLY_ENGAGED_MILLIS) {
+            factor *= 0.75;
+            reasons.append(", opened recently");
+        }
+        if (conditions.charging && conditions.unmetered) {
+            // Costs next to nothing
+            factor *= 0.5;
+            reasons.append(", charging and unmetered");
+        }
+
+        long interval = Math.round(DEFAULT_INTERVAL_SECONDS * factor);
+        if (interval >= MAX_STALENESS_SECONDS) {
+            interval = MAX_STALENESS_SECONDS;
+            reasons.append(", capped");
+        }
+        return new Decision(Math.max(MIN_INTERVAL_SECONDS, interval), reasons.toString());
+    }
+
+    /** Notes that the user is looking at the forecast.  Fine to call on the main thread. */
+    void onUserEngaged() {
+        mPrefs.edit().putLong(KEY_LAST_ENGAGED, System.currentTimeMillis()).apply();
+    }
+
+    /** Returns the interval the periodic sync was last scheduled with, in seconds. */
+    long getIntervalSeconds() {
+        return mPrefs.getLong(KEY_INTERVAL, DEFAULT_INTERVAL_SECONDS);
+    }
+
+    /**
+     * Records how a sync went and how many bytes it took, then decides when the next should be
+     * and reschedules the periodic sync if that changed.  Failed syncs say nothing about how
+     * often the forecast changes, so they're left out of the volatility.
+     */
+    synchronized void onSyncFinished(int outcome, long bytes) {
+        long now = System.currentTimeMillis();
+        float volatility = mPrefs.getFloat(KEY_VOLATILITY, 0.5f);
+        if (outcome != OUTCOME_FAILED) {
+            float changed = outcome == OUTCOME_CHANGED ? 1 : 0;
+            volatility = (1 - VOLATILITY_WEIGHT) * volatility + VOLATILITY_WEIGHT * changed;
+        }
+        long lastSync = mPrefs.getLong(KEY_LAST_SYNC, 0);
+        long gap = lastSync > 0 ? now - lastSync : 0;
+
+        Decision decision = decide(new Conditions(volatility,
+                Calendar.getInstance().get(Calendar.HOUR_OF_DAY),
+                getSinceEngagedMillis(now), isCharging(), isUnmetered()));
+        String entry = String.format(Locale.US,
+                "%tF %<tR %s after %dmin, %d bytes: every %dmin (%s)", now, outcomeName(outcome),
+                TimeUnit.MILLISECONDS.toMinutes(gap), bytes,
+                TimeUnit.SECONDS.toMinutes(decision.intervalSeconds), decision.reasons);
+        Log.i(LOG_TAG, entry);
+
+        long previousInterval = getIntervalSeconds();
+        mPrefs.edit()
+                .putFloat(KEY_VOLATILITY, volatility)
+                .putLong(KEY_LAST_SYNC, now)
+                .putLong(KEY_INTERVAL, decision.intervalSeconds)
+                .putString(KEY_DECISIONS, appendDecision(mPrefs.getString(KEY_DECISIONS, ""),
+                        entry))
+                .putInt(KEY_SYNCS, mPrefs.getInt(KEY_SYNCS, 0) + 1)
+                .putInt(KEY_CHANGED_SYNCS, mPrefs.getInt(KEY_CHANGED_SYNCS, 0)
+                        + (outcome == OUTCOME_CHANGED ? 1 : 0))
+                .putInt(KEY_FAILED_SYNCS, mPrefs.getInt(KEY_FAILED_SYNCS, 0)
+                        + (outcome == OUTCOME_FAILED ? 1 : 0))
+                .putLong(KEY_BYTES, mPrefs.getLong(KEY_BYTES, 0) + Math.max(0, bytes))
+                .putLong(KEY_TOTAL_GAP, mPrefs.getLong(KEY_TOTAL_GAP, 0) + gap)
+                .putLong(KEY_MAX_GAP, Math.max(mPrefs.getLong(KEY_MAX_GAP, 0), gap))
+                .commit();
+
+        if (decision.intervalSeconds != previousInterval) {
+            SunshineSyncAdapter.configurePeriodicSync(mContext, (int) decision.intervalSeconds,
+                    (int) decision.flexSeconds);
+        }
+    }
+
+    /**
+     * Returns the running totals and the latest decisions, oldest first, for checking the
+     * schedule against.  Synchronized so it doesn't catch a sync half recorded.
+     */
+    synchronized String getReport() {
+        int syncs = mPrefs.getInt(KEY_SYNCS, 0);
+        long totalGap = mPrefs.getLong(KEY_TOTAL_GAP, 0);
+        return String.format(Locale.US,
+                "%d syncs, %d changed, %d failed, %d bytes, %dmin apart on average, "
+                        + "%dmin at most%n%s",
+                syncs, mPrefs.getInt(KEY_CHANGED_SYNCS, 0), mPrefs.getInt(KEY_FAILED_SYNCS, 0),
+                mPrefs.getLong(KEY_BYTES, 0),
+                syncs > 1 ? TimeUnit.MILLISECONDS.toMinutes(totalGap / (syncs - 1)) : 0,
+                TimeUnit.MILLISECONDS.toMinutes(mPrefs.getLong(KEY_MAX_GAP, 0)),
+                mPrefs.getString(KEY_DECISIONS, ""));
+    }
+
+    /**
+     * Returns how many bytes this app has sent and received so far, -1 if the device doesn't
+     * count them.
+     */
+    static long getTrafficBytes() {
+        int uid = Process.myUid();
+        long received = TrafficStats.getUidRxBytes(uid);
+        long sent = TrafficStats.getUidTxBytes(uid);
+        if (received == TrafficStats.UNSUPPORTED || sent == TrafficStats.UNSUPPORTED) {
+            return -1;
+        }
+        return received + sent;
+    }
+
+    private long getSinceEngagedMillis(long now) {
+        long lastEngaged = mPrefs.getLong(KEY_LAST_ENGAGED, 0);
+        return lastEngaged > 0 ? now - lastEngaged : -1;
+    }
+
+    private boolean isCharging() {
+        // Sticky, so this doesn't register anything
+        Intent battery = mContext.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    private boolean isUnmetered() {
+        ConnectivityManager cm =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return !ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+    }
+
+    private static String outcomeName(int outcome) {
+        switch (outcome) {
+            case OUTCOME_CHANGED:
+                return "changed";
+            case OUTCOME_UNCHANGED:
+                return "unchanged";
+            default:
+                return "failed";
+        }
+    }
+
+    // Keeps the latest DECISIONS_KEPT entries, a line each
+    private static String appendDecision(String decisions, String entry) {
+        String[] lines = decisions.isEmpty() ? new String[0] : decisions.split("\n");
+        StringBuilder kept = new StringBuilder();
+        for (int i = Math.max(0, lines.length - DECISIONS_KEPT + 1); i < lines.length; i++) {
+            kept.append(lines[i]).append('\n');
+        }
+        return kept.append(entry).toString();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times the stages of one sync, and counts the bytes and rows that went through them, so the
+ * sync can be logged in the sync_log table once it's done.
+ *
+ * A stage that runs more than once in a sync, like the fetches of a multi-location sync, adds
+ * up, even when the runs overlap on different threads; the totals are the work done, not the
+ * time the sync took.  A stage that didn't run isn't logged.
+ */
+final class SyncTrace {
+    static final int STAGE_BUILD_URL = 0;
+    static final int STAGE_CONNECT = 1;
+    static final int STAGE_FIRST_BYTE = 2;
+    // Time spent waiting on the body, which is parsed as it comes in
+    static final int STAGE_DOWNLOAD = 3;
+    // Time spent parsing, not counting the waits on the body
+    static final int STAGE_PARSE = 4;
+    // Putting the location and its days in the batch to store
+    static final int STAGE_ADD_LOCATION = 5;
+    static final int STAGE_BULK_INSERT = 6;
+    static final int STAGE_DELETE = 7;
+    static final int STAGE_UPDATE_WIDGETS = 8;
+    static final int STAGE_UPDATE_MUZEI = 9;
+    static final int STAGE_UPDATE_WATCHFACE = 10;
+    static final int STAGE_NOTIFY_WEATHER = 11;
+
+    // What each stage is called in the log, in the order above
+    static final String[] STAGE_NAMES = new String[] {
+            "build_url",
+            "connect",
+            "first_byte",
+            "download",
+            "parse",
+            "add_location",
+            "bulk_insert",
+            "delete",
+            "update_widgets",
+            "update_muzei",
+            "update_watchface",
+            "notify_weather"
+    };
+
+    private final long mSyncTimeMillis;
+    private final long[] mNanos = new long[STAGE_NAMES.length];
+    private final long[] mBytes = new long[STAGE_NAMES.length];
+    private final long[] mRows = new long[STAGE_NAMES.length];
+    private final boolean[] mRan = new boolean[STAGE_NAMES.length];
+
+    /** A trace nobody is going to log, for callers that don't keep one. */
+    SyncTrace() {
+        this(0);
+    }
+
+    SyncTrace(long syncTimeMillis) {
+        mSyncTimeMillis = syncTimeMillis;
+    }
+
+    /** Returns when the sync started, which is also what the sync is known by. */
+    long getSyncTimeMillis() {
+        return mSyncTimeMillis;
+    }
+
+    /**
+     * Adds the time from startNanos, a {@link System#nanoTime()}, until now to the stage.
+     *
+     * @return now, to start the next stage from
+     */
+    long end(int stage, long startNanos) {
+        long now = System.nanoTime();
+        add(stage, now - startNanos);
+        return now;
+    }
+
+    synchronized void add(int stage, long nanos) {
+        mNanos[stage] += nanos;
+        mRan[stage] = true;
+    }
+
+    synchronized void addBytes(int stage, long bytes) {
+        mBytes[stage] += bytes;
+    }
+
+    synchronized void addRows(int stage, long rows) {
+        mRows[stage] += rows;
+    }
+
+    synchronized long getNanos(int stage) {
+        return mNanos[stage];
+    }
+
+    /** Returns a sync_log row for every stage that ran. */
+    synchronized ContentValues[] toContentValues() {
+        List<ContentValues> rows = new ArrayList<>(STAGE_NAMES.length);
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            if (!mRan[stage]) {
+                continue;
+            }
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.SyncLogEntry.COLUMN_SYNC_TIME, mSyncTimeMillis);
+            values.put(WeatherContract.SyncLogEntry.COLUMN_STAGE, STAGE_NAMES[stage]);
+            values.put(WeatherContract.SyncLogEntry.COLUMN_DURATION, mNanos[stage] / 1000);
+            values.put(WeatherContract.SyncLogEntry.COLUMN_BYTES, mBytes[stage]);
+            values.put(WeatherContract.SyncLogEntry.COLUMN_ROWS, mRows[stage]);
+            rows.add(values);
+        }
+        return rows.toArray(new ContentValues[rows.size()]);
+    }
+
+    /** Logs the sync in the sync_log table, which keeps the most recent syncs. */
+    void save(Context context) {
+        ContentValues[] rows = toContentValues();
+        if (rows.length > 0) {
+            context.getContentResolver().bulkInsert(
+                    WeatherContract.SyncLogEntry.CONTENT_URI, rows);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            if (!mRan[stage]) {
+                continue;
+            }
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(STAGE_NAMES[stage]).append(' ')
+                    .append(mNanos[stage] / 1000000).append("ms");
+            if (mBytes[stage] > 0) {
+                builder.append(' ').append(mBytes[stage]).append('B');
+            }
+            if (mRows[stage] > 0) {
+                builder.append(' ').append(mRows[stage]).append(" rows");
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.net.HttpURLConnection;
+
+/**
+ * The HTTP cache validators (and a hash of the body) from the last forecast we stored for a
+ * given request, so that the next sync can ask the server whether anything changed at all.
+ *
+ * Validators are kept per request URL, which means per location.  They are only good for the
+ * day they were stored on: we map the first forecast day onto "today", so an unchanged
+ * response still has to be stored again once the date rolls over.  Nor are they good once the
+ * forecast they describe is gone from the database, however it went, so the sync only uses
+ * them while the location still has days stored.
+ */
+class SyncValidators {
+    private static final String PREFS_NAME = "sync_validators";
+
+    private static final String KEY_ETAG = ".etag";
+    private static final String KEY_LAST_MODIFIED = ".last_modified";
+    private static final String KEY_BODY_HASH = ".body_hash";
+    private static final String KEY_JULIAN_DAY = ".julian_day";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    final String requestKey;
+    final int julianDay;
+    final String etag;
+    final String lastModified;
+    final String bodyHash;
+
+    SyncValidators(String requestKey, int julianDay, String etag, String lastModified,
+                   String bodyHash) {
+        this.requestKey = requestKey;
+        this.julianDay = julianDay;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.bodyHash = bodyHash;
+    }
+
+    /**
+     * Returns the validators stored for this request today, or empty validators if there are
+     * none, which makes the next fetch unconditional.
+     */
+    static SyncValidators load(Context context, String requestKey, int julianDay) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (prefs.getInt(requestKey + KEY_JULIAN_DAY, -1) != julianDay) {
+            return new SyncValidators(requestKey, julianDay, null, null, null);
+        }
+        return new SyncValidators(requestKey, julianDay,
+                prefs.getString(requestKey + KEY_ETAG, null),
+                prefs.getString(requestKey + KEY_LAST_MODIFIED, null),
+                prefs.getString(requestKey + KEY_BODY_HASH, null));
+    }
+
+    /**
+     * Like {@link #load(Context, String, int)}, but returns empty validators if the location
+     * has no days stored from today on: a 304 would leave it with nothing to show.
+     */
+    static SyncValidators load(Context context, String requestKey, int julianDay,
+                               String locationSetting) {
+        SyncValidators validators = load(context, requestKey, julianDay);
+        if (validators.etag == null && validators.lastModified == null
+                && validators.bodyHash == null) {
+            return validators;
+        }
+        Cursor stored = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[] {WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        boolean hasDays = stored != null && stored.getCount() > 0;
+        if (stored != null) {
+            stored.close();
+        }
+        return hasDays ? validators : new SyncValidators(requestKey, julianDay, null, null, null);
+    }
+
+    /** Forgets every request's validators, so the next fetch of each is unconditional. */
+    static void clear(Context context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    /**
+     * Stores these validators.  Only call this once the matching forecast is in the database.
+     */
+    void save(Context context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putInt(requestKey + KEY_JULIAN_DAY, julianDay)
+                .putString(requestKey + KEY_ETAG, etag)
+                .putString(requestKey + KEY_LAST_MODIFIED, lastModified)
+                .putString(requestKey + KEY_BODY_HASH, bodyHash)
+                .commit();
+    }
+
+    /**
+     * Makes the request conditional on the forecast having changed since we last stored it.
+     */
+    void addRequestHeaders(HttpURLConnection urlConnection) {
+        if (etag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    /**
+     * Returns the validators describing a response that was just read.
+     */
+    SyncValidators fromResponse(HttpURLConnection urlConnection, String responseBodyHash) {
+        return new SyncValidators(requestKey, julianDay,
+                urlConnection.getHeaderField(HEADER_ETAG),
+                urlConnection.getHeaderField(HEADER_LAST_MODIFIED),
+                responseBodyHash);
+    }
+
+    boolean isSameBody(String responseBodyHash) {
+        return bodyHash != null && bodyHash.equals(responseBodyHash);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs the forecast the watch face shows into a few hundred bytes, so the watch can show each
+ * day as it comes and format the temperatures itself.  The location is sent along so the watch
+ * can work out when the sun rises and sets, and from that and the highs and lows, roughly how
+ * warm it is now.  The watch face's WatchForecast reads it; the two have to agree on the layout,
+ * which is, big-endian:
+ *
+ * <pre>
+ * header  version (byte), flags (byte, bit 0 = metric), first Julian day (int),
+ *         day count (byte), icon count (byte),
+ *         latitude and longitude in degrees (floats, NaN if unknown)
+ * icons   the SHA-1 of each icon (20 bytes each), see WatchIconCache
+ * days    Julian day - first Julian day (byte), weather id (short),
+ *         high and low in tenths of a degree Celsius (shorts), icon index (byte, 0xff = none)
+ * </pre>
+ *
+ * The metric flag is the units when the forecast was packed.  The watch goes by the units the
+ * phone sends separately when it has them, so a change of units doesn't wait for a forecast.
+ *
+ * Any change to the layout has to bump {@link #VERSION}; the watch ignores versions it doesn't
+ * know.
+ */
+final class WatchForecastEncoder {
+    static final int VERSION = 2;
+    static final int FLAG_METRIC = 1;
+    static final int HEADER_BYTES = 16;
+    static final int HASH_BYTES = 20;
+    static final int NO_ICON = 0xff;
+
+    private final int mFirstJulianDay;
+    private final boolean mMetric;
+    private final List<String> mIconHashes = new ArrayList<>();
+    private final ByteArrayOutputStream mDayBytes = new ByteArrayOutputStream();
+    private final DataOutputStream mDays = new DataOutputStream(mDayBytes);
+    private int mDayCount;
+    private float mLatitude = Float.NaN;
+    private float mLongitude = Float.NaN;
+
+    WatchForecastEncoder(int firstJulianDay, boolean metric) {
+        mFirstJulianDay = firstJulianDay;
+        mMetric = metric;
+    }
+
+    /** Sets where the forecast is for, in degrees north and east. */
+    void setLocation(double latitude, double longitude) {
+        mLatitude = (float) latitude;
+        mLongitude = (float) longitude;
+    }
+
+    /**
+     * Adds a day, in Celsius.  Days have to come in order, and at most 255 days after the
+     * first one.  The icon hash may be null.
+     */
+    void addDay(int julianDay, int weatherId, double high, double low, String iconHash) {
+        int offset = julianDay - mFirstJulianDay;
+        if (offset < 0 || offset > 0xff || mDayCount == 0xff) {
+            throw new IllegalArgumentException("Day " + julianDay + " doesn't fit");
+        }
+        int icon = NO_ICON;
+        if (iconHash != null) {
+            icon = mIconHashes.indexOf(iconHash);
+            if (icon == -1) {
+                icon = mIconHashes.size();
+                mIconHashes.add(iconHash);
+            }
+        }
+        try {
+            mDays.writeByte(offset);
+            mDays.writeShort(weatherId);
+            mDays.writeShort(toTenths(high));
+            mDays.writeShort(toTenths(low));
+            mDays.writeByte(icon);
+        } catch (IOException e) {
+            // Writing to memory doesn't fail
+            throw new IllegalStateException(e);
+        }
+        mDayCount++;
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_BYTES
+                + mIconHashes.size() * HASH_BYTES + mDayBytes.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            out.writeByte(mMetric ? FLAG_METRIC : 0);
+            out.writeInt(mFirstJulianDay);
+            out.writeByte(mDayCount);
+            out.writeByte(mIconHashes.size());
+            out.writeFloat(mLatitude);
+            out.writeFloat(mLongitude);
+            for (String hash : mIconHashes) {
+                out.write(fromHex(hash));
+            }
+            mDayBytes.writeTo(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static short toTenths(double temperature) {
+        long tenths = Math.round(temperature * 10);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, tenths));
+    }
+
+    private static byte[] fromHex(String hex) {
+        if (hex.length() != HASH_BYTES * 2) {
+            throw new IllegalArgumentException("Not a SHA-1: " + hex);
+        }
+        byte[] bytes = new byte[HASH_BYTES];
+        for (int i = 0; i < HASH_BYTES; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+/**
+ * The weather art, shrunk to the size the watch face draws it at and named by a hash of its
+ * PNG.  Each icon is put in the data layer once, as its own item under {@link #PATH_ICON}, and
+ * the weather item only carries the hash; the watch looks the icon up by hash and keeps the ones
+ * it decoded.  There are only a dozen or so pieces of art, so after the first few syncs nothing
+ * is decoded, encoded or sent for the icon at all.
+ *
+ * The hashes and which icons are in the data layer are kept in preferences, keyed by the art's
+ * resource name and the app version, since an update may change the art.
+ */
+final class WatchIconCache {
+    static final String PATH_ICON = "/icon/";
+    static final String KEY_ICON = "com.example.android.sunshine.app.KEY_ICON";
+
+    // The watch face draws the icon 36dp square, which is 72px on an xhdpi watch
+    static final int ICON_SIZE = 72;
+
+    private static final String PREFS_NAME = "watch_icons";
+    private static final String KEY_PUT = ".put";
+
+    private static WatchIconCache sInstance;
+
+    static synchronized WatchIconCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WatchIconCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Resources mResources;
+    private final SharedPreferences mPrefs;
+    private final SparseArray<String> mHashes = new SparseArray<>();
+    // Icons encoded by this process that aren't in the data layer yet, by hash
+    private final HashMap<String, byte[]> mUnput = new HashMap<>();
+
+    private WatchIconCache(Context context) {
+        mResources = context.getResources();
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the hash of the art at watch size, encoding it only if this version of the app
+     * hasn't before.
+     */
+    synchronized String getHash(int artResource) {
+        String hash = mHashes.get(artResource);
+        if (hash != null) {
+            return hash;
+        }
+        String key = getKey(artResource);
+        hash = mPrefs.getString(key, null);
+        if (hash == null) {
+            byte[] png = encode(artResource);
+            hash = ForecastFetcher.toHex(newDigest().digest(png));
+            mUnput.put(hash, png);
+            mPrefs.edit().putString(key, hash).apply();
+        }
+        mHashes.put(artResource, hash);
+        return hash;
+    }
+
+    /**
+     * Returns the request that puts the icon in the data layer, or null if it's there already.
+     * Call {@link #onPut(String)} once the request went through.
+     */
+    synchronized PutDataRequest getPutRequest(int artResource) {
+        String hash = getHash(artResource);
+        if (mPrefs.getBoolean(hash + KEY_PUT, false)) {
+            return null;
+        }
+        byte[] png = mUnput.get(hash);
+        if (png == null) {
+            // Hashed by an earlier process whose put didn't go through
+            png = encode(artResource);
+        }
+        PutDataMapRequest request = PutDataMapRequest.create(PATH_ICON + hash);
+        request.getDataMap().putAsset(KEY_ICON, Asset.createFromBytes(png));
+        // The weather that names this icon is urgent, so the icon has to keep up with it
+        request.setUrgent();
+        return request.asPutDataRequest();
+    }
+
+    synchronized void onPut(String hash) {
+        mUnput.remove(hash);
+        mPrefs.edit().putBoolean(hash + KEY_PUT, true).apply();
+    }
+
+    private String getKey(int artResource) {
+        return mResources.getResourceEntryName(artResource) + "@" + BuildConfig.VERSION_CODE;
+    }
+
+    // Decodes the art no bigger than it has to be, then scales it to fit ICON_SIZE
+    private byte[] encode(int artResource) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(mResources, artResource, options);
+        int largest = Math.max(options.outWidth, options.outHeight);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (largest / (options.inSampleSize * 2) >= ICON_SIZE) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap art = BitmapFactory.decodeResource(mResources, artResource, options);
+
+        float scale = (float) ICON_SIZE / Math.max(art.getWidth(), art.getHeight());
+        Bitmap icon = Bitmap.createScaledBitmap(art, Math.round(art.getWidth() * scale),
+                Math.round(art.getHeight() * scale), true);
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        icon.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
+        if (icon != art) {
+            icon.recycle();
+        }
+        art.recycle();
+        return byteStream.toByteArray();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release ships SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+}
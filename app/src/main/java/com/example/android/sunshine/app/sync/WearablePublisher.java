@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts data items for the watch face through one GoogleApiClient the whole process shares.
+ *
+ * Requests are queued by path and sent in order from a background thread.  A request for a path
+ * that is still queued replaces the one waiting there and goes to the back of the queue, so only
+ * the newest weather is ever sent, and after anything queued ahead of it.  The client connects
+ * when there's something to send and disconnects once nothing has been sent for
+ * {@link #IDLE_TIMEOUT_MS}.  If it can't connect, the requests stay queued and it tries again,
+ * waiting twice as long each time, up to {@link #MAX_RETRY_DELAY_MS}.  A request the data API
+ * turns down is queued again the same way, unless a newer one for its path has come in, and
+ * given up on after {@link #MAX_PUT_ATTEMPTS} tries.
+ */
+final class WearablePublisher {
+    private static final String LOG_TAG = WearablePublisher.class.getSimpleName();
+
+    private static final long CONNECT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long PUT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+    static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+    static final long MIN_RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+    static final long MAX_RETRY_DELAY_MS = TimeUnit.MINUTES.toMillis(30);
+    static final int MAX_PUT_ATTEMPTS = 3;
+
+    /** Hears whether a request went through. */
+    interface Callback {
+        void onPublished(boolean success);
+    }
+
+    private static WearablePublisher sInstance;
+
+    static synchronized WearablePublisher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearablePublisher(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final GoogleApiClient mGoogleApiClient;
+    final Handler mHandler;
+    private final Runnable mSendQueued = new Runnable() {
+        @Override
+        public void run() {
+            sendQueued();
+        }
+    };
+    private final Runnable mDisconnect = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(LOG_TAG, "Idle, disconnecting");
+            mGoogleApiClient.disconnect();
+        }
+    };
+
+    // Guarded by this
+    private final LinkedHashMap<String, Pending> mQueue = new LinkedHashMap<>();
+    private int mConnects;
+    private int mSends;
+    private int mCoalesced;
+    // Only touched on mHandler's thread
+    private long mRetryDelayMs = MIN_RETRY_DELAY_MS;
+
+    // Package-private so tests can make one of their own
+    WearablePublisher(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+        HandlerThread thread = new HandlerThread(LOG_TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Queues the request, replacing any request for the same path that hasn't gone out yet.
+     * The callback, which may be null, is told on the publisher's thread how it went, once it
+     * has gone through, been given up on or been replaced.
+     */
+    void publish(PutDataRequest request, Callback callback) {
+        String path = request.getUri().getPath();
+        Pending replaced;
+        synchronized (this) {
+            // Removed first, as putting a key that's there keeps its place in the queue
+            replaced = mQueue.remove(path);
+            mQueue.put(path, new Pending(request, callback, 0));
+            if (replaced != null) {
+                mCoalesced++;
+            }
+        }
+        if (replaced != null) {
+            Log.d(LOG_TAG, "Dropped an older request for " + path);
+            notifyFailed(replaced);
+        }
+        mHandler.post(mSendQueued);
+    }
+
+    private void notifyFailed(final Pending pending) {
+        if (pending.callback == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                pending.callback.onPublished(false);
+            }
+        });
+    }
+
+    /** The paths waiting to go out, in the order they will. */
+    synchronized List<String> getQueuedPaths() {
+        return new ArrayList<>(mQueue.keySet());
+    }
+
+    /** How many times the client connected. */
+    synchronized int getConnectCount() {
+        return mConnects;
+    }
+
+    /** How many requests went through. */
+    synchronized int getSendCount() {
+        return mSends;
+    }
+
+    /** How many requests were replaced by a newer one for the same path before going out. */
+    synchronized int getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    // Runs on mHandler's thread
+    private void sendQueued() {
+        List<Pending> sending;
+        synchronized (this) {
+            if (mQueue.isEmpty()) {
+                return;
+            }
+        }
+        mHandler.removeCallbacks(mDisconnect);
+
+        if (!mGoogleApiClient.isConnected()) {
+            ConnectionResult result =
+                    mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (!result.isSuccess()) {
+                if (result.getErrorCode() == ConnectionResult.API_UNAVAILABLE) {
+                    // No Wear app on this phone, so there's no watch to retry for
+                    Log.d(LOG_TAG, "Couldn't connect, the Wearable API isn't available");
+                    return;
+                }
+                Log.e(LOG_TAG, "Couldn't connect: " + result + ", retrying in "
+                        + mRetryDelayMs / 1000 + "s");
+                mHandler.removeCallbacks(mSendQueued);
+                mHandler.postDelayed(mSendQueued, mRetryDelayMs);
+                mRetryDelayMs = Math.min(mRetryDelayMs * 2, MAX_RETRY_DELAY_MS);
+                return;
+            }
+            mRetryDelayMs = MIN_RETRY_DELAY_MS;
+            synchronized (this) {
+                mConnects++;
+            }
+        }
+
+        synchronized (this) {
+            sending = new ArrayList<>(mQueue.values());
+            mQueue.clear();
+        }
+        boolean retrying = false;
+        for (Pending pending : sending) {
+            DataApi.DataItemResult result = Wearable.DataApi
+                    .putDataItem(mGoogleApiClient, pending.request)
+                    .await(PUT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            boolean success = result.getStatus().isSuccess();
+            if (success) {
+                synchronized (this) {
+                    mSends++;
+                }
+            } else {
+                Log.e(LOG_TAG, "Couldn't put " + pending.request.getUri() + ": "
+                        + result.getStatus());
+                if (requeue(pending)) {
+                    retrying = true;
+                    continue;
+                }
+            }
+            if (pending.callback != null) {
+                pending.callback.onPublished(success);
+            }
+        }
+        if (retrying) {
+            Log.d(LOG_TAG, "Retrying in " + mRetryDelayMs / 1000 + "s");
+            mHandler.removeCallbacks(mSendQueued);
+            mHandler.postDelayed(mSendQueued, mRetryDelayMs);
+            mRetryDelayMs = Math.min(mRetryDelayMs * 2, MAX_RETRY_DELAY_MS);
+        } else {
+            mRetryDelayMs = MIN_RETRY_DELAY_MS;
+        }
+        mHandler.postDelayed(mDisconnect, IDLE_TIMEOUT_MS);
+    }
+
+    /*
+        Queues a request that didn't go through again, unless it's been tried enough or a newer
+        one for its path is already waiting, in which case that one stands for it.
+     */
+    private synchronized boolean requeue(Pending pending) {
+        String path = pending.request.getUri().getPath();
+        if (pending.attempts + 1 >= MAX_PUT_ATTEMPTS || mQueue.containsKey(path)) {
+            return false;
+        }
+        mQueue.put(path, new Pending(pending.request, pending.callback, pending.attempts + 1));
+        return true;
+    }
+
+    private static class Pending {
+        final PutDataRequest request;
+        final Callback callback;
+        // How many times it was tried and turned down
+        final int attempts;
+
+        Pending(PutDataRequest request, Callback callback, int attempts) {
+            this.request = request;
+            this.callback = callback;
+            this.attempts = attempts;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * How forecast requests get to the weather server and back: how connections are opened, how
+ * the body is read off them and what's done with them afterwards.  {@link ForecastFetcher}
+ * makes every request through one.
+ *
+ * @see PlainWeatherTransport
+ * @see CachingWeatherTransport
+ */
+interface WeatherTransport {
+
+    /**
+     * Returns a GET request for the URL, ready for the caller to add headers to and connect.
+     */
+    HttpURLConnection open(URL url) throws IOException;
+
+    /**
+     * Returns the body of a connected request, decoded if it was sent compressed.  The caller
+     * reads it to the end if it can and closes it.
+     */
+    InputStream getBody(HttpURLConnection connection) throws IOException;
+
+    /** Lets go of the request once the caller is done with it, whether or not it went well. */
+    void release(HttpURLConnection connection);
+}
@@ -31,8 +31,11 @@ import android.widget.RemoteViews;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SunshinePrefs;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
  * IntentService which handles updating all Today widgets with the latest data
@@ -61,12 +64,20 @@ public class TodayWidgetIntentService extends IntentService {
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
 
-        // Get today's data from the ContentProvider
-        String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        // Get today's data from the sync that just stored it, or else from the ContentProvider
+        String location = SunshinePrefs.get(this).preferredLocation;
+        long syncId = intent == null
+                ? 0 : intent.getLongExtra(SunshineSyncAdapter.EXTRA_SYNC_ID, 0);
+        ForecastSnapshot snapshot = ForecastSnapshot.get(syncId, location);
+        Cursor data;
+        if (snapshot != null) {
+            data = snapshot.newCursor(FORECAST_COLUMNS, System.currentTimeMillis());
+        } else {
+            Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                    .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
+            data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
+                    null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        }
         if (data == null) {
             return;
         }
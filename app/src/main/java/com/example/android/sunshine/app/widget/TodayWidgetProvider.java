@@ -47,7 +47,10 @@ public class TodayWidgetProvider extends AppWidgetProvider {
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
-            context.startService(new Intent(context, TodayWidgetIntentService.class));
+            // Passed on so the service can read the sync's snapshot
+            context.startService(new Intent(context, TodayWidgetIntentService.class)
+                    .putExtra(SunshineSyncAdapter.EXTRA_SYNC_ID,
+                            intent.getLongExtra(SunshineSyncAdapter.EXTRA_SYNC_ID, 0)));
         }
     }
 }
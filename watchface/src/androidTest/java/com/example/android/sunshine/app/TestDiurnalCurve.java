@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+/*
+    Checks the shape of the temperature curve: coldest at sunrise, warmest a while after solar
+    noon, in solar time at the forecast's longitude whatever the watch's time zone, and still
+    sensible where the sun doesn't rise or doesn't set.
+ */
+public class TestDiurnalCurve extends AndroidTestCase {
+
+    private static final int HIGH = 200;
+    private static final int LOW = 100;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int SOLAR_NOON = 12 * 60;
+
+    // Mountain View, and Longyearbyen, well inside the Arctic circle
+    private static final double MOUNTAIN_VIEW_LAT = 37.39;
+    private static final float MOUNTAIN_VIEW_LONG = -122.08f;
+    private static final double LONGYEARBYEN_LAT = 78.22;
+    private static final double LONGYEARBYEN_LONG = 15.63;
+
+    // The Julian days of the March equinox and the solstices in 2016
+    private static final int MARCH_EQUINOX = 2457468;
+    private static final int JUNE_SOLSTICE = 2457561;
+    private static final int DECEMBER_SOLSTICE = 2457744;
+
+    public void testColdestAtSunriseWarmestAfterNoon() {
+        DiurnalCurve curve = new DiurnalCurve(6, 18, HIGH, LOW, HIGH, LOW, LOW);
+        assertEquals("Error: it isn't coldest at sunrise", LOW, curve.getTenths(6 * 60));
+        assertEquals("Error: it isn't warmest an hour and a half after noon",
+                HIGH, curve.getTenths(13 * 60 + 30));
+        assertTrue("Error: it warmed up before sunrise",
+                curve.getTenths(5 * 60) >= curve.getTenths(6 * 60));
+    }
+
+    public void testCurveFollowsTheSunAtTheLocation() {
+        DiurnalCurve curve = DiurnalCurve.forLocation(MARCH_EQUINOX, MOUNTAIN_VIEW_LAT,
+                MOUNTAIN_VIEW_LONG, HIGH, LOW, HIGH, LOW, LOW);
+        int coldest = findColdestMinute(curve);
+        int warmest = findWarmestMinute(curve);
+        assertTrue("Error: the coldest minute, " + coldest + ", isn't around sunrise",
+                coldest > 5 * 60 && coldest < 7 * 60);
+        assertTrue("Error: the warmest minute, " + warmest + ", isn't after solar noon",
+                warmest > SOLAR_NOON && warmest < 15 * 60);
+        assertEquals(LOW, curve.getTenths(coldest));
+        assertEquals(HIGH, curve.getTenths(warmest));
+    }
+
+    public void testSolarTimeGoesByLongitude() {
+        // The sun was highest over Mountain View at 20:08 UTC on the equinox
+        long solarNoon = 1458504480000L;
+        int minute = DiurnalCurve.getSolarMinuteOfDay(solarNoon, MOUNTAIN_VIEW_LONG);
+        assertTrue("Error: solar noon came at minute " + minute + " of the day",
+                Math.abs(minute - SOLAR_NOON) <= 2);
+        assertEquals(MARCH_EQUINOX,
+                DiurnalCurve.getSolarJulianDay(solarNoon, MOUNTAIN_VIEW_LONG));
+        // Solar midnight is four hours on, and it's the next day then
+        assertEquals(MARCH_EQUINOX + 1, DiurnalCurve.getSolarJulianDay(
+                solarNoon + 12 * 60 * 60 * 1000 + 5 * 60 * 1000, MOUNTAIN_VIEW_LONG));
+    }
+
+    public void testPolarDay() {
+        DiurnalCurve curve = DiurnalCurve.forLocation(JUNE_SOLSTICE, LONGYEARBYEN_LAT,
+                LONGYEARBYEN_LONG, HIGH, LOW, HIGH, LOW, LOW);
+        assertWithinHighAndLow(curve);
+        int warmest = findWarmestMinute(curve);
+        assertTrue("Error: the warmest minute under the midnight sun, " + warmest
+                + ", isn't after solar noon", warmest > SOLAR_NOON);
+    }
+
+    public void testPolarNight() {
+        DiurnalCurve curve = DiurnalCurve.forLocation(DECEMBER_SOLSTICE, LONGYEARBYEN_LAT,
+                LONGYEARBYEN_LONG, HIGH, LOW, HIGH, LOW, LOW);
+        assertWithinHighAndLow(curve);
+    }
+
+    private static void assertWithinHighAndLow(DiurnalCurve curve) {
+        for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+            int tenths = curve.getTenths(minute);
+            assertTrue("Error: " + tenths + " at minute " + minute + " is out of range",
+                    tenths >= LOW && tenths <= HIGH);
+        }
+    }
+
+    private static int findColdestMinute(DiurnalCurve curve) {
+        int coldest = 0;
+        for (int minute = 1; minute < MINUTES_PER_DAY; minute++) {
+            if (curve.getTenths(minute) < curve.getTenths(coldest)) {
+                coldest = minute;
+            }
+        }
+        return coldest;
+    }
+
+    private static int findWarmestMinute(DiurnalCurve curve) {
+        int warmest = 0;
+        for (int minute = 1; minute < MINUTES_PER_DAY; minute++) {
+            if (curve.getTenths(minute) > curve.getTenths(warmest)) {
+                warmest = minute;
+            }
+        }
+        return warmest;
+    }
+}
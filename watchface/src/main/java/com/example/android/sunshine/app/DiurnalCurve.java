@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Roughly how warm it is through a day, worked out from the day's high and low, the days either
+ * side of it and when the sun rises and sets where the forecast is for.  The phone only sends
+ * highs and lows, so this lets the watch face show the temperature now without the phone
+ * syncing every hour.
+ *
+ * The curve is Parton and Logan's: from sunrise the temperature climbs from the low along a sine
+ * that peaks at the high {@link #PEAK_LAG_HOURS} after solar noon, and after sunset it falls away
+ * exponentially to the next day's low at the next sunrise.  It's worked out once a day, every
+ * {@link #SLOT_MINUTES} minutes, into a table; reading it is a lookup and an interpolation.
+ *
+ * The day runs in local mean solar time where the forecast is for, which goes by longitude
+ * alone, as the sun does.  So the curve doesn't depend on the watch's time zone, nor on the
+ * forecast location's, which the phone doesn't send.
+ */
+class DiurnalCurve {
+
+    private static final int SLOT_MINUTES = 15;
+    private static final int SLOTS = (int) (TimeUnit.DAYS.toMinutes(1) / SLOT_MINUTES);
+    private static final double HOURS_PER_SLOT = SLOT_MINUTES / 60.0;
+
+    // How long after solar noon it's warmest
+    private static final double PEAK_LAG_HOURS = 1.5;
+    // How quickly it cools after sunset; Parton and Logan's value for air 1.5m up
+    private static final double NIGHT_DECAY = 2.2;
+
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long HOUR_IN_MILLIS = TimeUnit.HOURS.toMillis(1);
+    // The Julian day of the epoch, and of noon on the 1st of January 2000
+    private static final int EPOCH_JULIAN_DAY = 2440588;
+    private static final int J2000_JULIAN_DAY = 2451545;
+    // Where the sun's center is when its top edge is on the horizon, refraction included
+    private static final double SUNRISE_ALTITUDE = -0.833;
+    private static final double AXIAL_TILT = 23.44;
+
+    // Tenths of a degree Celsius at the start of each slot, and at the midnight after
+    private final short[] mTenths = new short[SLOTS + 1];
+
+    /**
+     * Works out the curve for the given day.  Sunrise and sunset are given in hours after the
+     * day's midnight, temperatures in tenths of a degree Celsius.
+     */
+    DiurnalCurve(double sunrise, double sunset, int previousHigh, int previousLow, int high,
+                 int low, int nextLow) {
+        double dayHours = sunset - sunrise;
+        double nightHours = 24 - dayHours;
+        double previousSunsetTemp = daytime(dayHours, dayHours, previousLow, previousHigh);
+        double sunsetTemp = daytime(dayHours, dayHours, low, high);
+        for (int slot = 0; slot <= SLOTS; slot++) {
+            double hours = slot * HOURS_PER_SLOT;
+            double temp;
+            if (hours < sunrise) {
+                temp = night(hours + 24 - sunset, nightHours, previousSunsetTemp, low);
+            } else if (hours <= sunset) {
+                temp = daytime(hours - sunrise, dayHours, low, high);
+            } else {
+                temp = night(hours - sunset, nightHours, sunsetTemp, nextLow);
+            }
+            mTenths[slot] = (short) Math.round(temp);
+        }
+    }
+
+    /**
+     * Returns the curve for the given day of the forecast, or null if the forecast hasn't got
+     * that day or doesn't say where it's for.  The day is counted in solar time where the
+     * forecast is for, see {@link #getSolarJulianDay(long, float)}.  Days either side the
+     * forecast hasn't got are taken to be like this one.
+     */
+    static DiurnalCurve forDay(WatchForecast forecast, int julianDay) {
+        int day = forecast.indexOf(julianDay);
+        if (day == -1 || !forecast.hasLocation()) {
+            return null;
+        }
+        int previous = forecast.indexOf(julianDay - 1);
+        int next = forecast.indexOf(julianDay + 1);
+        int high = forecast.getHighTenths(day);
+        int low = forecast.getLowTenths(day);
+        return forLocation(julianDay, forecast.getLatitude(), forecast.getLongitude(),
+                previous != -1 ? forecast.getHighTenths(previous) : high,
+                previous != -1 ? forecast.getLowTenths(previous) : low,
+                high, low,
+                next != -1 ? forecast.getLowTenths(next) : low);
+    }
+
+    /**
+     * Works out the curve for the given solar day at a location, in degrees north and east,
+     * from temperatures in tenths of a degree Celsius.
+     */
+    static DiurnalCurve forLocation(int julianDay, double latitude, double longitude,
+                                    int previousHigh, int previousLow, int high, int low,
+                                    int nextLow) {
+        // Solar midnight at the start of the day, there
+        long midnight = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS
+                - getSolarOffsetMillis(longitude);
+        double[] sun = getSunriseAndSunset(julianDay, latitude, longitude);
+        return new DiurnalCurve(
+                (double) (toMillis(sun[0]) - midnight) / HOUR_IN_MILLIS,
+                (double) (toMillis(sun[1]) - midnight) / HOUR_IN_MILLIS,
+                previousHigh, previousLow, high, low, nextLow);
+    }
+
+    /** Returns the Julian day it is at the given time in solar time at the longitude. */
+    static int getSolarJulianDay(long timeMillis, float longitude) {
+        long solarMillis = timeMillis + getSolarOffsetMillis(longitude);
+        return (int) Math.floor((double) solarMillis / DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /** Returns the minute of the day it is at the given time in solar time at the longitude. */
+    static int getSolarMinuteOfDay(long timeMillis, float longitude) {
+        long solarMillis = timeMillis + getSolarOffsetMillis(longitude);
+        long intoDay = ((solarMillis % DAY_IN_MILLIS) + DAY_IN_MILLIS) % DAY_IN_MILLIS;
+        return (int) (intoDay / TimeUnit.MINUTES.toMillis(1));
+    }
+
+    // Four minutes a degree east of Greenwich
+    private static long getSolarOffsetMillis(double longitude) {
+        return Math.round(longitude / 360 * DAY_IN_MILLIS);
+    }
+
+    /** Returns how warm it is the given number of minutes after midnight, in tenths of a degree. */
+    int getTenths(int minuteOfDay) {
+        int slot = Math.max(0, Math.min(SLOTS - 1, minuteOfDay / SLOT_MINUTES));
+        int into = minuteOfDay - slot * SLOT_MINUTES;
+        int from = mTenths[slot];
+        return from + (mTenths[slot + 1] - from) * into / SLOT_MINUTES;
+    }
+
+    // Climbing from the low at sunrise, hours after it, to the high after noon
+    private static double daytime(double hours, double dayHours, int low, int high) {
+        return low + (high - low) * Math.sin(Math.PI * hours / (dayHours + 2 * PEAK_LAG_HOURS));
+    }
+
+    // Cooling from the temperature at sunset, hours after it, to the low at the next sunrise
+    private static double night(double hours, double nightHours, double sunsetTemp, int low) {
+        if (nightHours <= 0) {
+            return sunsetTemp;
+        }
+        double end = Math.exp(-NIGHT_DECAY);
+        double fraction = Math.max(0, Math.min(1, hours / nightHours));
+        return low + (sunsetTemp - low) * (Math.exp(-NIGHT_DECAY * fraction) - end) / (1 - end);
+    }
+
+    /*
+        Works out when the sun rises and sets on the given day, as Julian dates, with the
+        sunrise equation; it's good to a minute or two, which is plenty here.  Where the sun
+        doesn't rise, sunrise and sunset are both solar noon; where it doesn't set, they're a
+        day apart.
+     */
+    static double[] getSunriseAndSunset(int julianDay, double latitude, double longitude) {
+        double meanSolarNoon = julianDay - J2000_JULIAN_DAY + 0.0008 - longitude / 360;
+        double anomaly = Math.toRadians((357.5291 + 0.98560028 * meanSolarNoon) % 360);
+        double center = 1.9148 * Math.sin(anomaly) + 0.02 * Math.sin(2 * anomaly)
+                + 0.0003 * Math.sin(3 * anomaly);
+        double eclipticLongitude = Math.toRadians(
+                (Math.toDegrees(anomaly) + center + 180 + 102.9372) % 360);
+        double transit = J2000_JULIAN_DAY + meanSolarNoon + 0.0053 * Math.sin(anomaly)
+                - 0.0069 * Math.sin(2 * eclipticLongitude);
+
+        double sinDeclination = Math.sin(eclipticLongitude) * Math.sin(Math.toRadians(AXIAL_TILT));
+        double cosDeclination = Math.cos(Math.asin(sinDeclination));
+        double lat = Math.toRadians(latitude);
+        double cosHourAngle = (Math.sin(Math.toRadians(SUNRISE_ALTITUDE))
+                - Math.sin(lat) * sinDeclination) / (Math.cos(lat) * cosDeclination);
+        double hourAngle = Math.acos(Math.max(-1, Math.min(1, cosHourAngle)));
+        double halfDay = Math.toDegrees(hourAngle) / 360;
+        return new double[] {transit - halfDay, transit + halfDay};
+    }
+
+    // Julian dates start at noon
+    private static long toMillis(double julianDate) {
+        return Math.round((julianDate - EPOCH_JULIAN_DAY + 0.5) * DAY_IN_MILLIS);
+    }
+}
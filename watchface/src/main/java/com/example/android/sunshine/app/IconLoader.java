@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads weather icons by hash on one background thread: from the {@link WeatherSnapshotStore}
+ * if they were kept before, from the data layer otherwise.
+ *
+ * Only the latest icon asked for is loaded; asking for another before the thread gets to it
+ * replaces the request.  Icons are decoded no bigger than the watch face draws them, into a
+ * bitmap the cache let go of when there is one, and kept in a cache every engine shares.  The
+ * data layer is only read while the engine's client is connected, and the client is left to
+ * the engine; a request made while it isn't connected is simply dropped, as the engine asks
+ * again once it connects.
+ */
+class IconLoader {
+    private static final String TAG = IconLoader.class.getSimpleName();
+
+    private static final long TIMEOUT_MS = 2000;
+
+    /** Hears about each icon loaded, on the main thread. */
+    interface Callback {
+        void onIconLoaded(String hash, Bitmap icon);
+    }
+
+    // At most one bitmap the cache let go of, for the next decode to reuse
+    private static Bitmap sReusable;
+
+    /**
+     * Decoded weather icons by the hash the phone names them with.  There are only a dozen or
+     * so, so this holds all of them and outlives the engines.  An icon is only let go of when
+     * another is put, after at least one more recent get, so it's never the one being shown.
+     */
+    private static final LruCache<String, Bitmap> sIcons = new LruCache<String, Bitmap>(16) {
+        @Override
+        protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                                    Bitmap newValue) {
+            if (evicted && oldValue.isMutable()) {
+                synchronized (IconLoader.class) {
+                    sReusable = oldValue;
+                }
+            }
+        }
+    };
+
+    /** Returns the icon with the hash if it's been decoded, or null. */
+    static Bitmap getCached(String hash) {
+        return sIcons.get(hash);
+    }
+
+    private final WeatherSnapshotStore mStore;
+    private final GoogleApiClient mGoogleApiClient;
+    private final int mIconSize;
+    private final Callback mCallback;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mLoadLatest = new Runnable() {
+        @Override
+        public void run() {
+            loadLatest();
+        }
+    };
+
+    // Guarded by this
+    private String mPendingHash;
+    private Asset mPendingAsset;
+
+    IconLoader(WeatherSnapshotStore store, GoogleApiClient googleApiClient, int iconSize,
+               Callback callback) {
+        mStore = store;
+        mGoogleApiClient = googleApiClient;
+        mIconSize = iconSize;
+        mCallback = callback;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Loads the icon in the background, replacing the request waiting if there is one.  The
+     * asset may be null, in which case it's looked up.
+     */
+    void load(String hash, Asset asset) {
+        synchronized (this) {
+            if (mPendingHash != null) {
+                WatchFaceMetrics.get().recordIconRequestDropped();
+            }
+            mPendingHash = hash;
+            mPendingAsset = asset;
+        }
+        mHandler.removeCallbacks(mLoadLatest);
+        mHandler.post(mLoadLatest);
+    }
+
+    /**
+     * Decodes the icon from the store on the calling thread, for an engine that's starting up.
+     * Returns null if it isn't in the store.
+     */
+    Bitmap loadNow(String hash) {
+        byte[] png = mStore.loadIcon(hash);
+        return png != null ? decodeAndCache(hash, png) : null;
+    }
+
+    void quit() {
+        mThread.quit();
+    }
+
+    // Runs on mThread
+    private void loadLatest() {
+        final String hash;
+        Asset asset;
+        synchronized (this) {
+            hash = mPendingHash;
+            asset = mPendingAsset;
+            mPendingHash = null;
+            mPendingAsset = null;
+        }
+        if (hash == null || sIcons.get(hash) != null) {
+            return;
+        }
+
+        byte[] png = mStore.loadIcon(hash);
+        if (png == null) {
+            png = readFromDataLayer(hash, asset);
+            if (png == null) {
+                return;
+            }
+            // Kept for the next engine
+            mStore.saveIcon(hash, png);
+        }
+        final Bitmap icon = decodeAndCache(hash, png);
+        if (icon != null) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onIconLoaded(hash, icon);
+                }
+            });
+        }
+    }
+
+    private byte[] readFromDataLayer(String hash, Asset asset) {
+        if (!mGoogleApiClient.isConnected()) {
+            Log.d(TAG, "Not connected, leaving icon " + hash + " for later");
+            return null;
+        }
+        if (asset == null) {
+            asset = findAsset(hash);
+            if (asset == null) {
+                // Not here yet; the engine hears about it when it is
+                Log.d(TAG, "Icon " + hash + " not in the data layer yet.");
+                return null;
+            }
+        }
+        DataApi.GetFdForAssetResult result = Wearable.DataApi
+                .getFdForAsset(mGoogleApiClient, asset)
+                .await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        InputStream in = result.getInputStream();
+        if (in == null) {
+            Log.w(TAG, "Requested an unknown Asset.");
+            return null;
+        }
+        try {
+            return readFully(in);
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't read icon " + hash, e);
+            return null;
+        }
+    }
+
+    // Any node's item will do; the same hash is the same icon
+    private Asset findAsset(String hash) {
+        Uri uri = new Uri.Builder()
+                .scheme(PutDataRequest.WEAR_URI_SCHEME)
+                .path(SunshineWatchFace.PATH_ICON + hash)
+                .build();
+        DataItemBuffer items = Wearable.DataApi.getDataItems(mGoogleApiClient, uri)
+                .await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        try {
+            if (!items.getStatus().isSuccess() || items.getCount() == 0) {
+                return null;
+            }
+            return DataMapItem.fromDataItem(items.get(0)).getDataMap()
+                    .getAsset(SunshineWatchFace.KEY_ICON);
+        } finally {
+            items.release();
+        }
+    }
+
+    private Bitmap decodeAndCache(String hash, byte[] png) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        Bitmap icon = decode(png);
+        long nanos = SystemClock.elapsedRealtimeNanos() - start;
+        if (icon == null) {
+            Log.w(TAG, "Couldn't decode icon " + hash);
+            return null;
+        }
+        WatchFaceMetrics.get().recordDecode(nanos);
+        Log.d(TAG, String.format(Locale.US, "Decoded icon %s at %dx%d in %.2fms", hash,
+                icon.getWidth(), icon.getHeight(), nanos / 1e6));
+        sIcons.put(hash, icon);
+        return icon;
+    }
+
+    // Decodes no bigger than it has to be, into a bitmap the cache let go of if it fits
+    private Bitmap decode(byte[] png) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(png, 0, png.length, options);
+        int largest = Math.max(options.outWidth, options.outHeight);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (largest / (options.inSampleSize * 2) >= mIconSize) {
+            options.inSampleSize *= 2;
+        }
+        options.inMutable = true;
+        synchronized (IconLoader.class) {
+            options.inBitmap = sReusable;
+            sReusable = null;
+        }
+        try {
+            return BitmapFactory.decodeByteArray(png, 0, png.length, options);
+        } catch (IllegalArgumentException e) {
+            // Too small to reuse for this one
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(png, 0, png.length, options);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
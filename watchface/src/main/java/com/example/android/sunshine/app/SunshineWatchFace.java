@@ -16,54 +16,47 @@
 
 package com.example.android.sunshine.app;
 
-import android.annotation.SuppressLint;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Point;
 import android.graphics.Rect;
-import android.graphics.Typeface;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.v4.content.ContextCompat;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.text.SpannableStringBuilder;
-import android.text.style.StyleSpan;
 import android.util.Log;
-import android.view.Display;
 import android.view.Gravity;
-import android.view.LayoutInflater;
 import android.view.SurfaceHolder;
-import android.view.View;
-import android.view.WindowManager;
-import android.widget.ImageView;
-import android.widget.LinearLayout;
-import android.widget.TextView;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import java.io.InputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.Locale;
+import java.util.Arrays;
+import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -72,10 +65,14 @@ import java.util.concurrent.TimeUnit;
  */
 public class SunshineWatchFace extends CanvasWatchFaceService {
 
+    private static final String TAG = SunshineWatchFace.class.getSimpleName();
+
     public static final String PATH_WEATHER = "/weather";
-    public static final String KEY_TEMP_HIGH = "com.example.android.sunshine.app.KEY_TEMP_HIGH";
-    public static final String KEY_TEMP_LOW = "com.example.android.sunshine.app.KEY_TEMP_LOW";
-    public static final String KEY_WEATHER_ICON = "com.example.android.sunshine.app.KEY_WEATHER_ICON";
+    public static final String KEY_FORECAST = "com.example.android.sunshine.app.KEY_FORECAST";
+    public static final String PATH_ICON = "/icon/";
+    public static final String KEY_ICON = "com.example.android.sunshine.app.KEY_ICON";
+    public static final String PATH_UNITS = "/units";
+    public static final String KEY_METRIC = "com.example.android.sunshine.app.KEY_METRIC";
 
     /**
      * Update rate in milliseconds for interactive mode. We update once a second since seconds are
@@ -88,11 +85,37 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * How long a new engine may spend reading back the last weather before it has to leave the
+     * icon to load in the background.
+     */
+    private static final long RESTORE_BUDGET_MS = 50;
+
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long MINUTE_IN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    // The Julian day of the epoch, which Time.getJulianDay() counts from
+    private static final int EPOCH_JULIAN_DAY = 2440588;
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
     }
 
+    /**
+     * Adds the {@link WatchFaceMetrics} to dumpsys, also writing them to a file when asked to
+     * with "export".
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter out, String[] args) {
+        super.dump(fd, out, args);
+        WatchFaceMetrics metrics = WatchFaceMetrics.get();
+        metrics.dump(out);
+        if (args != null && Arrays.asList(args).contains("export")) {
+            metrics.export(getFilesDir());
+            out.println("Exported to " + new File(getFilesDir(), WatchFaceMetrics.EXPORT_FILE));
+        }
+    }
+
     private static class EngineHandler extends Handler {
         private final WeakReference<SunshineWatchFace.Engine> mWeakReference;
 
@@ -115,33 +138,46 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
     private class Engine extends CanvasWatchFaceService.Engine {
         private final Handler mUpdateTimeHandler = new EngineHandler(this);
-        private final Point mDisplaySize = new Point();
-        private final SimpleDateFormat mFullTimeFormat = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
-        private final SimpleDateFormat mShortTimeFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
-        private final SimpleDateFormat mDateFormat = new SimpleDateFormat("EEE MMM dd yyyy", Locale.getDefault());
+        private final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                setTimeZone(TimeZone.getDefault());
+                invalidate();
+            }
+        };
+        private boolean mRegisteredTimeZoneReceiver;
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
          */
         private boolean mLowBitAmbient;
         private boolean mInAmbientMode;
-        private Date mDate;
-        private int mSpecW, mSpecH;
-        private View mLayout;
-        private int mBackgroundColor;
-        private LinearLayout mBackground;
-        private TextView mTimeTextView;
-        private TextView mDateTextView;
-        private ImageView mWeatherIcon;
-        private TextView mHighTempTextView;
-        private TextView mLowTempTextView;
+        private WatchFaceRenderer mRenderer;
+
+        private final WatchFaceMetrics mMetrics = WatchFaceMetrics.get();
+        // When the next interactive update is due, 0 if none is
+        private long mNextUpdateMillis;
 
         private SunshineWeatherUpdater mWeatherUpdater;
-        private String mHighTemp;
-        private String mLowTemp;
-        private Bitmap mIconBitmap;
+        // The hash of the icon the weather we're showing names
+        private String mIconHash;
+        private WatchForecast mForecast;
+        // The units the phone last said to use, which win over the forecast's own flag
+        private boolean mHaveUnits;
+        private boolean mMetric;
+        // The day of the forecast we're showing, so we move on to the next one at midnight
+        private int mShownJulianDay = -1;
+        // Roughly how warm it is through the solar day it is where the forecast is for, which
+        // day that is, the minute we last looked at it and the degrees and units shown then
+        private DiurnalCurve mCurve;
+        private int mCurveJulianDay = -1;
+        private int mShownMinute = -1;
+        private int mShownDegrees = Integer.MIN_VALUE;
+        private boolean mShownMetric;
+        private TimeZone mTimeZone = TimeZone.getDefault();
+        private WeatherSnapshotStore mSnapshots;
+        private IconLoader mIconLoader;
 
-        @SuppressLint("InflateParams")
         @Override
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
@@ -155,46 +191,76 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                     .setAcceptsTapEvents(true)
                     .build());
 
-            // Inflate layout from XML rather than directly draw on canvas, using method described
-            // at https://sterlingudell.wordpress.com/2015/05/10/layout-based-watch-faces-for-android-wear/
-            // Layout is inflated with no parent root, so this must be manually resolved in onDraw()
-            LayoutInflater layoutInflater = (LayoutInflater) getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-            mLayout = layoutInflater.inflate(R.layout.watchface_rect, null);
-
-            Display display = ((WindowManager) getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
-            display.getSize(mDisplaySize);
-
-            mSpecW = View.MeasureSpec.makeMeasureSpec(mDisplaySize.x, View.MeasureSpec.EXACTLY);
-            mSpecH = View.MeasureSpec.makeMeasureSpec(mDisplaySize.y, View.MeasureSpec.EXACTLY);
-
-            mBackground = (LinearLayout) mLayout.findViewById(R.id.watchface_background);
-            mTimeTextView = (TextView) mLayout.findViewById(R.id.time_text);
-            mDateTextView = (TextView) mLayout.findViewById(R.id.date_text);
-            mWeatherIcon = (ImageView) mLayout.findViewById(R.id.weather_icon);
-            mHighTempTextView = (TextView) mLayout.findViewById(R.id.high_temp_text);
-            mLowTempTextView = (TextView) mLayout.findViewById(R.id.low_temp_text);
-
-            mBackgroundColor = ContextCompat.getColor(SunshineWatchFace.this, R.color.md_light_blue_500);
+            // Drawn straight onto the canvas; the renderer works out where everything goes
+            // whenever the surface size, the mode or the weather changes, not every frame
+            mRenderer = new WatchFaceRenderer(SunshineWatchFace.this);
 
             mWeatherUpdater = new SunshineWeatherUpdater(this);
+            mSnapshots = new WeatherSnapshotStore(SunshineWatchFace.this);
+            mIconLoader = new IconLoader(mSnapshots, mWeatherUpdater.getClient(),
+                    getResources().getDimensionPixelSize(R.dimen.weather_icon_size),
+                    new IconLoader.Callback() {
+                        @Override
+                        public void onIconLoaded(String hash, Bitmap icon) {
+                            if (hash.equals(mIconHash)) {
+                                setWeatherIcon(icon);
+                            }
+                        }
+                    });
+            restoreSnapshot();
             mWeatherUpdater.register();
         }
 
+        /**
+         * Shows the last weather the phone sent, as saved by {@link WeatherSnapshotStore}, so a
+         * new engine doesn't sit empty until the phone next syncs.  Reading the forecast takes
+         * next to nothing; the icon is only decoded here if there's still time in
+         * {@link #RESTORE_BUDGET_MS}, and is otherwise left to {@link #showIcon(String)}.
+         */
+        private void restoreSnapshot() {
+            long start = SystemClock.elapsedRealtime();
+            mForecast = WatchForecast.fromBytes(mSnapshots.loadForecast());
+            if (mForecast == null) {
+                return;
+            }
+            int julianDay = getJulianDay(System.currentTimeMillis());
+            int day = mForecast.indexOf(julianDay);
+            String hash = day != -1 ? mForecast.getIconHash(day) : null;
+            if (hash != null && IconLoader.getCached(hash) == null
+                    && SystemClock.elapsedRealtime() - start < RESTORE_BUDGET_MS) {
+                mIconLoader.loadNow(hash);
+            }
+            showNow();
+            Log.d(TAG, "restoreSnapshot: took " + (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
             mWeatherUpdater.unregister();
+            mIconLoader.quit();
+            mRenderer.release();
             super.onDestroy();
         }
 
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            mRenderer.setSize(width, height);
+        }
+
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
 
             if (visible) {
                 mWeatherUpdater.register();
+                registerTimeZoneReceiver();
+                // The time zone may have changed while we weren't listening
+                setTimeZone(TimeZone.getDefault());
             } else {
                 mWeatherUpdater.unregister();
+                unregisterTimeZoneReceiver();
             }
 
             // Whether the timer should be running depends on whether we're visible (as well as
@@ -206,11 +272,13 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            mRenderer.setAmbient(mInAmbientMode, mLowBitAmbient);
         }
 
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            updateForTime(System.currentTimeMillis());
             invalidate();
         }
 
@@ -219,12 +287,8 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             if (mInAmbientMode != inAmbientMode) {
                 mInAmbientMode = inAmbientMode;
-                if (mLowBitAmbient) {
-                    mTimeTextView.getPaint().setAntiAlias(!mInAmbientMode);
-                    mDateTextView.getPaint().setAntiAlias(!mInAmbientMode);
-                    mHighTempTextView.getPaint().setAntiAlias(!mInAmbientMode);
-                    mLowTempTextView.getPaint().setAntiAlias(!mInAmbientMode);
-                }
+                mRenderer.setAmbient(mInAmbientMode, mLowBitAmbient);
+                updateForTime(System.currentTimeMillis());
                 invalidate();
             }
 
@@ -253,38 +317,189 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            mDate = Calendar.getInstance().getTime();
-
-            mTimeTextView.setText(getFormattedTime());
-            mDateTextView.setText(mDateFormat.format(mDate.getTime()));
-            mHighTempTextView.setText(mHighTemp);
-            mLowTempTextView.setText(mLowTemp);
-            mWeatherIcon.setImageBitmap(mIconBitmap);
+            long start = System.nanoTime();
+            mRenderer.draw(canvas, System.currentTimeMillis());
+            mMetrics.recordFrame(System.nanoTime() - start, mInAmbientMode);
+        }
 
-            if (isInAmbientMode()) {
-                mBackground.setBackgroundColor(Color.BLACK);
-                mWeatherIcon.setVisibility(View.GONE);
-            } else {
-                mBackground.setBackgroundColor(mBackgroundColor);
-                mWeatherIcon.setVisibility(View.VISIBLE);
+        private void registerTimeZoneReceiver() {
+            if (mRegisteredTimeZoneReceiver) {
+                return;
             }
+            mRegisteredTimeZoneReceiver = true;
+            IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+            SunshineWatchFace.this.registerReceiver(mTimeZoneReceiver, filter);
+        }
 
-            mLayout.measure(mSpecW, mSpecH);
-            mLayout.layout(0, 0, mLayout.getMeasuredWidth(), mLayout.getMeasuredHeight());
-
-            mLayout.draw(canvas);
+        private void unregisterTimeZoneReceiver() {
+            if (!mRegisteredTimeZoneReceiver) {
+                return;
+            }
+            mRegisteredTimeZoneReceiver = false;
+            SunshineWatchFace.this.unregisterReceiver(mTimeZoneReceiver);
         }
 
         public void updateWeather(DataMap dataMap) {
-            Log.d("SunshineWatchFace", "updateWeather: Updated temperatures");
-            if (dataMap != null) {
-                if (dataMap.containsKey(KEY_TEMP_HIGH)
-                        && dataMap.containsKey(KEY_TEMP_LOW)) {
-                    mHighTemp = dataMap.getString(KEY_TEMP_HIGH);
-                    mLowTemp = dataMap.getString(KEY_TEMP_LOW);
-                    mWeatherUpdater.loadBitmapFromAsset(dataMap.getAsset(KEY_WEATHER_ICON));
+            Log.d("SunshineWatchFace", "updateWeather: Updated forecast");
+            long start = System.nanoTime();
+            if (dataMap != null && dataMap.containsKey(KEY_FORECAST)) {
+                final byte[] bytes = dataMap.getByteArray(KEY_FORECAST);
+                mForecast = WatchForecast.fromBytes(bytes);
+                showNow();
+                invalidate();
+                if (mForecast != null) {
+                    AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            mSnapshots.saveForecast(bytes);
+                        }
+                    });
                 }
             }
+            mMetrics.recordWeatherUpdate(System.nanoTime() - start);
+        }
+
+        /**
+         * Takes the units the phone sent on their own, and reformats what's showing in them.
+         */
+        public void updateUnits(DataMap dataMap) {
+            if (dataMap == null || !dataMap.containsKey(KEY_METRIC)) {
+                return;
+            }
+            mHaveUnits = true;
+            mMetric = dataMap.getBoolean(KEY_METRIC);
+            showNow();
+            invalidate();
+        }
+
+        private boolean isMetric() {
+            return mHaveUnits ? mMetric : mForecast.isMetric();
+        }
+
+        /**
+         * Moves on to the next day at midnight and works out the temperature now once a minute.
+         * Called from the time ticks rather than while drawing, so a frame never formats or
+         * measures anything.
+         */
+        private void updateForTime(long timeMillis) {
+            int julianDay = getJulianDay(timeMillis);
+            if (julianDay != mShownJulianDay) {
+                showDay(julianDay);
+            }
+            int minute = getMinuteOfDay(timeMillis);
+            if (minute != mShownMinute) {
+                mShownMinute = minute;
+                showCurrentTemperature(timeMillis);
+            }
+        }
+
+        // Shows the forecast for today again, after it or the units changed
+        private void showNow() {
+            mShownJulianDay = -1;
+            updateForTime(System.currentTimeMillis());
+        }
+
+        /**
+         * Shows the forecast for the given day, or nothing if the phone hasn't sent one for it.
+         */
+        private void showDay(int julianDay) {
+            mShownJulianDay = julianDay;
+            mShownMinute = -1;
+            // The forecast or the units may have changed, so the curve is worked out again
+            mCurve = null;
+            mCurveJulianDay = -1;
+            int day = mForecast != null ? mForecast.indexOf(julianDay) : -1;
+            if (day == -1) {
+                mRenderer.setTemperatures(null, null);
+                showIcon(null);
+                return;
+            }
+            mRenderer.setTemperatures(mForecast.getHigh(day, isMetric()),
+                    mForecast.getLow(day, isMetric()));
+            showIcon(mForecast.getIconHash(day));
+        }
+
+        /**
+         * Shows roughly how warm it is now where the forecast is for, going by {@link #mCurve};
+         * the phone only sends highs and lows, so this is all the watch face knows of it.  The
+         * curve runs in solar time there, whatever time zone the watch is in.
+         */
+        private void showCurrentTemperature(long timeMillis) {
+            if (mForecast == null || !mForecast.hasLocation()) {
+                hideCurrentTemperature();
+                return;
+            }
+            float longitude = mForecast.getLongitude();
+            int julianDay = DiurnalCurve.getSolarJulianDay(timeMillis, longitude);
+            if (julianDay != mCurveJulianDay) {
+                mCurveJulianDay = julianDay;
+                mCurve = DiurnalCurve.forDay(mForecast, julianDay);
+            }
+            if (mCurve == null) {
+                hideCurrentTemperature();
+                return;
+            }
+            int tenths = mCurve.getTenths(DiurnalCurve.getSolarMinuteOfDay(timeMillis, longitude));
+            boolean metric = isMetric();
+            int degrees = WatchForecast.roundTemperature(tenths, metric);
+            // Most minutes it's the same whole degree as the one before
+            if (degrees == mShownDegrees && metric == mShownMetric) {
+                return;
+            }
+            mShownDegrees = degrees;
+            mShownMetric = metric;
+            mRenderer.setCurrentTemperature(WatchForecast.formatTemperature(tenths, metric));
+        }
+
+        private void hideCurrentTemperature() {
+            mShownDegrees = Integer.MIN_VALUE;
+            mRenderer.setCurrentTemperature(null);
+        }
+
+        private void setTimeZone(TimeZone timeZone) {
+            mTimeZone = timeZone;
+            mRenderer.setTimeZone(timeZone);
+            // It may be another day here now
+            showNow();
+        }
+
+        // The Julian day it is in our time zone, counted the way the phone counts them
+        private int getJulianDay(long timeMillis) {
+            long localMillis = timeMillis + mTimeZone.getOffset(timeMillis);
+            return (int) (localMillis / DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+        }
+
+        private int getMinuteOfDay(long timeMillis) {
+            long localMillis = timeMillis + mTimeZone.getOffset(timeMillis);
+            return (int) ((localMillis % DAY_IN_MILLIS) / MINUTE_IN_MILLIS);
+        }
+
+        /**
+         * Shows the icon with the given hash, straight away if it was decoded before and once
+         * {@link #mIconLoader} has loaded it otherwise.
+         */
+        private void showIcon(String hash) {
+            mIconHash = hash;
+            if (hash == null) {
+                setWeatherIcon(null);
+                return;
+            }
+            Bitmap icon = IconLoader.getCached(hash);
+            if (icon != null) {
+                setWeatherIcon(icon);
+            } else {
+                mIconLoader.load(hash, null);
+            }
+        }
+
+        /**
+         * Called when an icon arrives in the data layer, which may be after the weather naming
+         * it did.
+         */
+        private void onIconArrived(String hash, Asset asset) {
+            if (hash.equals(mIconHash) && IconLoader.getCached(hash) == null) {
+                mIconLoader.load(hash, asset);
+            }
         }
 
         /**
@@ -293,6 +508,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
          */
         private void updateTimer() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mNextUpdateMillis = 0;
             if (shouldTimerBeRunning()) {
                 mUpdateTimeHandler.sendEmptyMessage(MSG_UPDATE_TIME);
             }
@@ -310,28 +526,25 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
          * Handle updating the time periodically in interactive mode.
          */
         private void handleUpdateTimeMessage() {
+            long timeMs = System.currentTimeMillis();
+            updateForTime(timeMs);
             invalidate();
+            if (mNextUpdateMillis != 0) {
+                // A whole period late means a second went by without being shown
+                mMetrics.recordUpdateTick(timeMs - mNextUpdateMillis, INTERACTIVE_UPDATE_RATE_MS);
+            }
+            mNextUpdateMillis = 0;
             if (shouldTimerBeRunning()) {
-                long timeMs = System.currentTimeMillis();
                 long delayMs = INTERACTIVE_UPDATE_RATE_MS
                         - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
+                mNextUpdateMillis = timeMs + delayMs;
                 mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
             }
         }
 
         private void setWeatherIcon(Bitmap icon) {
-            mIconBitmap = icon;
-        }
-
-        @NonNull
-        private SpannableStringBuilder getFormattedTime() {
-            // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
-            String rawTime = mInAmbientMode
-                    ? mShortTimeFormat.format(mDate.getTime())
-                    : mFullTimeFormat.format(mDate.getTime());
-            final SpannableStringBuilder time = new SpannableStringBuilder(rawTime);
-            time.setSpan(new StyleSpan(Typeface.BOLD), 0, rawTime.indexOf(":"), 0);
-            return time;
+            mRenderer.setIcon(icon);
+            invalidate();
         }
 
         /**
@@ -340,8 +553,6 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         class SunshineWeatherUpdater implements GoogleApiClient.ConnectionCallbacks,
                 GoogleApiClient.OnConnectionFailedListener, DataApi.DataListener {
 
-            private static final long TIMEOUT_MS = 2000;
-
             private final String TAG = SunshineWeatherUpdater.class.getSimpleName();
             private final GoogleApiClient mGoogleApiClient;
             private final Engine mSunshineWatchFaceEngine;
@@ -359,6 +570,39 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             public void onConnected(@Nullable Bundle bundle) {
                 Log.d(TAG, "onConnected: Watchface GoogleAPI client connected");
                 Wearable.DataApi.addListener(mGoogleApiClient, this);
+
+                // Catch up on whatever changed while we weren't listening.  This only asks the
+                // data layer on the watch, so it doesn't wait on the phone.
+                Uri uri = new Uri.Builder()
+                        .scheme(PutDataRequest.WEAR_URI_SCHEME)
+                        .path(PATH_WEATHER)
+                        .build();
+                Wearable.DataApi.getDataItems(mGoogleApiClient, uri)
+                        .setResultCallback(new ResultCallback<DataItemBuffer>() {
+                            @Override
+                            public void onResult(@NonNull DataItemBuffer items) {
+                                if (items.getStatus().isSuccess() && items.getCount() > 0) {
+                                    mSunshineWatchFaceEngine.updateWeather(DataMapItem
+                                            .fromDataItem(items.get(0)).getDataMap());
+                                }
+                                items.release();
+                            }
+                        });
+                Uri unitsUri = new Uri.Builder()
+                        .scheme(PutDataRequest.WEAR_URI_SCHEME)
+                        .path(PATH_UNITS)
+                        .build();
+                Wearable.DataApi.getDataItems(mGoogleApiClient, unitsUri)
+                        .setResultCallback(new ResultCallback<DataItemBuffer>() {
+                            @Override
+                            public void onResult(@NonNull DataItemBuffer items) {
+                                if (items.getStatus().isSuccess() && items.getCount() > 0) {
+                                    mSunshineWatchFaceEngine.updateUnits(DataMapItem
+                                            .fromDataItem(items.get(0)).getDataMap());
+                                }
+                                items.release();
+                            }
+                        });
             }
 
             @Override
@@ -374,14 +618,24 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             @Override
             public void onDataChanged(DataEventBuffer dataEventBuffer) {
                 Log.d(TAG, "onDataChanged: New data detected");
+                mMetrics.recordDataEvents(dataEventBuffer.getCount());
                 for (DataEvent event : dataEventBuffer) {
                     if (event.getType() == DataEvent.TYPE_CHANGED) {
                         // DataItem changed
                         DataItem item = event.getDataItem();
-                        if (item.getUri().getPath().compareTo(PATH_WEATHER) == 0) {
+                        String path = item.getUri().getPath();
+                        if (path.compareTo(PATH_WEATHER) == 0) {
                             // Retrieve data map and send it back to engine to update weather info
                             DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
                             mSunshineWatchFaceEngine.updateWeather(dataMap);
+                        } else if (path.equals(PATH_UNITS)) {
+                            mSunshineWatchFaceEngine.updateUnits(
+                                    DataMapItem.fromDataItem(item).getDataMap());
+                        } else if (path.startsWith(PATH_ICON)) {
+                            DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
+                            mSunshineWatchFaceEngine.onIconArrived(
+                                    path.substring(PATH_ICON.length()),
+                                    dataMap.getAsset(KEY_ICON));
                         }
                     } else if (event.getType() == DataEvent.TYPE_DELETED) {
                         // DataItem deleted
@@ -400,43 +654,8 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 mGoogleApiClient.disconnect();
             }
 
-            public void loadBitmapFromAsset(Asset asset) {
-                new LoadBitmapFromAssetTask().execute(asset);
-            }
-
-            public class LoadBitmapFromAssetTask extends AsyncTask<Asset, Void, Bitmap> {
-
-                @Override
-                protected Bitmap doInBackground(Asset... params) {
-                    Asset asset = params[0];
-                    if (asset == null) {
-                        throw new IllegalArgumentException("Asset must be non-null");
-                    }
-                    ConnectionResult result =
-                            mGoogleApiClient.blockingConnect(TIMEOUT_MS, TimeUnit.MILLISECONDS);
-                    if (!result.isSuccess()) {
-                        return null;
-                    }
-                    // convert asset into a file descriptor and block until it's ready
-                    InputStream assetInputStream = Wearable.DataApi.getFdForAsset(
-                            mGoogleApiClient, asset).await().getInputStream();
-                    mGoogleApiClient.disconnect();
-
-                    if (assetInputStream == null) {
-                        Log.w(TAG, "Requested an unknown Asset.");
-                        return null;
-                    }
-                    // decode the stream into a bitmap
-                    return BitmapFactory.decodeStream(assetInputStream);
-                }
-
-                @Override
-                protected void onPostExecute(Bitmap bitmap) {
-                    Log.d(TAG, "Bitmap found: " + bitmap);
-                    if (mSunshineWatchFaceEngine != null) {
-                        mSunshineWatchFaceEngine.setWeatherIcon(bitmap);
-                    }
-                }
+            public GoogleApiClient getClient() {
+                return mGoogleApiClient;
             }
         }
     }
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Counts what the watch face spends its time on: how long frames take to draw, split into
+ * interactive and ambient and bucketed by powers of two microseconds from
+ * {@link #FIRST_BUCKET_MICROS}, how often the once a second update comes a whole second late,
+ * how many data layer events, weather updates and icon decodes there were, and how many icon
+ * requests a newer one replaced before they loaded.
+ * The last {@link #RECENT_FRAMES} frame times are kept as well.
+ *
+ * Recording is a few array writes under an uncontended lock and allocates nothing, so this is
+ * always on.  Read it with
+ * {@code adb shell dumpsys activity service com.example.android.sunshine.app/.SunshineWatchFace},
+ * adding {@code export} to also write it to {@link #EXPORT_FILE} in the watch face's files.
+ */
+final class WatchFaceMetrics {
+    private static final String TAG = WatchFaceMetrics.class.getSimpleName();
+
+    static final String EXPORT_FILE = "watchface_metrics.txt";
+
+    // Frames under 64, 128, 256 ... 65536us, then the rest.  Drawing the cached static layer
+    // takes well under a millisecond, so the buckets have to be finer than that to show a change
+    private static final int FIRST_BUCKET_MICROS = 64;
+    private static final int BUCKETS = 12;
+    private static final int RECENT_FRAMES = 256;
+
+    private static final WatchFaceMetrics sInstance = new WatchFaceMetrics();
+
+    static WatchFaceMetrics get() {
+        return sInstance;
+    }
+
+    private final long mStartMillis = SystemClock.elapsedRealtime();
+    private final int[] mInteractiveHistogram = new int[BUCKETS];
+    private final int[] mAmbientHistogram = new int[BUCKETS];
+    private long mInteractiveFrames;
+    private long mAmbientFrames;
+    private long mInteractiveNanos;
+    private long mAmbientNanos;
+    private long mMaxFrameNanos;
+
+    // Ring buffer of the latest frame times
+    private final long[] mRecentFrameNanos = new long[RECENT_FRAMES];
+    private int mRecentNext;
+
+    private long mUpdateTicks;
+    private long mMissedDeadlines;
+    private long mDataEvents;
+    private long mWeatherUpdates;
+    private long mWeatherUpdateNanos;
+    private long mDecodes;
+    private long mDecodeNanos;
+    private long mDroppedIconRequests;
+
+    private WatchFaceMetrics() {
+    }
+
+    synchronized void recordFrame(long nanos, boolean ambient) {
+        int bucket = bucketOf(nanos);
+        if (ambient) {
+            mAmbientFrames++;
+            mAmbientNanos += nanos;
+            mAmbientHistogram[bucket]++;
+        } else {
+            mInteractiveFrames++;
+            mInteractiveNanos += nanos;
+            mInteractiveHistogram[bucket]++;
+        }
+        mMaxFrameNanos = Math.max(mMaxFrameNanos, nanos);
+        mRecentFrameNanos[mRecentNext] = nanos;
+        mRecentNext = (mRecentNext + 1) % RECENT_FRAMES;
+    }
+
+    /** Records an interactive update arriving lateMillis after it was due. */
+    synchronized void recordUpdateTick(long lateMillis, long periodMillis) {
+        mUpdateTicks++;
+        if (lateMillis >= periodMillis) {
+            mMissedDeadlines++;
+        }
+    }
+
+    synchronized void recordDataEvents(int count) {
+        mDataEvents += count;
+    }
+
+    synchronized void recordWeatherUpdate(long nanos) {
+        mWeatherUpdates++;
+        mWeatherUpdateNanos += nanos;
+    }
+
+    synchronized void recordDecode(long nanos) {
+        mDecodes++;
+        mDecodeNanos += nanos;
+    }
+
+    /** Records an icon request replaced by a newer one before it was loaded. */
+    synchronized void recordIconRequestDropped() {
+        mDroppedIconRequests++;
+    }
+
+    synchronized void dump(PrintWriter out) {
+        out.printf(Locale.US, "Watch face metrics over %ds%n",
+                (SystemClock.elapsedRealtime() - mStartMillis) / 1000);
+        out.printf(Locale.US, "  interactive frames: %d, average %.3fms%n",
+                mInteractiveFrames, averageMillis(mInteractiveNanos, mInteractiveFrames));
+        dumpHistogram(out, mInteractiveHistogram);
+        out.printf(Locale.US, "  ambient frames: %d, average %.3fms%n",
+                mAmbientFrames, averageMillis(mAmbientNanos, mAmbientFrames));
+        dumpHistogram(out, mAmbientHistogram);
+        out.printf(Locale.US, "  slowest frame: %.3fms%n", mMaxFrameNanos / 1e6);
+        out.printf(Locale.US, "  interactive updates: %d, missed deadlines: %d%n",
+                mUpdateTicks, mMissedDeadlines);
+        out.printf(Locale.US, "  data events: %d, weather updates: %d, average %.3fms%n",
+                mDataEvents, mWeatherUpdates, averageMillis(mWeatherUpdateNanos, mWeatherUpdates));
+        out.printf(Locale.US, "  icon decodes: %d, average %.3fms, superseded requests: %d%n",
+                mDecodes, averageMillis(mDecodeNanos, mDecodes), mDroppedIconRequests);
+
+        out.print("  recent frames (ms, oldest first):");
+        long frames = mInteractiveFrames + mAmbientFrames;
+        int recent = (int) Math.min(frames, RECENT_FRAMES);
+        for (int i = 0; i < recent; i++) {
+            int index = (mRecentNext - recent + i + RECENT_FRAMES) % RECENT_FRAMES;
+            out.printf(Locale.US, i % 16 == 0 ? "%n    %.2f" : " %.2f",
+                    mRecentFrameNanos[index] / 1e6);
+        }
+        out.println();
+    }
+
+    /** Writes the dump to {@link #EXPORT_FILE} in the given directory. */
+    void export(File directory) {
+        File file = new File(directory, EXPORT_FILE);
+        PrintWriter out = null;
+        try {
+            out = new PrintWriter(new FileWriter(file));
+            dump(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't write " + file, e);
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    private static void dumpHistogram(PrintWriter out, int[] histogram) {
+        for (int i = 0; i < BUCKETS; i++) {
+            if (i % 6 == 0) {
+                if (i > 0) {
+                    out.println();
+                }
+                out.print("   ");
+            }
+            if (i < BUCKETS - 1) {
+                out.printf(Locale.US, " <%dus: %d", upperBoundMicros(i), histogram[i]);
+            } else {
+                out.printf(Locale.US, " >=%dus: %d", upperBoundMicros(i - 1), histogram[i]);
+            }
+        }
+        out.println();
+    }
+
+    /** Returns the exclusive upper bound of the given bucket, which mustn't be the last. */
+    private static long upperBoundMicros(int bucket) {
+        return (long) FIRST_BUCKET_MICROS << bucket;
+    }
+
+    private static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 0;
+        while (bucket < BUCKETS - 1 && micros >= upperBoundMicros(bucket)) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    private static double averageMillis(long nanos, long count) {
+        return count > 0 ? nanos / (count * 1e6) : 0;
+    }
+}
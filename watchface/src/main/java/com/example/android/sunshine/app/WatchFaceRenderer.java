@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.support.v4.content.ContextCompat;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Draws the watch face straight onto the canvas: the time, the date, a divider and today's
+ * weather, stacked and centered the way watchface_rect.xml used to lay them out.  The weather
+ * row is the icon, the temperature now when there is one, and the high and low.
+ *
+ * Everything that only changes with the surface size, the ambient mode, the date or the weather
+ * is measured and placed when that changes, and drawn then into an offscreen layer; drawing a
+ * frame is copying that layer and drawing the time over it.  The time's digits each get a fixed
+ * cell as wide as the widest digit, so they never need measuring either, and they are written
+ * into a char[] from a reused Calendar.  In low-bit ambient mode the digits are stamped from
+ * glyphs rasterized without anti-aliasing the first time that mode comes around.  Nothing is
+ * allocated while drawing, except the date once a day.  The temperature now is set from the
+ * time ticks, not while drawing, and only the weather row is placed again when it changes.
+ */
+class WatchFaceRenderer {
+
+    // "HH:mm:ss"; the first five are what ambient mode shows
+    private static final int TIME_CHARS_INTERACTIVE = 8;
+    private static final int TIME_CHARS_AMBIENT = 5;
+    private static final int HALF_TRANSPARENT = 0x80;
+    private static final int DIVIDER_ALPHA = 0x33;
+
+    private final Paint mHoursPaint = new Paint();
+    private final Paint mTimePaint = new Paint();
+    private final Paint mDatePaint = new Paint();
+    private final Paint mDividerPaint = new Paint();
+    private final Paint mCurrentTempPaint = new Paint();
+    private final Paint mHighTempPaint = new Paint();
+    private final Paint mLowTempPaint = new Paint();
+    private final Paint mIconPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final int mInteractiveBackgroundColor;
+
+    private final float mDateMargin;
+    private final float mDividerWidth;
+    private final float mDividerHeight;
+    private final float mDividerMargin;
+    private final float mIconSize;
+    private final float mWeatherMargin;
+
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final SimpleDateFormat mDateFormat =
+            new SimpleDateFormat("EEE MMM dd yyyy", Locale.getDefault());
+    private final char[] mTime = new char[TIME_CHARS_INTERACTIVE];
+    // Centers of the cells each character of the time is drawn in
+    private final float[] mTimeX = new float[TIME_CHARS_INTERACTIVE];
+    private final float[] mAmbientTimeX = new float[TIME_CHARS_AMBIENT];
+
+    private int mWidth;
+    private int mHeight;
+    private boolean mAmbient;
+    private boolean mLowBitAmbient;
+
+    // The background, date, divider and weather, redrawn only when one of them changes
+    private Bitmap mStaticLayer;
+    private Canvas mStaticCanvas;
+    private boolean mStaticLayerDirty = true;
+
+    // The time's characters for low-bit ambient mode, drawn from their cell's top left
+    private Bitmap[] mHourGlyphs;
+    private Bitmap[] mMinuteGlyphs;
+    private Bitmap mColonGlyph;
+    // Where the glyphs' tops are, relative to the baseline
+    private float mHourGlyphTop;
+    private float mMinuteGlyphTop;
+    private final Paint mGlyphPaint = new Paint();
+
+    private String mDate = "";
+    private int mDateYear = -1;
+    private int mDateDayOfYear = -1;
+    private String mCurrentTemp = "";
+    private String mHighTemp = "";
+    private String mLowTemp = "";
+    private Bitmap mIcon;
+
+    // Where things go, worked out by layout()
+    private float mTimeBaseline;
+    private float mDateBaseline;
+    private float mDividerTop;
+    private float mCurrentTempX;
+    private float mHighTempX;
+    private float mLowTempX;
+    private float mTempBaseline;
+    private float mWeatherRowTop;
+    private float mWeatherRowHeight;
+    private final RectF mIconRect = new RectF();
+
+    WatchFaceRenderer(Context context) {
+        Resources resources = context.getResources();
+        mInteractiveBackgroundColor = ContextCompat.getColor(context, R.color.md_light_blue_500);
+
+        Typeface light = Typeface.create("sans-serif-light", Typeface.NORMAL);
+        Typeface lightBold = Typeface.create("sans-serif-light", Typeface.BOLD);
+        Typeface regular = Typeface.create("sans-serif", Typeface.NORMAL);
+        Typeface bold = Typeface.create("sans-serif", Typeface.BOLD);
+        float timeTextSize = resources.getDimension(R.dimen.time_text_size);
+        float tempTextSize = resources.getDimension(R.dimen.temp_text_size);
+        setUpTextPaint(mHoursPaint, lightBold, timeTextSize, 0xFF);
+        setUpTextPaint(mTimePaint, light, timeTextSize, 0xFF);
+        setUpTextPaint(mDatePaint, light, resources.getDimension(R.dimen.date_text_size),
+                HALF_TRANSPARENT);
+        setUpTextPaint(mCurrentTempPaint, bold, tempTextSize, 0xFF);
+        setUpTextPaint(mHighTempPaint, regular, tempTextSize, 0xFF);
+        setUpTextPaint(mLowTempPaint, light, tempTextSize, HALF_TRANSPARENT);
+        mHoursPaint.setTextAlign(Paint.Align.CENTER);
+        mTimePaint.setTextAlign(Paint.Align.CENTER);
+        mDatePaint.setTextAlign(Paint.Align.CENTER);
+        mDividerPaint.setColor(Color.WHITE);
+        mDividerPaint.setAlpha(DIVIDER_ALPHA);
+        mGlyphPaint.setColor(Color.WHITE);
+
+        mDateMargin = resources.getDimension(R.dimen.date_margin);
+        mDividerWidth = resources.getDimension(R.dimen.divider_width);
+        mDividerHeight = resources.getDimension(R.dimen.divider_height);
+        mDividerMargin = resources.getDimension(R.dimen.divider_margin);
+        mIconSize = resources.getDimension(R.dimen.weather_icon_size);
+        mWeatherMargin = resources.getDimension(R.dimen.weather_margin);
+
+        mTime[2] = ':';
+        mTime[5] = ':';
+    }
+
+    private static void setUpTextPaint(Paint paint, Typeface typeface, float textSize,
+                                       int alpha) {
+        paint.setColor(Color.WHITE);
+        paint.setAlpha(alpha);
+        paint.setTypeface(typeface);
+        paint.setTextSize(textSize);
+        paint.setAntiAlias(true);
+    }
+
+    void setSize(int width, int height) {
+        if (width == mWidth && height == mHeight) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        if (mStaticLayer != null) {
+            mStaticLayer.recycle();
+            mStaticLayer = null;
+        }
+        if (width > 0 && height > 0) {
+            mStaticLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mStaticCanvas = new Canvas(mStaticLayer);
+        }
+        layout();
+    }
+
+    void setAmbient(boolean ambient, boolean lowBitAmbient) {
+        mAmbient = ambient;
+        mLowBitAmbient = lowBitAmbient;
+        // Low-bit ambient screens can't show the shades anti-aliasing needs
+        boolean antiAlias = !(ambient && lowBitAmbient);
+        mHoursPaint.setAntiAlias(antiAlias);
+        mTimePaint.setAntiAlias(antiAlias);
+        mDatePaint.setAntiAlias(antiAlias);
+        mCurrentTempPaint.setAntiAlias(antiAlias);
+        mHighTempPaint.setAntiAlias(antiAlias);
+        mLowTempPaint.setAntiAlias(antiAlias);
+        if (!antiAlias && mColonGlyph == null) {
+            rasterizeGlyphs();
+        }
+        layout();
+    }
+
+    void setTimeZone(TimeZone timeZone) {
+        mCalendar.setTimeZone(timeZone);
+        mDateFormat.setTimeZone(timeZone);
+        // Today may be another day over there
+        mDateYear = -1;
+    }
+
+    void setTemperatures(String highTemp, String lowTemp) {
+        mHighTemp = highTemp != null ? highTemp : "";
+        mLowTemp = lowTemp != null ? lowTemp : "";
+        layoutWeatherRow();
+    }
+
+    /**
+     * Sets the temperature now, null if there's no telling.  Only the weather row is placed
+     * again, and only if what it says changed.
+     */
+    void setCurrentTemperature(String currentTemp) {
+        if (currentTemp == null) {
+            currentTemp = "";
+        }
+        if (currentTemp.equals(mCurrentTemp)) {
+            return;
+        }
+        mCurrentTemp = currentTemp;
+        layoutWeatherRow();
+    }
+
+    void setIcon(Bitmap icon) {
+        mIcon = icon;
+        mStaticLayerDirty = true;
+    }
+
+    /** Lets go of the offscreen layer; the renderer draws nothing until it's given a size. */
+    void release() {
+        if (mStaticLayer != null) {
+            mStaticLayer.recycle();
+            mStaticLayer = null;
+            mStaticCanvas = null;
+        }
+        mWidth = 0;
+        mHeight = 0;
+    }
+
+    void draw(Canvas canvas, long timeMillis) {
+        mCalendar.setTimeInMillis(timeMillis);
+        updateDate();
+        updateTime();
+
+        if (mStaticLayer == null) {
+            return;
+        }
+        if (mStaticLayerDirty) {
+            drawStaticLayer(mStaticCanvas);
+            mStaticLayerDirty = false;
+        }
+        canvas.drawBitmap(mStaticLayer, 0, 0, null);
+
+        int timeChars = mAmbient ? TIME_CHARS_AMBIENT : TIME_CHARS_INTERACTIVE;
+        float[] timeX = mAmbient ? mAmbientTimeX : mTimeX;
+        if (mAmbient && mLowBitAmbient) {
+            for (int i = 0; i < timeChars; i++) {
+                Bitmap glyph = getGlyph(i);
+                float top = mTimeBaseline + (i < 2 ? mHourGlyphTop : mMinuteGlyphTop);
+                canvas.drawBitmap(glyph, timeX[i] - glyph.getWidth() / 2f, top, mGlyphPaint);
+            }
+            return;
+        }
+        for (int i = 0; i < timeChars; i++) {
+            canvas.drawText(mTime, i, 1, timeX[i], mTimeBaseline,
+                    i < 2 ? mHoursPaint : mTimePaint);
+        }
+    }
+
+    private void drawStaticLayer(Canvas canvas) {
+        canvas.drawColor(mAmbient ? Color.BLACK : mInteractiveBackgroundColor);
+
+        canvas.drawText(mDate, mWidth / 2f, mDateBaseline, mDatePaint);
+        canvas.drawRect((mWidth - mDividerWidth) / 2f, mDividerTop,
+                (mWidth + mDividerWidth) / 2f, mDividerTop + mDividerHeight, mDividerPaint);
+
+        if (!mAmbient && mIcon != null) {
+            canvas.drawBitmap(mIcon, null, mIconRect, mIconPaint);
+        }
+        canvas.drawText(mCurrentTemp, mCurrentTempX, mTempBaseline, mCurrentTempPaint);
+        canvas.drawText(mHighTemp, mHighTempX, mTempBaseline, mHighTempPaint);
+        canvas.drawText(mLowTemp, mLowTempX, mTempBaseline, mLowTempPaint);
+    }
+
+    private Bitmap getGlyph(int position) {
+        if (position == 2 || position == 5) {
+            return mColonGlyph;
+        }
+        int digit = mTime[position] - '0';
+        return position < 2 ? mHourGlyphs[digit] : mMinuteGlyphs[digit];
+    }
+
+    /*
+        Draws each digit and the colon, with the non-anti-aliased paints, into an 8-bit alpha
+        bitmap as wide as its cell and as tall as the font, so the time can be stamped from them.
+        The paints' sizes and faces never change, so this only happens once.
+     */
+    private void rasterizeGlyphs() {
+        mHourGlyphs = new Bitmap[10];
+        mMinuteGlyphs = new Bitmap[10];
+        for (int digit = 0; digit < 10; digit++) {
+            char c = (char) ('0' + digit);
+            mHourGlyphs[digit] = rasterize(c, mHoursPaint, widestDigit(mHoursPaint));
+            mMinuteGlyphs[digit] = rasterize(c, mTimePaint, widestDigit(mTimePaint));
+        }
+        mColonGlyph = rasterize(':', mTimePaint, mTimePaint.measureText(":"));
+        mHourGlyphTop = mHoursPaint.getFontMetrics().top;
+        mMinuteGlyphTop = mTimePaint.getFontMetrics().top;
+    }
+
+    private static Bitmap rasterize(char c, Paint paint, float cellWidth) {
+        Paint.FontMetrics metrics = paint.getFontMetrics();
+        int width = (int) Math.ceil(cellWidth);
+        int height = (int) Math.ceil(metrics.bottom - metrics.top);
+        Bitmap glyph = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        new Canvas(glyph).drawText(String.valueOf(c), width / 2f, -metrics.top, paint);
+        return glyph;
+    }
+
+    private void updateTime() {
+        int hour = mCalendar.get(Calendar.HOUR_OF_DAY);
+        int minute = mCalendar.get(Calendar.MINUTE);
+        int second = mCalendar.get(Calendar.SECOND);
+        mTime[0] = (char) ('0' + hour / 10);
+        mTime[1] = (char) ('0' + hour % 10);
+        mTime[3] = (char) ('0' + minute / 10);
+        mTime[4] = (char) ('0' + minute % 10);
+        mTime[6] = (char) ('0' + second / 10);
+        mTime[7] = (char) ('0' + second % 10);
+    }
+
+    private void updateDate() {
+        int year = mCalendar.get(Calendar.YEAR);
+        int dayOfYear = mCalendar.get(Calendar.DAY_OF_YEAR);
+        if (year != mDateYear || dayOfYear != mDateDayOfYear) {
+            mDateYear = year;
+            mDateDayOfYear = dayOfYear;
+            mDate = mDateFormat.format(mCalendar.getTime()).toUpperCase(Locale.getDefault());
+            mStaticLayerDirty = true;
+        }
+    }
+
+    /*
+        Places everything for the current size, mode and weather: the time, date, divider and
+        weather row are stacked and centered, like the LinearLayouts this replaces did.
+     */
+    private void layout() {
+        mStaticLayerDirty = true;
+        if (mWidth == 0 || mHeight == 0) {
+            return;
+        }
+
+        Paint.FontMetrics timeMetrics = mTimePaint.getFontMetrics();
+        Paint.FontMetrics dateMetrics = mDatePaint.getFontMetrics();
+        Paint.FontMetrics tempMetrics = mHighTempPaint.getFontMetrics();
+        float timeHeight = timeMetrics.bottom - timeMetrics.top;
+        float dateHeight = dateMetrics.bottom - dateMetrics.top;
+        float tempHeight = tempMetrics.bottom - tempMetrics.top + 2 * mWeatherMargin;
+        // The icon is gone in ambient mode, so it doesn't hold the row open then
+        float rowHeight = mAmbient ? tempHeight : Math.max(mIconSize, tempHeight);
+        float height = timeHeight + dateHeight + 2 * mDateMargin
+                + mDividerHeight + 2 * mDividerMargin + rowHeight;
+
+        float top = (mHeight - height) / 2;
+        mTimeBaseline = top - timeMetrics.top;
+        top += timeHeight + mDateMargin;
+        mDateBaseline = top - dateMetrics.top;
+        top += dateHeight + mDateMargin + mDividerMargin;
+        mDividerTop = top;
+        top += mDividerHeight + mDividerMargin;
+        mTempBaseline = top + (rowHeight - tempHeight) / 2 + mWeatherMargin - tempMetrics.top;
+        mWeatherRowTop = top;
+        mWeatherRowHeight = rowHeight;
+
+        layoutTime(mTimeX, TIME_CHARS_INTERACTIVE);
+        layoutTime(mAmbientTimeX, TIME_CHARS_AMBIENT);
+        layoutWeatherRow();
+    }
+
+    // Places the icon and temperatures along the row layout() left for them
+    private void layoutWeatherRow() {
+        mStaticLayerDirty = true;
+        if (mWidth == 0 || mHeight == 0) {
+            return;
+        }
+
+        float currentWidth = mCurrentTemp.isEmpty()
+                ? 0 : mCurrentTempPaint.measureText(mCurrentTemp) + 2 * mWeatherMargin;
+        float highWidth = mHighTempPaint.measureText(mHighTemp);
+        float lowWidth = mLowTempPaint.measureText(mLowTemp);
+        float iconWidth = mAmbient ? 0 : mIconSize + 2 * mWeatherMargin;
+        float rowWidth = iconWidth + currentWidth + highWidth + lowWidth + 4 * mWeatherMargin;
+        float left = (mWidth - rowWidth) / 2;
+        float iconTop = mWeatherRowTop + (mWeatherRowHeight - mIconSize) / 2;
+        mIconRect.set(left + mWeatherMargin, iconTop,
+                left + mWeatherMargin + mIconSize, iconTop + mIconSize);
+        mCurrentTempX = left + iconWidth + mWeatherMargin;
+        mHighTempX = left + iconWidth + currentWidth + mWeatherMargin;
+        mLowTempX = mHighTempX + highWidth + 2 * mWeatherMargin;
+    }
+
+    // Gives each character of the time a cell, digits as wide as the widest digit
+    private void layoutTime(float[] centers, int chars) {
+        float hoursCell = widestDigit(mHoursPaint);
+        float cell = widestDigit(mTimePaint);
+        float colon = mTimePaint.measureText(":");
+        float width = 2 * hoursCell;
+        for (int i = 2; i < chars; i++) {
+            width += (i == 2 || i == 5) ? colon : cell;
+        }
+
+        float x = (mWidth - width) / 2;
+        for (int i = 0; i < chars; i++) {
+            float charWidth = i < 2 ? hoursCell : (i == 2 || i == 5) ? colon : cell;
+            centers[i] = x + charWidth / 2;
+            x += charWidth;
+        }
+    }
+
+    private static float widestDigit(Paint paint) {
+        float widest = 0;
+        for (char digit = '0'; digit <= '9'; digit++) {
+            widest = Math.max(widest, paint.measureText(String.valueOf(digit)));
+        }
+        return widest;
+    }
+}
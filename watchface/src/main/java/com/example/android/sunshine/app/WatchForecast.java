@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * The forecast the phone packs with its WatchForecastEncoder, read straight out of the bytes it
+ * came in.  Only the header is checked up front; a day is read when it's asked for, which is
+ * once a day.  The layout, big-endian:
+ *
+ * <pre>
+ * header  version (byte), flags (byte, bit 0 = metric), first Julian day (int),
+ *         day count (byte), icon count (byte),
+ *         latitude and longitude in degrees (floats, NaN if unknown)
+ * icons   the SHA-1 of each icon (20 bytes each)
+ * days    Julian day - first Julian day (byte), weather id (short),
+ *         high and low in tenths of a degree Celsius (shorts), icon index (byte, 0xff = none)
+ * </pre>
+ *
+ * The metric flag is only the units when the phone packed the forecast; the phone sends the
+ * units on their own too, and those win once the watch face has them.
+ */
+class WatchForecast {
+
+    private static final int VERSION = 2;
+    private static final int FLAG_METRIC = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int HASH_BYTES = 20;
+    private static final int DAY_BYTES = 8;
+    private static final int NO_ICON = 0xff;
+
+    private final ByteBuffer mBytes;
+    private final boolean mMetric;
+    private final int mFirstJulianDay;
+    private final int mDayCount;
+    private final int mDaysStart;
+    private final float mLatitude;
+    private final float mLongitude;
+
+    private WatchForecast(ByteBuffer bytes) {
+        mBytes = bytes;
+        mMetric = (bytes.get(1) & FLAG_METRIC) != 0;
+        mFirstJulianDay = bytes.getInt(2);
+        mDayCount = bytes.get(6) & 0xff;
+        mDaysStart = HEADER_BYTES + (bytes.get(7) & 0xff) * HASH_BYTES;
+        mLatitude = bytes.getFloat(8);
+        mLongitude = bytes.getFloat(12);
+    }
+
+    /**
+     * Returns the forecast in the bytes, or null if there are none or they're in a version this
+     * watch face doesn't know.
+     */
+    static WatchForecast fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length < HEADER_BYTES || bytes[0] != VERSION) {
+            return null;
+        }
+        WatchForecast forecast = new WatchForecast(ByteBuffer.wrap(bytes));
+        if (bytes.length < forecast.mDaysStart + forecast.mDayCount * DAY_BYTES) {
+            return null;
+        }
+        return forecast;
+    }
+
+    /** Returns which of the days is the given Julian day, -1 if none is. */
+    int indexOf(int julianDay) {
+        int offset = julianDay - mFirstJulianDay;
+        if (offset < 0) {
+            return -1;
+        }
+        // Usually every day is there, so the day is where its offset says
+        if (offset < mDayCount && dayOffset(offset) == offset) {
+            return offset;
+        }
+        for (int i = 0; i < mDayCount; i++) {
+            if (dayOffset(i) == offset) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns whether the phone said where the forecast is for. */
+    boolean hasLocation() {
+        return !Float.isNaN(mLatitude) && !Float.isNaN(mLongitude);
+    }
+
+    /** Returns the latitude the forecast is for, in degrees north. */
+    float getLatitude() {
+        return mLatitude;
+    }
+
+    /** Returns the longitude the forecast is for, in degrees east. */
+    float getLongitude() {
+        return mLongitude;
+    }
+
+    int getWeatherId(int day) {
+        return mBytes.getShort(dayStart(day) + 1);
+    }
+
+    /** Returns whether the phone was set to metric units when it packed the forecast. */
+    boolean isMetric() {
+        return mMetric;
+    }
+
+    /** Returns the day's high, formatted in the given units. */
+    String getHigh(int day, boolean metric) {
+        return formatTemperature(getHighTenths(day), metric);
+    }
+
+    /** Returns the day's low, formatted in the given units. */
+    String getLow(int day, boolean metric) {
+        return formatTemperature(getLowTenths(day), metric);
+    }
+
+    /** Returns the day's high in tenths of a degree Celsius. */
+    int getHighTenths(int day) {
+        return mBytes.getShort(dayStart(day) + 3);
+    }
+
+    /** Returns the day's low in tenths of a degree Celsius. */
+    int getLowTenths(int day) {
+        return mBytes.getShort(dayStart(day) + 5);
+    }
+
+    /** Returns the hash the day's icon goes by, or null if it has none. */
+    String getIconHash(int day) {
+        int icon = mBytes.get(dayStart(day) + 7) & 0xff;
+        if (icon == NO_ICON) {
+            return null;
+        }
+        int start = HEADER_BYTES + icon * HASH_BYTES;
+        final char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[HASH_BYTES * 2];
+        for (int i = 0; i < HASH_BYTES; i++) {
+            byte b = mBytes.get(start + i);
+            hex[i * 2] = digits[(b >> 4) & 0xf];
+            hex[i * 2 + 1] = digits[b & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private int dayStart(int day) {
+        return mDaysStart + day * DAY_BYTES;
+    }
+
+    private int dayOffset(int day) {
+        return mBytes.get(dayStart(day)) & 0xff;
+    }
+
+    /**
+     * Formats tenths of a degree Celsius in the given units, the same way the phone's
+     * Utility.formatTemperature() does.
+     */
+    static String formatTemperature(int tenthsCelsius, boolean metric) {
+        return String.format(Locale.getDefault(), "%d\u00B0",
+                roundTemperature(tenthsCelsius, metric));
+    }
+
+    /**
+     * Returns the whole degrees {@link #formatTemperature(int, boolean)} shows for tenths of a
+     * degree Celsius, rounding halves away from zero.
+     */
+    static int roundTemperature(int tenthsCelsius, boolean metric) {
+        double temperature = tenthsCelsius / 10.0;
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        long degrees = Math.round(Math.abs(temperature));
+        return (int) (temperature < 0 ? -degrees : degrees);
+    }
+}
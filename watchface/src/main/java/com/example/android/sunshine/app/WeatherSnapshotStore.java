@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps the last forecast the phone sent, as the bytes it came in, and the icons it named, as
+ * the PNGs they came in, in the watch face's files.  A new engine reads them back so it has
+ * something to show straight away, rather than nothing until the phone next syncs.
+ *
+ * Files are written whole or not at all, so a reboot mid-write leaves the last good copy.
+ * Writing should be kept off the main thread; the reads are small enough for onCreate().
+ */
+class WeatherSnapshotStore {
+    private static final String TAG = WeatherSnapshotStore.class.getSimpleName();
+
+    private static final String FORECAST_FILE = "forecast.bin";
+    private static final String ICON_DIRECTORY = "icons";
+
+    private final File mForecastFile;
+    private final File mIconDirectory;
+
+    WeatherSnapshotStore(Context context) {
+        mForecastFile = new File(context.getFilesDir(), FORECAST_FILE);
+        mIconDirectory = new File(context.getFilesDir(), ICON_DIRECTORY);
+    }
+
+    /** Returns the last forecast saved, or null if there is none. */
+    byte[] loadForecast() {
+        return read(new AtomicFile(mForecastFile));
+    }
+
+    void saveForecast(byte[] forecast) {
+        write(new AtomicFile(mForecastFile), forecast);
+    }
+
+    /** Returns the PNG of the icon saved under the hash, or null if there is none. */
+    byte[] loadIcon(String hash) {
+        return read(new AtomicFile(new File(mIconDirectory, hash)));
+    }
+
+    void saveIcon(String hash, byte[] png) {
+        if (!mIconDirectory.isDirectory() && !mIconDirectory.mkdirs()) {
+            Log.e(TAG, "Couldn't make " + mIconDirectory);
+            return;
+        }
+        write(new AtomicFile(new File(mIconDirectory, hash)), png);
+    }
+
+    private static byte[] read(AtomicFile file) {
+        try {
+            return file.readFully();
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't read " + file.getBaseFile(), e);
+            return null;
+        }
+    }
+
+    private static void write(AtomicFile file, byte[] bytes) {
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            out.write(bytes);
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't write " + file.getBaseFile(), e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+}